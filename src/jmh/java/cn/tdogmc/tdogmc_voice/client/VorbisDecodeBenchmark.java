@@ -0,0 +1,104 @@
+package cn.tdogmc.tdogmc_voice.client;
+
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完整解码一段 Vorbis 音频的开销，只用 stb_vorbis，不需要 OpenAL 设备。
+ * push 解码器按不同的数据块到达大小喂入数据，与音频线程的追加 / 解码循环一致；mapped 为本地缓存播放的路径。
+ * <p>
+ * 测试音频是运行时生成的 30 秒立体声 Vorbis（见单元测试中的 SyntheticVorbis），也可以用 {@code -Dtdvoice.bench.clip=<路径>} 指定真实的文件。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VorbisDecodeBenchmark {
+    private static final int STREAM_BUFFER_BYTES = 512 * 1024;
+    private static final int BUFFER_SAMPLES = 8192;
+    private static final double CLIP_SECONDS = 30;
+
+    @Param({"1024", "8192", "65536"})
+    public int chunkSize;
+
+    private NativeBufferPool pool;
+    private byte[][] chunks;
+    private Path clipFile;
+    private ShortBuffer pcm;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[] clip = loadClip();
+        int count = (clip.length + chunkSize - 1) / chunkSize;
+        chunks = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            chunks[i] = Arrays.copyOfRange(clip, i * chunkSize, Math.min(clip.length, (i + 1) * chunkSize));
+        }
+        clipFile = Files.createTempFile("tdvoice-bench", ".ogg");
+        Files.write(clipFile, clip);
+        pool = new NativeBufferPool();
+        pcm = MemoryUtil.memAllocShort(BUFFER_SAMPLES * 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        MemoryUtil.memFree(pcm);
+        Files.deleteIfExists(clipFile);
+    }
+
+    @Benchmark
+    public long decodePush() {
+        VorbisPushDecoder decoder = new VorbisPushDecoder(pool, STREAM_BUFFER_BYTES);
+        Queue<byte[]> incoming = new ArrayDeque<>(Arrays.asList(chunks));
+        long samples = 0;
+        try {
+            while (true) {
+                byte[] next;
+                while ((next = incoming.peek()) != null && decoder.append(next)) incoming.poll();
+                if (!decoder.open()) {
+                    if (incoming.isEmpty() || decoder.hasFailed()) break;
+                    continue;
+                }
+                pcm.clear().limit(BUFFER_SAMPLES * decoder.getOutputChannels());
+                int count = decoder.decode(pcm);
+                if (count == 0 && incoming.isEmpty()) break;
+                samples += count;
+            }
+        } finally {
+            decoder.close();
+        }
+        return samples;
+    }
+
+    @Benchmark
+    public long decodeMapped() throws IOException {
+        MappedVorbisDecoder decoder = MappedVorbisDecoder.map(clipFile, 0);
+        long samples = 0;
+        try {
+            if (!decoder.open()) return 0;
+            int count;
+            do {
+                pcm.clear().limit(BUFFER_SAMPLES * decoder.getOutputChannels());
+                count = decoder.decode(pcm);
+                samples += count;
+            } while (count > 0);
+        } finally {
+            decoder.close();
+        }
+        return samples;
+    }
+
+    private static byte[] loadClip() throws IOException {
+        String override = System.getProperty("tdvoice.bench.clip");
+        if (override != null) return Files.readAllBytes(Path.of(override));
+        return SyntheticVorbis.generate(CLIP_SECONDS, 44100, 2, 42);
+    }
+}
@@ -0,0 +1,79 @@
+package cn.tdogmc.tdogmc_voice.network;
+
+import cn.tdogmc.tdogmc_voice.util.AudioCodec;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.FriendlyByteBuf;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start / Frame 包经过 FriendlyByteBuf 的编码与解码开销。Frame 包是最热的数据包，按数据块大小与每帧块数分别测量。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PacketCodecBenchmark {
+
+    @Param({"512", "8192"})
+    public int payloadSize;
+
+    @Param({"1", "4"})
+    public int chunksPerFrame;
+
+    private FriendlyByteBuf out;
+    private StreamFrameS2CPacket framePacket;
+    private StartStreamS2CPacket startPacket;
+    private FriendlyByteBuf encodedFrame;
+    private FriendlyByteBuf encodedStart;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        byte[] payload = new byte[payloadSize];
+        random.nextBytes(payload);
+        byte[] hash = new byte[32];
+        random.nextBytes(hash);
+
+        List<StreamFrameS2CPacket.Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < chunksPerFrame; i++) chunks.add(new StreamFrameS2CPacket.Chunk(3 + i, 1234, payload));
+        framePacket = new StreamFrameS2CPacket(chunks);
+        startPacket = new StartStreamS2CPacket(UUID.randomUUID(), 3, UUID.randomUUID(), 4321, 64f, 1f, 1f, 0, hash, 3_000_000L, 96_000L, AudioCodec.VORBIS, 256 * 1024, 0, null);
+        out = new FriendlyByteBuf(Unpooled.buffer(payloadSize * chunksPerFrame + 64));
+
+        encodedFrame = new FriendlyByteBuf(Unpooled.buffer());
+        framePacket.toBytes(encodedFrame);
+        encodedStart = new FriendlyByteBuf(Unpooled.buffer());
+        startPacket.toBytes(encodedStart);
+    }
+
+    @Benchmark
+    public int encodeFrame() {
+        out.clear();
+        framePacket.toBytes(out);
+        return out.writerIndex();
+    }
+
+    @Benchmark
+    public StreamFrameS2CPacket decodeFrame() {
+        encodedFrame.readerIndex(0);
+        return new StreamFrameS2CPacket(encodedFrame);
+    }
+
+    @Benchmark
+    public int encodeStart() {
+        out.clear();
+        startPacket.toBytes(out);
+        return out.writerIndex();
+    }
+
+    @Benchmark
+    public StartStreamS2CPacket decodeStart() {
+        encodedStart.readerIndex(0);
+        return new StartStreamS2CPacket(encodedStart);
+    }
+}
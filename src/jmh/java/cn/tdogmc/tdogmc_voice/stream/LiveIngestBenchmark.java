@@ -0,0 +1,111 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 实时输入的接收延迟：本机回环端口上的替身编码器写出一个 Ogg 页，到主线程从 {@link LiveChunkSource} 取到对应数据块为止。
+ * 覆盖读取线程、按页切块与入队，不含发送与网络；服务端运行时从读到到写入玩家连接的完整延迟记录在 live.latency_us 中。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LiveIngestBenchmark {
+    private static final int SAMPLES_PER_PAGE = 960;
+
+    // 一页一个数据包，20ms 左右的 Vorbis 页大小
+    @Param({"400", "4000"})
+    public int pageBytes;
+
+    private ServerSocket server;
+    private Socket producer;
+    private OutputStream out;
+    private LiveChunkSource source;
+    private byte[] page;
+    private long granule = 0;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        // 上限设得足够大，测量期间不会丢块
+        source = new LiveChunkSource("tcp:127.0.0.1:" + server.getLocalPort(), () -> TimeUnit.SECONDS.toNanos(10));
+        producer = server.accept();
+        producer.setTcpNoDelay(true);
+        out = producer.getOutputStream();
+
+        // 三个 Vorbis 头包：标识头单独一页，注释头与 setup 头共用一页
+        byte[] idHeader = new byte[30];
+        idHeader[0] = 1;
+        System.arraycopy("vorbis".getBytes(), 0, idHeader, 1, 6);
+        idHeader[11] = 2;
+        writeInt(idHeader, 12, 48000);
+        out.write(page(0, idHeader));
+        out.write(page(0, new byte[16], new byte[64]));
+        out.flush();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!source.isOpen()) {
+            if (source.hasFailed() || System.nanoTime() > deadline) throw new IllegalStateException("Live source did not open");
+            Thread.sleep(1);
+        }
+        page = new byte[pageBytes];
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        source.close();
+        producer.close();
+        server.close();
+    }
+
+    @Benchmark
+    public AudioChunk ingest() throws IOException {
+        granule += SAMPLES_PER_PAGE;
+        out.write(page(granule, page));
+        out.flush();
+        AudioChunk chunk;
+        while ((chunk = source.poll()) == null) {
+            if (source.isExhausted()) throw new IllegalStateException("Live input ended");
+            Thread.onSpinWait();
+        }
+        return chunk;
+    }
+
+    /** 每个数据包的最后一个分段长度都小于 255，表示包在本页结束。 */
+    private static byte[] page(long granule, byte[]... packets) {
+        ByteArrayOutputStream lacing = new ByteArrayOutputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] packet : packets) {
+            for (int remaining = packet.length; ; remaining -= 255) {
+                lacing.write(Math.min(255, remaining));
+                if (remaining < 255) break;
+            }
+            body.writeBytes(packet);
+        }
+        byte[] header = new byte[27];
+        header[0] = 'O'; header[1] = 'g'; header[2] = 'g'; header[3] = 'S';
+        writeInt(header, 6, (int) granule);
+        writeInt(header, 10, (int) (granule >>> 32));
+        header[26] = (byte) lacing.size();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(27 + lacing.size() + body.size());
+        out.writeBytes(header);
+        out.writeBytes(lacing.toByteArray());
+        out.writeBytes(body.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static void writeInt(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+}
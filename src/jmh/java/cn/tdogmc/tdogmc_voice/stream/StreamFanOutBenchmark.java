@@ -0,0 +1,232 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import cn.tdogmc.tdogmc_voice.config.ModConfig;
+import cn.tdogmc.tdogmc_voice.network.PacketHandler;
+import cn.tdogmc.tdogmc_voice.network.StreamFrameS2CPacket;
+import cn.tdogmc.tdogmc_voice.util.AudioCodec;
+import com.electronwill.nightconfig.core.CommentedConfig;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.minecraft.SharedConstants;
+import net.minecraft.network.Connection;
+import net.minecraft.network.ConnectionProtocol;
+import net.minecraft.network.PacketEncoder;
+import net.minecraft.network.protocol.PacketFlow;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.server.network.ServerGamePacketListenerImpl;
+import org.openjdk.jmh.annotations.*;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端一个 tick 的发送路径：N 个会话、M 个接收者，所有接收者收听同样的会话。
+ * {@code serverTick} 走真实的 {@link ServerStreamManager#tick()}：会话取块、{@link FrameBatcher} 合并成帧、
+ * {@link PacketHandler#sendToPlayers} 只编码一次发给所有连接；{@code sendPerRecipient} 是逐个 sendToPlayer 时的做法，
+ * 同样多的数据块每个接收者各编码一份，作为对照。
+ * <p>
+ * 接收者是不经过构造函数创建的 ServerPlayer，连接是接在 {@link EmbeddedChannel} 上的真实 {@link Connection}，
+ * 数据包经过原版的 PacketEncoder 写成字节后丢弃，测量包含序列化与写入连接，不含网络。
+ * 数据源在内存中循环，流信息未知，会话按固定速率每 tick 发 4 块；不限带宽、不启用流控。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StreamFanOutBenchmark {
+    // 流信息未知时会话每 tick 最多发出的块数，与 ServerStreamManager 的固定速率一致
+    private static final int CHUNKS_PER_TICK = 4;
+    private static final int CHUNK_COUNT = 256;
+    private static boolean bootstrapped = false;
+
+    @Param({"1", "16", "64"})
+    public int sessions;
+
+    @Param({"1", "10", "100"})
+    public int recipients;
+
+    private AudioChunk[] chunks;
+    private final List<ServerPlayer> players = new ArrayList<>();
+    private final List<EmbeddedChannel> channels = new ArrayList<>();
+    private final List<UUID> streams = new ArrayList<>();
+    private int position = 0;
+    private int sequence = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws ReflectiveOperationException {
+        bootstrap();
+        Random random = new Random(42);
+        chunks = new AudioChunk[CHUNK_COUNT];
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            byte[] data = new byte[ServerStreamManager.CHUNK_SIZE];
+            random.nextBytes(data);
+            chunks[i] = new AudioChunk(data, 0);
+        }
+        for (int i = 0; i < recipients; i++) players.add(fakePlayer(i));
+        for (int i = 0; i < sessions; i++) {
+            // 各会话错开进度
+            streams.add(ServerStreamManager.startSession("bench-" + i, new CyclingSource(chunks, (i * 7) % CHUNK_COUNT), players));
+        }
+        // 第一个 tick 发出 Start 包
+        ServerStreamManager.tick();
+        drain();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        streams.forEach(ServerStreamManager::stopStream);
+        drain();
+        channels.forEach(EmbeddedChannel::finishAndReleaseAll);
+    }
+
+    @Benchmark
+    public long serverTick() {
+        ServerStreamManager.tick();
+        return drain();
+    }
+
+    @Benchmark
+    public long sendPerRecipient() {
+        int maxFrameBytes = ModConfig.MAX_FRAME_KB.get() * 1024;
+        List<StreamFrameS2CPacket.Chunk> frame = new ArrayList<>();
+        int frameBytes = 0;
+        for (int s = 0; s < sessions; s++) {
+            for (int i = 0; i < CHUNKS_PER_TICK; i++) {
+                StreamFrameS2CPacket.Chunk chunk = new StreamFrameS2CPacket.Chunk(s, sequence++, chunks[position].data());
+                position = (position + 1) % CHUNK_COUNT;
+                if (!frame.isEmpty() && frameBytes + chunk.encodedSize() > maxFrameBytes) {
+                    sendEach(new StreamFrameS2CPacket(frame));
+                    frame = new ArrayList<>();
+                    frameBytes = 0;
+                }
+                frame.add(chunk);
+                frameBytes += chunk.encodedSize();
+            }
+        }
+        sendEach(new StreamFrameS2CPacket(frame));
+        return drain();
+    }
+
+    private void sendEach(StreamFrameS2CPacket frame) {
+        for (ServerPlayer player : players) PacketHandler.sendToPlayer(frame, player);
+    }
+
+    /** 取出并释放各连接写出的字节，返回总字节数。 */
+    private long drain() {
+        long bytes = 0;
+        for (EmbeddedChannel channel : channels) {
+            ByteBuf buf;
+            while ((buf = channel.readOutbound()) != null) {
+                bytes += buf.readableBytes();
+                buf.release();
+            }
+        }
+        return bytes;
+    }
+
+    /** 原版注册表、内存中的服务端配置与网络通道，每个 JVM 只初始化一次。 */
+    private static void bootstrap() {
+        if (bootstrapped) return;
+        SharedConstants.tryDetectVersion();
+        Bootstrap.bootStrap();
+        CommentedConfig config = CommentedConfig.inMemory();
+        ModConfig.SPEC.correct(config);
+        ModConfig.SPEC.acceptConfig(config);
+        // 没有客户端回复确认，启用流控会让会话停住
+        ModConfig.FLOW_WINDOW_KB.set(0);
+        ModConfig.PLAYER_BANDWIDTH_KBPS.set(0);
+        PacketHandler.register();
+        bootstrapped = true;
+    }
+
+    private ServerPlayer fakePlayer(int index) throws ReflectiveOperationException {
+        Connection connection = new Connection(PacketFlow.CLIENTBOUND);
+        EmbeddedChannel channel = new EmbeddedChannel(new PacketEncoder(PacketFlow.CLIENTBOUND), connection);
+        connection.setProtocol(ConnectionProtocol.PLAY);
+        channels.add(channel);
+
+        ServerGamePacketListenerImpl listener = allocate(ServerGamePacketListenerImpl.class);
+        for (Field field : ServerGamePacketListenerImpl.class.getDeclaredFields()) {
+            if (field.getType() == Connection.class && !Modifier.isStatic(field.getModifiers())) {
+                field.setAccessible(true);
+                field.set(listener, connection);
+            }
+        }
+        ServerPlayer player = allocate(ServerPlayer.class);
+        player.setUUID(new UUID(0x54445643L, index));
+        player.connection = listener;
+        return player;
+    }
+
+    private static <T> T allocate(Class<T> type) throws ReflectiveOperationException {
+        Field field = Unsafe.class.getDeclaredField("theUnsafe");
+        field.setAccessible(true);
+        return type.cast(((Unsafe) field.get(null)).allocateInstance(type));
+    }
+
+    /** 在内存中循环的数据源：始终就绪，没有头部与流信息。 */
+    private static final class CyclingSource implements ChunkSource {
+        private final AudioChunk[] chunks;
+        private int position;
+
+        private CyclingSource(AudioChunk[] chunks, int position) {
+            this.chunks = chunks;
+            this.position = position;
+        }
+
+        @Override
+        public boolean isOpen() { return true; }
+
+        @Override
+        public boolean hasFailed() { return false; }
+
+        @Override
+        public OggPageScanner.StreamInfo getInfo() { return null; }
+
+        @Override
+        public AudioCodec getCodec() { return AudioCodec.VORBIS; }
+
+        @Override
+        public List<AudioChunk> getHeaderChunks() { return List.of(); }
+
+        @Override
+        public byte[] getContentHash() { return null; }
+
+        @Override
+        public long getContentSize() { return -1; }
+
+        @Override
+        public AudioChunk peek() { return chunks[position]; }
+
+        @Override
+        public AudioChunk poll() {
+            AudioChunk chunk = chunks[position];
+            position = (position + 1) % chunks.length;
+            return chunk;
+        }
+
+        @Override
+        public boolean isExhausted() { return false; }
+
+        @Override
+        public boolean seek(long granule) { return false; }
+
+        @Override
+        public boolean isLive() { return false; }
+
+        @Override
+        public long getDroppedChunks() { return 0; }
+
+        @Override
+        public long getLastArrivalNanos() { return -1; }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,54 @@
+package cn.tdogmc.tdogmc_voice.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 扫描 sounds 目录的开销：1 万个文件分布在 100 个子目录中，其中混有非音频文件。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SoundFileScanBenchmark {
+
+    @Param({"10000"})
+    public int files;
+
+    private Path root;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("tdvoice-scan");
+        for (int i = 0; i < files; i++) {
+            Path dir = root.resolve("dir" + (i % 100));
+            Files.createDirectories(dir);
+            String extension = switch (i % 10) {
+                case 0 -> ".txt";
+                case 1, 2 -> ".wav";
+                default -> ".ogg";
+            };
+            Files.createFile(dir.resolve("sound_" + i + extension));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> stream = Files.walk(root)) {
+            for (Path path : stream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<String> scan() throws IOException {
+        return SoundFileCache.scanFiles(root);
+    }
+}
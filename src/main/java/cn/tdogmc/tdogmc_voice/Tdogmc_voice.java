@@ -1,16 +1,22 @@
 package cn.tdogmc.tdogmc_voice;
 
 import cn.tdogmc.tdogmc_voice.client.AudioEngine;
+import cn.tdogmc.tdogmc_voice.client.ClientCommands;
 import cn.tdogmc.tdogmc_voice.config.ModConfig;
 import cn.tdogmc.tdogmc_voice.network.PacketHandler;
 import cn.tdogmc.tdogmc_voice.network.StopAllStreamsS2CPacket;
 import cn.tdogmc.tdogmc_voice.stream.ServerStreamManager;
+import cn.tdogmc.tdogmc_voice.util.Metrics;
 import cn.tdogmc.tdogmc_voice.util.SoundFileCache;
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.DoubleArgumentType;
 import com.mojang.brigadier.arguments.FloatArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.ArgumentBuilder;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.suggestion.SuggestionProvider;
 import com.mojang.logging.LogUtils;
 import net.minecraft.commands.CommandSourceStack;
@@ -35,8 +41,12 @@ import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import org.slf4j.Logger;
 import net.minecraftforge.eventbus.api.IEventBus;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
 
 @Mod(Tdogmc_voice.MODID)
 public class Tdogmc_voice {
@@ -55,17 +65,33 @@ public class Tdogmc_voice {
         MinecraftForge.EVENT_BUS.register(this);
         PacketHandler.register();
         ModLoadingContext.get().registerConfig(Type.SERVER, ModConfig.SPEC, "tdogmc_voice-server.toml");
+        ModLoadingContext.get().registerConfig(Type.CLIENT, ModConfig.CLIENT_SPEC, "tdogmc_voice-client.toml");
 
+        // 文件缓存与监听在专用服务端上同样需要（指令补全、分块缓存失效）
+        SoundFileCache.init();
         ServerStreamManager.init();
 
         DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () -> {
-            SoundFileCache.init();
             AudioEngine.getInstance().init();
+            MinecraftForge.EVENT_BUS.register(ClientCommands.class);
         });
     }
 
-    private static final SuggestionProvider<CommandSourceStack> SOUND_SUGGESTIONS = (ctx, builder) ->
-            SharedSuggestionProvider.suggest(SoundFileCache.getSuggestions(), builder);
+    // 只取出前缀匹配的文件；子目录中的文件名含有 /，需要加引号才能作为参数
+    private static final SuggestionProvider<CommandSourceStack> SOUND_SUGGESTIONS = (ctx, builder) -> {
+        String prefix = builder.getRemaining().startsWith("\"") ? builder.getRemaining().substring(1) : builder.getRemaining();
+        return SharedSuggestionProvider.suggest(SoundFileCache.getSuggestions(prefix).stream().map(StringArgumentType::escapeIfRequired), builder);
+    };
+
+    // 播放列表的文件名以空格分隔，只补全最后一个
+    private static final SuggestionProvider<CommandSourceStack> PLAYLIST_SUGGESTIONS = (ctx, builder) -> {
+        String remaining = builder.getRemaining();
+        int start = remaining.lastIndexOf(' ') + 1;
+        return SharedSuggestionProvider.suggest(SoundFileCache.getSuggestions(remaining.substring(start)), builder.createOffset(builder.getStart() + start));
+    };
+
+    private static final SuggestionProvider<CommandSourceStack> STREAM_SUGGESTIONS = (ctx, builder) ->
+            SharedSuggestionProvider.suggest(ServerStreamManager.getStreamIds().stream().map(UUID::toString), builder);
 
     private void onClientSetup(final FMLClientSetupEvent event) {
         LOGGER.info("Tdogmc_voice client setup.");
@@ -79,23 +105,32 @@ public class Tdogmc_voice {
         LiteralArgumentBuilder<CommandSourceStack> root = Commands.literal("tdvoice").requires(s -> s.hasPermission(2));
 
         // Branch 1: Play
-        // /tdvoice play <file> <targets> [pos/entity] [vol] [pitch] [range]
+        // /tdvoice play <file> <targets> [pos/entity] [vol] [pitch] [range] [priority] [start] [loops]
         var playNode = Commands.literal("play")
                 .then(Commands.argument("file", StringArgumentType.string()).suggests(SOUND_SUGGESTIONS)
                         .then(Commands.argument("targets", EntityArgument.players())
 
                                 // Case A: 默认位置 (执行者位置)
-                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, null, DEF_VOL, DEF_PITCH, DEF_RANGE))
+                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, null, DEF_VOL, DEF_PITCH, DEF_RANGE, ServerStreamManager.DEFAULT_PRIORITY, 0, 0))
 
                                 // Case B: 定点播放 (坐标)
                                 .then(Commands.argument("pos", Vec3Argument.vec3())
-                                        .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), Vec3Argument.getVec3(ctx, "pos"), null, DEF_VOL, DEF_PITCH, DEF_RANGE))
+                                        .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), Vec3Argument.getVec3(ctx, "pos"), null, DEF_VOL, DEF_PITCH, DEF_RANGE, ServerStreamManager.DEFAULT_PRIORITY, 0, 0))
                                         .then(Commands.argument("volume", FloatArgumentType.floatArg(0))
-                                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), Vec3Argument.getVec3(ctx, "pos"), null, FloatArgumentType.getFloat(ctx, "volume"), DEF_PITCH, DEF_RANGE))
+                                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), Vec3Argument.getVec3(ctx, "pos"), null, FloatArgumentType.getFloat(ctx, "volume"), DEF_PITCH, DEF_RANGE, ServerStreamManager.DEFAULT_PRIORITY, 0, 0))
                                                 .then(Commands.argument("pitch", FloatArgumentType.floatArg(0.1f, 2.0f))
-                                                        .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), Vec3Argument.getVec3(ctx, "pos"), null, FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), DEF_RANGE))
+                                                        .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), Vec3Argument.getVec3(ctx, "pos"), null, FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), DEF_RANGE, ServerStreamManager.DEFAULT_PRIORITY, 0, 0))
                                                         .then(Commands.argument("range", FloatArgumentType.floatArg(0))
-                                                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), Vec3Argument.getVec3(ctx, "pos"), null, FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), FloatArgumentType.getFloat(ctx, "range")))
+                                                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), Vec3Argument.getVec3(ctx, "pos"), null, FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), FloatArgumentType.getFloat(ctx, "range"), ServerStreamManager.DEFAULT_PRIORITY, 0, 0))
+                                                                .then(Commands.argument("priority", IntegerArgumentType.integer(0, ServerStreamManager.MAX_PRIORITY))
+                                                                        .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), Vec3Argument.getVec3(ctx, "pos"), null, FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), FloatArgumentType.getFloat(ctx, "range"), IntegerArgumentType.getInteger(ctx, "priority"), 0, 0))
+                                                                        .then(Commands.argument("start", DoubleArgumentType.doubleArg(0))
+                                                                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), Vec3Argument.getVec3(ctx, "pos"), null, FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), FloatArgumentType.getFloat(ctx, "range"), IntegerArgumentType.getInteger(ctx, "priority"), DoubleArgumentType.getDouble(ctx, "start"), 0))
+                                                                                .then(Commands.argument("loops", IntegerArgumentType.integer(-1))
+                                                                                        .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), Vec3Argument.getVec3(ctx, "pos"), null, FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), FloatArgumentType.getFloat(ctx, "range"), IntegerArgumentType.getInteger(ctx, "priority"), DoubleArgumentType.getDouble(ctx, "start"), IntegerArgumentType.getInteger(ctx, "loops")))
+                                                                                )
+                                                                        )
+                                                                )
                                                         )
                                                 )
                                         )
@@ -104,13 +139,22 @@ public class Tdogmc_voice {
                                 // Case C: 跟随实体 (entity)
                                 .then(Commands.literal("entity")
                                         .then(Commands.argument("sourceEntity", EntityArgument.entity())
-                                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, EntityArgument.getEntity(ctx, "sourceEntity"), DEF_VOL, DEF_PITCH, DEF_RANGE))
+                                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, EntityArgument.getEntity(ctx, "sourceEntity"), DEF_VOL, DEF_PITCH, DEF_RANGE, ServerStreamManager.DEFAULT_PRIORITY, 0, 0))
                                                 .then(Commands.argument("volume", FloatArgumentType.floatArg(0))
-                                                        .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, EntityArgument.getEntity(ctx, "sourceEntity"), FloatArgumentType.getFloat(ctx, "volume"), DEF_PITCH, DEF_RANGE))
+                                                        .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, EntityArgument.getEntity(ctx, "sourceEntity"), FloatArgumentType.getFloat(ctx, "volume"), DEF_PITCH, DEF_RANGE, ServerStreamManager.DEFAULT_PRIORITY, 0, 0))
                                                         .then(Commands.argument("pitch", FloatArgumentType.floatArg(0.1f, 2.0f))
-                                                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, EntityArgument.getEntity(ctx, "sourceEntity"), FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), DEF_RANGE))
+                                                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, EntityArgument.getEntity(ctx, "sourceEntity"), FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), DEF_RANGE, ServerStreamManager.DEFAULT_PRIORITY, 0, 0))
                                                                 .then(Commands.argument("range", FloatArgumentType.floatArg(0))
-                                                                        .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, EntityArgument.getEntity(ctx, "sourceEntity"), FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), FloatArgumentType.getFloat(ctx, "range")))
+                                                                        .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, EntityArgument.getEntity(ctx, "sourceEntity"), FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), FloatArgumentType.getFloat(ctx, "range"), ServerStreamManager.DEFAULT_PRIORITY, 0, 0))
+                                                                        .then(Commands.argument("priority", IntegerArgumentType.integer(0, ServerStreamManager.MAX_PRIORITY))
+                                                                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, EntityArgument.getEntity(ctx, "sourceEntity"), FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), FloatArgumentType.getFloat(ctx, "range"), IntegerArgumentType.getInteger(ctx, "priority"), 0, 0))
+                                                                                .then(Commands.argument("start", DoubleArgumentType.doubleArg(0))
+                                                                                        .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, EntityArgument.getEntity(ctx, "sourceEntity"), FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), FloatArgumentType.getFloat(ctx, "range"), IntegerArgumentType.getInteger(ctx, "priority"), DoubleArgumentType.getDouble(ctx, "start"), 0))
+                                                                                        .then(Commands.argument("loops", IntegerArgumentType.integer(-1))
+                                                                                                .executes(ctx -> play(ctx, EntityArgument.getPlayers(ctx, "targets"), null, EntityArgument.getEntity(ctx, "sourceEntity"), FloatArgumentType.getFloat(ctx, "volume"), FloatArgumentType.getFloat(ctx, "pitch"), FloatArgumentType.getFloat(ctx, "range"), IntegerArgumentType.getInteger(ctx, "priority"), DoubleArgumentType.getDouble(ctx, "start"), IntegerArgumentType.getInteger(ctx, "loops")))
+                                                                                        )
+                                                                                )
+                                                                        )
                                                                 )
                                                         )
                                                 )
@@ -119,6 +163,21 @@ public class Tdogmc_voice {
                         )
                 );
 
+        // 播放列表：在执行者位置按顺序无缝播放，整个列表再重复 loops 遍（-1 为无限）
+        // /tdvoice playlist <targets> <loops> <file...>
+        var playlistNode = Commands.literal("playlist")
+                .then(Commands.argument("targets", EntityArgument.players())
+                        .then(Commands.argument("loops", IntegerArgumentType.integer(-1))
+                                .then(Commands.argument("files", StringArgumentType.greedyString()).suggests(PLAYLIST_SUGGESTIONS)
+                                        .executes(this::playlist))));
+
+        // 实时输入：在执行者位置转播本机编码器的输出，输入结束时停止
+        // /tdvoice live <targets> <pipe:name | tcp:host:port>
+        var liveNode = Commands.literal("live")
+                .then(Commands.argument("targets", EntityArgument.players())
+                        .then(Commands.argument("input", StringArgumentType.greedyString())
+                                .executes(this::live)));
+
         // Branch 2: Stop All
         var stopAllNode = Commands.literal("stopall")
                 .executes(ctx -> stopAll(ctx, Collections.singleton(ctx.getSource().getPlayerOrException())))
@@ -126,12 +185,38 @@ public class Tdogmc_voice {
                         .executes(ctx -> stopAll(ctx, EntityArgument.getPlayers(ctx, "targets")))
                 );
 
+        // Branch 3: 单个流的控制，按流 ID、文件名或目标玩家选择
+        // /tdvoice stop|pause|resume (id <stream> | file <file> | players <targets>)
+        // /tdvoice seek <seconds> (id <stream> | file <file> | players <targets>)
+        var stopNode = withStreamSelectors(Commands.literal("stop"), (ctx, ids) ->
+                controlStreams(ctx, ids, ServerStreamManager::stopStream, "Stopped"));
+        var pauseNode = withStreamSelectors(Commands.literal("pause"), (ctx, ids) ->
+                controlStreams(ctx, ids, ServerStreamManager::pauseStream, "Paused"));
+        var resumeNode = withStreamSelectors(Commands.literal("resume"), (ctx, ids) ->
+                controlStreams(ctx, ids, ServerStreamManager::resumeStream, "Resumed"));
+        var seekNode = Commands.literal("seek")
+                .then(withStreamSelectors(Commands.argument("seconds", DoubleArgumentType.doubleArg(0)), (ctx, ids) -> {
+                    double seconds = DoubleArgumentType.getDouble(ctx, "seconds");
+                    return controlStreams(ctx, ids, id -> ServerStreamManager.seekStream(id, seconds), "Repositioned");
+                }));
+
         root.then(playNode);
+        root.then(playlistNode);
+        root.then(liveNode);
         root.then(stopAllNode);
+        root.then(stopNode);
+        root.then(pauseNode);
+        root.then(resumeNode);
+        root.then(seekNode);
+
+        // Branch 4: 指标
+        // /tdvoice stats
+        root.then(Commands.literal("stats").executes(this::stats));
         dispatcher.register(root);
     }
 
-    private int play(CommandContext<CommandSourceStack> ctx, Collection<ServerPlayer> targets, Vec3 pos, Entity entitySource, float vol, float pitch, float range) {
+    private int play(CommandContext<CommandSourceStack> ctx, Collection<ServerPlayer> targets, Vec3 pos, Entity entitySource, float vol, float pitch, float range, int priority, double start,
+                     int loops) {
         String fileName = StringArgumentType.getString(ctx, "file");
 
         // 如果位置为空且实体为空，默认使用执行者位置
@@ -139,22 +224,125 @@ public class Tdogmc_voice {
             pos = ctx.getSource().getPosition();
         }
 
+        UUID streamId;
         if (entitySource != null) {
-            ServerStreamManager.playToPlayers(targets, entitySource, fileName, range, vol, pitch);
+            streamId = ServerStreamManager.playToPlayers(targets, entitySource, fileName, range, vol, pitch, priority, start, loops);
         } else {
-            ServerStreamManager.playToPlayers(targets, pos, fileName, range, vol, pitch);
+            streamId = ServerStreamManager.playToPlayers(targets, ctx.getSource().getLevel(), pos, fileName, range, vol, pitch, priority, start, loops);
         }
 
-        ctx.getSource().sendSuccess(() -> Component.literal("Sending audio " + fileName + " to " + targets.size() + " players."), true);
+        // 没有目标玩家时不会创建流
+        if (streamId == null) {
+            ctx.getSource().sendFailure(Component.literal("Could not play " + fileName + ": no target players."));
+            return 0;
+        }
+        ctx.getSource().sendSuccess(() -> Component.literal("Sending audio " + fileName + " to " + targets.size() + " players (stream " + streamId + ")."), true);
         return targets.size();
     }
 
-    private int stopAll(CommandContext<CommandSourceStack> ctx, Collection<ServerPlayer> targets) {
-        StopAllStreamsS2CPacket packet = new StopAllStreamsS2CPacket();
-        for (ServerPlayer player : targets) {
-            PacketHandler.sendToPlayer(packet, player);
+    private int playlist(CommandContext<CommandSourceStack> ctx) throws CommandSyntaxException {
+        Collection<ServerPlayer> targets = EntityArgument.getPlayers(ctx, "targets");
+        int loops = IntegerArgumentType.getInteger(ctx, "loops");
+        // 文件名以空格分隔，子目录中的文件不需要引号
+        List<String> files = new ArrayList<>();
+        for (String name : StringArgumentType.getString(ctx, "files").trim().split("\\s+")) {
+            if (!name.isEmpty()) files.add(name);
         }
+
+        CommandSourceStack source = ctx.getSource();
+        UUID playlistId = ServerStreamManager.playPlaylist(targets, source.getLevel(), source.getPosition(), files, DEF_RANGE, DEF_VOL, DEF_PITCH, ServerStreamManager.DEFAULT_PRIORITY, loops);
+        if (playlistId == null) {
+            source.sendFailure(Component.literal("Could not start the playlist: no files or no target players."));
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal("Sending playlist of " + files.size() + " files to " + targets.size() + " players (playlist " + playlistId + ")."), true);
+        return targets.size();
+    }
+
+    private int live(CommandContext<CommandSourceStack> ctx) throws CommandSyntaxException {
+        Collection<ServerPlayer> targets = EntityArgument.getPlayers(ctx, "targets");
+        String input = StringArgumentType.getString(ctx, "input").trim();
+
+        CommandSourceStack source = ctx.getSource();
+        UUID streamId = ServerStreamManager.playLive(targets, source.getLevel(), source.getPosition(), input, DEF_RANGE, DEF_VOL, DEF_PITCH, ServerStreamManager.DEFAULT_PRIORITY);
+        if (streamId == null) {
+            source.sendFailure(Component.literal("Could not relay " + input + ": no target players."));
+            return 0;
+        }
+        source.sendSuccess(() -> Component.literal("Relaying live input " + input + " to " + targets.size() + " players (stream " + streamId + ")."), true);
+        return targets.size();
+    }
+
+    private int stopAll(CommandContext<CommandSourceStack> ctx, Collection<ServerPlayer> targets) {
+        PacketHandler.sendToPlayers(new StopAllStreamsS2CPacket(), targets);
+        // 服务端同时停止向这些玩家发送，避免继续读文件、发送客户端已丢弃的数据
+        ServerStreamManager.removeListeners(targets);
         ctx.getSource().sendSuccess(() -> Component.literal("Sent stop signal to " + targets.size() + " players."), true);
         return targets.size();
     }
-}
\ No newline at end of file
+
+    private int stats(CommandContext<CommandSourceStack> ctx) {
+        CommandSourceStack source = ctx.getSource();
+        source.sendSuccess(() -> Component.literal("[Server]"), false);
+        for (String line : Metrics.SERVER.describe()) {
+            source.sendSuccess(() -> Component.literal("  " + line), false);
+        }
+
+        List<ServerStreamManager.PlayerTraffic> traffic = ServerStreamManager.getPlayerTraffic();
+        for (int i = 0; i < traffic.size() && i < 5; i++) {
+            ServerStreamManager.PlayerTraffic entry = traffic.get(i);
+            ServerPlayer player = source.getServer().getPlayerList().getPlayer(entry.getPlayer());
+            String name = player != null ? player.getGameProfile().getName() : entry.getPlayer().toString();
+            source.sendSuccess(() -> Component.literal("  player " + name + ": " + entry.getBytes() + " bytes, " + entry.getPackets() + " frames"), false);
+        }
+
+        // 单人游戏 / 局域网主机上客户端与服务端在同一进程，一并输出
+        if (!Metrics.CLIENT.isEmpty()) {
+            source.sendSuccess(() -> Component.literal("[Client]"), false);
+            for (String line : Metrics.CLIENT.describe()) {
+                source.sendSuccess(() -> Component.literal("  " + line), false);
+            }
+        }
+        return 1;
+    }
+
+    @FunctionalInterface
+    private interface StreamCommand {
+        int run(CommandContext<CommandSourceStack> ctx, List<UUID> streamIds) throws CommandSyntaxException;
+    }
+
+    private static <T extends ArgumentBuilder<CommandSourceStack, T>> T withStreamSelectors(T node, StreamCommand command) {
+        return node
+                .then(Commands.literal("id")
+                        .then(Commands.argument("stream", StringArgumentType.word()).suggests(STREAM_SUGGESTIONS)
+                                .executes(ctx -> command.run(ctx, parseStreamId(StringArgumentType.getString(ctx, "stream"))))))
+                .then(Commands.literal("file")
+                        .then(Commands.argument("file", StringArgumentType.string()).suggests(SOUND_SUGGESTIONS)
+                                .executes(ctx -> command.run(ctx, ServerStreamManager.findStreams(StringArgumentType.getString(ctx, "file"))))))
+                .then(Commands.literal("players")
+                        .then(Commands.argument("targets", EntityArgument.players())
+                                .executes(ctx -> command.run(ctx, ServerStreamManager.findStreams(EntityArgument.getPlayers(ctx, "targets"))))));
+    }
+
+    private static List<UUID> parseStreamId(String text) {
+        try {
+            return List.of(UUID.fromString(text));
+        } catch (IllegalArgumentException e) {
+            return List.of();
+        }
+    }
+
+    private static int controlStreams(CommandContext<CommandSourceStack> ctx, List<UUID> streamIds, Predicate<UUID> action, String verb) {
+        int count = 0;
+        for (UUID id : streamIds) {
+            if (action.test(id)) count++;
+        }
+        if (count == 0) {
+            ctx.getSource().sendFailure(Component.literal("No matching streams."));
+            return 0;
+        }
+        int affected = count;
+        ctx.getSource().sendSuccess(() -> Component.literal(verb + " " + affected + " stream(s)."), true);
+        return affected;
+    }
+}
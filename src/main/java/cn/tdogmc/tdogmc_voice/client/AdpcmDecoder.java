@@ -0,0 +1,275 @@
+package cn.tdogmc.tdogmc_voice.client;
+
+import cn.tdogmc.tdogmc_voice.util.ImaAdpcm;
+import cn.tdogmc.tdogmc_voice.util.OggCrc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 服务端由 WAV 转码而来的 Ogg/IMA ADPCM 流的解码器，格式见 {@link ImaAdpcm}。
+ * 网络接收时与 {@link VorbisPushDecoder} 一样把数据追加到借来的定长缓冲中；
+ * 本地缓存命中时直接读取映射的完整文件，并支持按页的 granule 跳转。
+ * 每页都校验 CRC，断档后从下一个有效页重新同步。
+ */
+class AdpcmDecoder implements StreamDecoder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdpcmDecoder.class);
+    private static final int PAGE_HEADER_SIZE = 27;
+
+    private final NativeBufferPool pool; // 映射完整文件时为 null
+    private ByteBuffer input;
+    private int readCursor = 0;  // 当前页（或下一页）的起点
+    private int writeCursor = 0; // 已写入的数据末尾
+
+    // 当前页：packetCursor 为下一个数据包的位置，pageEnd 为页末尾，-1 表示没有正在读取的页
+    private int pageEnd = -1;
+    private int packetCursor;
+    private int segment;
+    private int segments;
+
+    private int channels;
+    private int sampleRate;
+    private boolean opened = false;
+    private boolean failed = false;
+
+    // 已解码但尚未输出的块
+    private final short[] block = new short[ImaAdpcm.FRAMES_PER_BLOCK * ImaAdpcm.MAX_CHANNELS];
+    private int blockFrames = 0;
+    private int blockPosition = 0;
+    private long skipFrames;
+
+    AdpcmDecoder(NativeBufferPool pool, int capacity) {
+        this.pool = pool;
+        this.input = pool.acquire(capacity);
+    }
+
+    private AdpcmDecoder(ByteBuffer data, long startSample) {
+        this.pool = null;
+        this.input = data;
+        this.writeCursor = data.limit();
+        this.skipFrames = startSample;
+    }
+
+    static AdpcmDecoder map(Path path, long startSample) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new AdpcmDecoder(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), startSample);
+        }
+    }
+
+    /** 解码内存中的完整文件，与映射文件一样支持跳转。 */
+    static AdpcmDecoder wrap(ByteBuffer data, long startSample) {
+        return new AdpcmDecoder(data, startSample);
+    }
+
+    @Override
+    public boolean append(byte[] data) {
+        if (pool == null) return true; // 完整数据已在本地，网络数据直接忽略
+        if (input == null || failed) return false;
+        if (input.capacity() - writeCursor < data.length) compact();
+        if (input.capacity() - writeCursor < data.length) return false;
+
+        input.limit(input.capacity()).position(writeCursor);
+        input.put(data);
+        writeCursor += data.length;
+        return true;
+    }
+
+    /** 第一页必须是 ADPCM 标识头。 */
+    @Override
+    public boolean open() {
+        if (opened) return true;
+        if (failed || input == null || !nextPage()) return false;
+
+        int length = packetLength();
+        if (length < ImaAdpcm.ID_HEADER_SIZE || !ImaAdpcm.isIdHeader(input, packetCursor)) {
+            failed = true;
+            LOGGER.warn("Stream does not start with an IMA ADPCM header, dropping stream.");
+            return false;
+        }
+        channels = input.get(packetCursor + 9) & 0xFF;
+        sampleRate = readInt(packetCursor + 10);
+        if (channels < 1 || channels > ImaAdpcm.MAX_CHANNELS || sampleRate <= 0) {
+            failed = true;
+            LOGGER.warn("Invalid IMA ADPCM header: {} channels, {} Hz", channels, sampleRate);
+            return false;
+        }
+        endPage();
+        opened = true;
+        if (pool == null && skipFrames > 0) seek(skipFrames);
+        return true;
+    }
+
+    @Override
+    public int decode(ShortBuffer out) {
+        if (!open()) return 0;
+
+        int capacity = out.limit() / channels;
+        int filled = 0;
+        while (filled < capacity) {
+            if (blockPosition == blockFrames && !nextBlock()) break;
+            int n = Math.min(blockFrames - blockPosition, capacity - filled);
+            out.put(filled * channels, block, blockPosition * channels, n * channels);
+            blockPosition += n;
+            filled += n;
+        }
+        return filled;
+    }
+
+    /** 丢弃尚未输出的数据（包括已解码的块，跳转后它属于旧位置），从下一个有效页重新开始。 */
+    @Override
+    public void discontinuity() {
+        if (pool == null || !open()) return; // 头部不完整时无法恢复，保留数据继续等待
+        readCursor = writeCursor;
+        pageEnd = -1;
+        blockFrames = blockPosition = 0;
+    }
+
+    /** 只有映射完整文件时支持：找到包含目标采样的页，再跳过页内之前的采样。 */
+    @Override
+    public void seek(long sample) {
+        if (pool != null) return;
+        if (!opened) {
+            skipFrames = sample; // 打开后再跳转
+            return;
+        }
+        blockFrames = blockPosition = 0;
+        pageEnd = -1;
+
+        int cursor = 0;
+        long pageStart = 0;
+        while (writeCursor - cursor >= PAGE_HEADER_SIZE && isCapturePattern(cursor)) {
+            int length = pageLength(cursor);
+            long granule = (readInt(cursor + 6) & 0xFFFFFFFFL) | (long) readInt(cursor + 10) << 32;
+            if (cursor > 0 && granule > sample) {
+                readCursor = cursor;
+                skipFrames = sample - pageStart;
+                return;
+            }
+            if (cursor > 0) pageStart = granule;
+            cursor += length;
+        }
+        readCursor = writeCursor; // 超出结尾
+        skipFrames = 0;
+    }
+
+    @Override
+    public boolean hasFailed() { return failed; }
+
+    @Override
+    public int getOutputChannels() { return channels; }
+
+    @Override
+    public int getSampleRate() { return sampleRate; }
+
+    @Override
+    public void close() {
+        if (pool != null && input != null) pool.release(input);
+        input = null;
+    }
+
+    private boolean nextBlock() {
+        while (true) {
+            if (pageEnd < 0 && !nextPage()) return false;
+            if (segment >= segments) {
+                endPage();
+                continue;
+            }
+            int length = packetLength();
+            int frames = ImaAdpcm.decodeBlock(input, packetCursor, length, channels, block);
+            packetCursor += length;
+            if (frames <= 0) continue; // 损坏的块，CRC 正确时不应出现
+
+            blockFrames = frames;
+            blockPosition = (int) Math.min(skipFrames, frames);
+            skipFrames -= blockPosition;
+            if (blockPosition < blockFrames) return true;
+        }
+    }
+
+    /** 定位到下一个完整且校验通过的页，数据不足时返回 false。 */
+    private boolean nextPage() {
+        if (pageEnd >= 0) return true;
+        while (true) {
+            int available = writeCursor - readCursor;
+            if (available < PAGE_HEADER_SIZE) return false;
+            if (!isCapturePattern(readCursor)) {
+                readCursor++;
+                continue;
+            }
+            int headerSize = PAGE_HEADER_SIZE + (input.get(readCursor + 26) & 0xFF);
+            if (available < headerSize) return false;
+            int length = pageLength(readCursor);
+            if (available < length) return false;
+            if (!checkCrc(readCursor, length)) {
+                readCursor++;
+                continue;
+            }
+            segments = input.get(readCursor + 26) & 0xFF;
+            segment = 0;
+            packetCursor = readCursor + headerSize;
+            pageEnd = readCursor + length;
+            return true;
+        }
+    }
+
+    private void endPage() {
+        readCursor = pageEnd;
+        pageEnd = -1;
+    }
+
+    /** 当前数据包的长度，并把段下标移到下一个数据包。 */
+    private int packetLength() {
+        int length = 0;
+        while (segment < segments) {
+            int lacing = input.get(readCursor + PAGE_HEADER_SIZE + segment++) & 0xFF;
+            length += lacing;
+            if (lacing < 255) break;
+        }
+        return length;
+    }
+
+    private int pageLength(int at) {
+        int segmentCount = input.get(at + 26) & 0xFF;
+        int length = PAGE_HEADER_SIZE + segmentCount;
+        for (int i = 0; i < segmentCount; i++) length += input.get(at + PAGE_HEADER_SIZE + i) & 0xFF;
+        return length;
+    }
+
+    private boolean isCapturePattern(int at) {
+        return input.get(at) == 'O' && input.get(at + 1) == 'g' && input.get(at + 2) == 'g' && input.get(at + 3) == 'S';
+    }
+
+    private boolean checkCrc(int at, int length) {
+        int expected = readInt(at + 22);
+        int crc = 0;
+        for (int i = 0; i < length; i++) {
+            // 校验和字段本身按 0 计算
+            crc = OggCrc.update(crc, i >= 22 && i < 26 ? 0 : input.get(at + i));
+        }
+        return crc == expected;
+    }
+
+    /** Ogg 与 ADPCM 头都是小端，映射缓冲默认为大端，逐字节读取。 */
+    private int readInt(int at) {
+        return (input.get(at) & 0xFF) | (input.get(at + 1) & 0xFF) << 8 | (input.get(at + 2) & 0xFF) << 16 | (input.get(at + 3) & 0xFF) << 24;
+    }
+
+    private void compact() {
+        int shift = readCursor;
+        if (shift == 0) return;
+        input.limit(writeCursor).position(readCursor);
+        input.compact();
+        writeCursor -= shift;
+        readCursor = 0;
+        if (pageEnd >= 0) {
+            pageEnd -= shift;
+            packetCursor -= shift;
+        }
+    }
+}
@@ -1,52 +1,139 @@
 package cn.tdogmc.tdogmc_voice.client;
 
 import cn.tdogmc.tdogmc_voice.config.ModConfig;
+import cn.tdogmc.tdogmc_voice.network.HaveContentC2SPacket;
+import cn.tdogmc.tdogmc_voice.network.PacketHandler;
+import cn.tdogmc.tdogmc_voice.network.StreamControlS2CPacket;
+import cn.tdogmc.tdogmc_voice.network.StreamCreditC2SPacket;
+import cn.tdogmc.tdogmc_voice.network.StreamFrameS2CPacket;
+import cn.tdogmc.tdogmc_voice.util.AudioCodec;
+import cn.tdogmc.tdogmc_voice.util.Metrics;
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ClientLevel;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.phys.Vec3;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
 import net.minecraftforge.client.event.sound.SoundEngineLoadEvent;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import org.lwjgl.openal.AL;
 import org.lwjgl.openal.AL10;
-import org.lwjgl.stb.STBVorbis;
-import org.lwjgl.stb.STBVorbisInfo;
-import org.lwjgl.system.MemoryStack;
+import org.lwjgl.openal.AL11;
+import org.lwjgl.openal.ALC10;
 import org.lwjgl.system.MemoryUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class AudioEngine {
     private static final Logger LOGGER = LoggerFactory.getLogger(AudioEngine.class);
     private static final AudioEngine INSTANCE = new AudioEngine();
     private static final int MAX_SOURCES = 32;
+    private static final int MAX_HANDLE = 65535;
+    private static final float REFERENCE_DISTANCE = 16.0f;
+    // 已占用音源的流在排序时获得的加成，避免两个可听度相近的流来回抢占
+    private static final float STEAL_HYSTERESIS = 1.25f;
+    private static final long TICK_NANOS = 50_000_000L;
+    // 网络 ID 对不上时按 UUID 遍历实体的最小间隔 (tick)
+    private static final int UUID_FALLBACK_INTERVAL_TICKS = 20;
+    // 单 tick 位移超过该距离视为传送，不做插值也不产生多普勒
+    private static final double TELEPORT_DISTANCE = 8.0;
+    // 数据流中断标记，按引用比较
+    private static final byte[] DISCONTINUITY = new byte[0];
 
     private final Queue<Integer> sourcePool = new ConcurrentLinkedQueue<>();
+    private final NativeBufferPool bufferPool = new NativeBufferPool();
+    // 只由音频线程增删，主线程仅遍历读取（采样实体位置）
     private final Map<UUID, AudioStream> streams = new ConcurrentHashMap<>();
+    // 网络线程 / 主线程 -> 音频线程 的无锁命令队列
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    // 服务端分配的短句柄 -> 正在接收数据的流，只在音频线程访问
+    private AudioStream[] streamsByHandle = new AudioStream[64];
 
-    private boolean isInitialized = false;
+    private volatile boolean isInitialized = false;
+    private volatile Vec3 listenerPos = Vec3.ZERO;
+    private long alContext = MemoryUtil.NULL;
+    private int sourceCount = 0;
+    // 所有解码都在音频线程上串行进行，整个引擎共用一块 PCM 暂存区；AL 缓冲对象同样在流之间复用
+    private ShortBuffer pcmScratch;
+    private final Deque<Integer> alBufferPool = new ArrayDeque<>();
+    private final AtomicLong allocationsAvoided = new AtomicLong();
+    private final AtomicLong underruns = new AtomicLong();
+    private final PcmClipCache clipCache = new PcmClipCache();
+    private final Metrics.Histogram decodeMicros = Metrics.CLIENT.histogram("decode_us");
+    // 上一次分配音源后没有分到音源的流数量
+    private volatile int virtualStreams = 0;
+    private Thread audioThread;
 
     public static AudioEngine getInstance() { return INSTANCE; }
 
+    /** 引擎持有的堆外压缩数据缓冲峰值（字节）。 */
+    public long getPeakNativeBytes() { return bufferPool.getPeakBytes(); }
+
+    /** 复用 AL 缓冲对象与堆外缓冲块而省去的原生分配次数（共用的 PCM 暂存区本来就只分配一次，不计入）。 */
+    public long getAllocationsAvoided() { return allocationsAvoided.get() + bufferPool.getReusedCount(); }
+
+    /** 所有流累计的欠载次数（已排队的缓冲全部播完时新数据还没解码出来）。 */
+    public long getUnderruns() { return underruns.get(); }
+
+    /** 已解码短音频缓存的命中与未命中次数。 */
+    public long getClipCacheHits() { return clipCache.getHits(); }
+
+    public long getClipCacheMisses() { return clipCache.getMisses(); }
+
     public void init() {
         MinecraftForge.EVENT_BUS.register(this);
+        ClientAudioCache.init();
+
+        Metrics.CLIENT.gauge("streams.active", streams::size);
+        Metrics.CLIENT.gauge("streams.virtual", () -> virtualStreams);
+        Metrics.CLIENT.gauge("sources.free", sourcePool::size);
+        Metrics.CLIENT.gauge("underruns", underruns::get);
+        Metrics.CLIENT.gauge("native.bytes_held", bufferPool::getHeldBytes);
+        Metrics.CLIENT.gauge("native.bytes_peak", bufferPool::getPeakBytes);
+        Metrics.CLIENT.gauge("allocations_avoided", this::getAllocationsAvoided);
+        Metrics.CLIENT.gauge("clip_cache.hits", clipCache::getHits);
+        Metrics.CLIENT.gauge("clip_cache.misses", clipCache::getMisses);
+        Metrics.CLIENT.gauge("clip_cache.bytes", clipCache::getHeldBytes);
+        Metrics.CLIENT.startDump(ModConfig.CLIENT_METRICS_DUMP_SECONDS::get, ModConfig.CLIENT_METRICS_DUMP_FORMAT::get);
+
+        // 解码、alBufferData 与入队都在独立线程上按固定间隔执行，不再依赖 20Hz 的客户端 tick
+        audioThread = new Thread(this::runAudioLoop, "Voice-Audio-Thread");
+        audioThread.setDaemon(true);
+        audioThread.start();
     }
 
     @SubscribeEvent
     public void onSoundEngineLoad(SoundEngineLoadEvent event) {
         LOGGER.info("[AudioEngine] Sound Engine loaded. Resetting.");
+        commands.offer(() -> {
+            // 清理旧流出错时也要丢掉旧上下文中的音源与缓冲名并重新初始化，否则之后一直使用失效的对象
+            try {
+                stopAllNow();
+            } finally {
+                sourcePool.clear();
+                alBufferPool.clear(); // 旧上下文中的缓冲对象已随上下文销毁
+                clipCache.clear();
+                isInitialized = false;
+                tryInitSourcePool();
+            }
+        });
+    }
+
+    @SubscribeEvent
+    public void onLoggingOut(ClientPlayerNetworkEvent.LoggingOut event) {
         stopAll();
-        sourcePool.clear();
-        isInitialized = false;
-        tryInitSourcePool();
     }
 
     private boolean tryInitSourcePool() {
@@ -70,6 +157,8 @@ public class AudioEngine {
         }
 
         if (!sourcePool.isEmpty()) {
+            sourceCount = sourcePool.size();
+            alContext = ALC10.alcGetCurrentContext();
             isInitialized = true;
             LOGGER.info("[AudioEngine] Initialized with {} sources.", sourcePool.size());
             return true;
@@ -77,110 +166,531 @@ public class AudioEngine {
         return false;
     }
 
+    /**
+     * 主线程只负责采样听者与实体位置，音频线程读取快照。
+     */
     @SubscribeEvent
     public void onClientTick(TickEvent.ClientTickEvent event) {
         if (event.phase == TickEvent.Phase.END && isInitialized) {
-            if (Minecraft.getInstance().level == null) return;
+            ClientLevel level = Minecraft.getInstance().level;
+            if (level == null) return;
 
-            Vec3 camPos = Minecraft.getInstance().gameRenderer.getMainCamera().getPosition();
-            Iterator<Map.Entry<UUID, AudioStream>> it = streams.entrySet().iterator();
-
-            while (it.hasNext()) {
-                AudioStream stream = it.next().getValue();
-                stream.tick(camPos);
+            listenerPos = Minecraft.getInstance().gameRenderer.getMainCamera().getPosition();
+            long now = System.nanoTime();
+            for (AudioStream stream : streams.values()) {
+                stream.sampleEntityPosition(level, now);
+            }
+        }
+    }
 
-                if (stream.isDone()) {
-                    stream.dispose();
-                    it.remove();
+    private void runAudioLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            long start = System.nanoTime();
+            try {
+                Runnable command;
+                while ((command = commands.poll()) != null) {
+                    command.run();
                 }
+                // 声音引擎重载期间上下文会被销毁重建，此时跳过 AL 调用，等待 SoundEngineLoadEvent 重置
+                if (isInitialized && ALC10.alcGetCurrentContext() == alContext) {
+                    serviceStreams();
+                }
+            } catch (Throwable t) {
+                LOGGER.error("[AudioEngine] Error in audio thread", t);
+            }
+
+            long interval = ModConfig.AUDIO_SERVICE_INTERVAL_MS.get() * 1_000_000L;
+            long remaining = interval - (System.nanoTime() - start);
+            if (remaining > 0) LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void serviceStreams() {
+        Vec3 camPos = listenerPos;
+        long now = System.nanoTime();
+        Iterator<Map.Entry<UUID, AudioStream>> it = streams.entrySet().iterator();
+
+        while (it.hasNext()) {
+            AudioStream stream = it.next().getValue();
+            stream.tick(now);
+
+            if (stream.isDone()) {
+                if (ModConfig.DEBUG_MODE.get()) LOGGER.info("[Stream {}] Done, {} underruns.", stream.id, stream.underruns);
+                stream.dispose();
+                unbindHandle(stream);
+                it.remove();
+            } else if (stream.decoderFinished && stream.sourceId != -1) {
+                handOver(stream);
             }
         }
+
+        assignVoices(camPos);
     }
 
-    public void startStream(UUID id, double x, double y, double z, float range, float volume, float pitch) {
-        if (!isInitialized && !tryInitSourcePool()) return;
-        Minecraft.getInstance().execute(() -> {
-            if (streams.containsKey(id)) streams.remove(id).dispose();
-            LOGGER.info("[Stream {}] START (Static Pos)", id);
-            streams.put(id, new AudioStream(id, new Vec3(x, y, z), null, range, volume, pitch));
+    /**
+     * 播放列表中的下一首已经解析好头部时，让它接管上一首的音源：上一首剩下的缓冲照常播完，
+     * 下一首的数据紧接着排进同一个队列，两首之间没有空隙。同一队列中的缓冲格式必须一致，格式不同时等上一首播完再分配音源。
+     */
+    private void handOver(AudioStream previous) {
+        for (AudioStream next : streams.values()) {
+            if (previous.id.equals(next.follows) && next.canTakeOver(previous)) {
+                next.takeOver(previous);
+                if (ModConfig.DEBUG_MODE.get()) LOGGER.info("[Stream {}] Continues on the source of {}.", next.id, previous.id);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按可听度把有限的 OpenAL 音源分配给最值得播放的流。没有分到音源的流成为虚拟音源：
+     * 继续按实时速度解码并丢弃输出，播放进度照常推进，重新分到音源时从正确的位置继续。
+     */
+    private void assignVoices(Vec3 camPos) {
+        List<AudioStream> ranked = new ArrayList<>(streams.size());
+        for (AudioStream stream : streams.values()) {
+            stream.wantsSource = false;
+            if (!stream.isReady()) continue;
+            stream.score = stream.audibility(camPos) * (stream.sourceId != -1 ? STEAL_HYSTERESIS : 1.0f);
+            if (stream.score > 0) ranked.add(stream);
+        }
+        ranked.sort(Comparator.comparingDouble((AudioStream stream) -> stream.score).reversed());
+        for (int i = 0; i < ranked.size() && i < sourceCount; i++) {
+            ranked.get(i).wantsSource = true;
+        }
+
+        // 先回收被降级的音源，再分配给新晋的流
+        for (AudioStream stream : streams.values()) {
+            if (stream.sourceId != -1 && !stream.wantsSource) {
+                stream.releaseSource();
+                if (ModConfig.DEBUG_MODE.get()) LOGGER.info("[Stream {}] Virtualized (score {}).", stream.id, stream.score);
+            }
+        }
+        for (AudioStream stream : ranked) {
+            if (!stream.wantsSource || stream.sourceId != -1) continue;
+            Integer source = sourcePool.poll();
+            if (source == null) break;
+            stream.acquireSource(source);
+        }
+
+        int virtual = 0;
+        for (AudioStream stream : streams.values()) {
+            if (stream.sourceId == -1) virtual++;
+        }
+        virtualStreams = virtual;
+    }
+
+    /**
+     * 取得共享的 PCM 暂存区，limit 设为一个 AL 缓冲的容量。只在配置的缓冲大小变化时重新分配。
+     */
+    private ShortBuffer pcmScratch(int channels) {
+        int samples = ModConfig.STREAM_BUFFER_SAMPLES.get();
+        if (pcmScratch == null || pcmScratch.capacity() != samples * 2) {
+            if (pcmScratch != null) MemoryUtil.memFree(pcmScratch);
+            pcmScratch = MemoryUtil.memAllocShort(samples * 2);
+        }
+        pcmScratch.clear().limit(samples * channels);
+        return pcmScratch;
+    }
+
+    private int acquireAlBuffer() {
+        Integer buffer = alBufferPool.poll();
+        if (buffer == null) return AL10.alGenBuffers();
+        allocationsAvoided.incrementAndGet();
+        return buffer;
+    }
+
+    public void startStream(UUID id, int handle, double x, double y, double z, float range, float volume, float pitch, int priority,
+                            byte[] contentHash, long contentSize, long startSample, AudioCodec codec, int creditWindow, int loops, UUID follows) {
+        commands.offer(() -> openStream(id, handle, new Vec3(x, y, z), null, -1, range, volume, pitch, priority, contentHash, contentSize, startSample, codec, creditWindow,
+                loops, follows));
+    }
+
+    public void startStream(UUID id, int handle, UUID entityId, int entityNetworkId, float range, float volume, float pitch, int priority,
+                            byte[] contentHash, long contentSize, long startSample, AudioCodec codec, int creditWindow, int loops, UUID follows) {
+        commands.offer(() -> openStream(id, handle, null, entityId, entityNetworkId, range, volume, pitch, priority, contentHash, contentSize, startSample, codec, creditWindow,
+                loops, follows));
+    }
+
+    /** 一帧中的所有数据块作为一条命令投递，按到达顺序分发给各自的流。 */
+    public void receiveFrame(List<StreamFrameS2CPacket.Chunk> chunks) {
+        commands.offer(() -> {
+            for (StreamFrameS2CPacket.Chunk chunk : chunks) {
+                AudioStream stream = getByHandle(chunk.streamHandle());
+                if (stream != null) stream.pushData(chunk.sequence(), chunk.data());
+            }
         });
     }
 
-    public void startStream(UUID id, UUID entityId, float range, float volume, float pitch) {
-        if (!isInitialized && !tryInitSourcePool()) return;
-        Minecraft.getInstance().execute(() -> {
-            if (streams.containsKey(id)) streams.remove(id).dispose();
-            LOGGER.info("[Stream {}] START (Follow Entity)", id);
-            streams.put(id, new AudioStream(id, null, entityId, range, volume, pitch));
+    public void endStream(int handle) {
+        commands.offer(() -> {
+            AudioStream stream = getByHandle(handle);
+            if (stream != null) {
+                stream.markFinished();
+                // 流仍会播完已缓冲的数据，但句柄此后可能被服务端分配给新的流
+                unbindHandle(stream);
+            }
         });
     }
 
-    public void receiveData(UUID id, byte[] data) {
-        AudioStream stream = streams.get(id);
-        if (stream != null) stream.pushData(data);
+    public void stopAll() {
+        commands.offer(this::stopAllNow);
     }
 
-    public void endStream(UUID id) {
-        AudioStream stream = streams.get(id);
-        if (stream != null) stream.markFinished();
+    public void controlStream(int handle, StreamControlS2CPacket.Action action, long position) {
+        commands.offer(() -> {
+            AudioStream stream = getByHandle(handle);
+            if (stream == null) return;
+            switch (action) {
+                case STOP -> {
+                    stream.dispose();
+                    unbindHandle(stream);
+                    streams.remove(stream.id);
+                }
+                case PAUSE -> stream.setPaused(true);
+                case RESUME -> stream.setPaused(false);
+                case FLUSH -> stream.flush(position);
+            }
+        });
     }
 
-    public void stopAll() {
+    private void openStream(UUID id, int handle, Vec3 pos, UUID entityId, int entityNetworkId, float range, float volume, float pitch, int priority,
+                            byte[] contentHash, long contentSize, long startSample, AudioCodec codec, int creditWindow, int loops, UUID follows) {
+        if (!isInitialized && !tryInitSourcePool()) return;
+        if (handle < 0 || handle > MAX_HANDLE) return;
+        AudioStream old = streams.remove(id);
+        if (old != null) {
+            old.dispose();
+            unbindHandle(old);
+        }
+        LOGGER.info("[Stream {}] START ({})", id, entityId != null ? "Follow Entity" : "Static Pos");
+        // 依次尝试：已解码的短音频缓存 -> 本地文件缓存 -> 网络接收
+        PcmClipCache.Clip clip = clipCache.acquire(contentHash);
+        StreamDecoder decoder = clip != null ? null : openCached(id, contentHash, contentSize, startSample, codec);
+        boolean local = clip != null || decoder != null;
+        if (local) {
+            PacketHandler.sendToServer(new HaveContentC2SPacket(id));
+            if (ModConfig.DEBUG_MODE.get()) {
+                LOGGER.info("[Stream {}] Playing from {} at sample {}.", id, clip != null ? "decoded clip cache" : "local cache", startSample);
+            }
+        } else {
+            int capacity = ModConfig.STREAM_BUFFER_KB.get() * 1024;
+            decoder = codec == AudioCodec.IMA_ADPCM ? new AdpcmDecoder(bufferPool, capacity) : new VorbisPushDecoder(bufferPool, capacity);
+        }
+        AudioStream stream = new AudioStream(id, handle, pos, entityId, entityNetworkId, range, volume, pitch, priority, decoder, local, clip, startSample);
+        stream.creditWindow = creditWindow;
+        stream.loopsRemaining = loops;
+        stream.follows = follows;
+        if (!local && contentHash != null && contentSize > 0 && contentSize <= ClientAudioCache.maxFileBytes()) {
+            stream.startCapture(contentHash, contentSize);
+        }
+        // 只有从头完整解码的流才能进入短音频缓存。服务端重发的循环数据之间没有边界，只有能在本地循环的流才知道第一遍在哪里结束
+        boolean loopBoundary = loops == 0 || local || stream.capture != null;
+        if (clip == null && contentHash != null && startSample == 0 && loopBoundary && PcmClipCache.enabled() && !clipCache.contains(contentHash)) {
+            stream.clipHash = contentHash;
+        }
+        streams.put(id, stream);
+
+        if (handle >= streamsByHandle.length) {
+            streamsByHandle = Arrays.copyOf(streamsByHandle, Math.max(handle + 1, streamsByHandle.length * 2));
+        }
+        AudioStream previous = streamsByHandle[handle];
+        if (previous != null) previous.markFinished(); // 丢失了 End 包的旧流，不再有数据到达
+        streamsByHandle[handle] = stream;
+    }
+
+    /**
+     * 本地缓存里有同样的文件时直接映射播放。
+     */
+    private StreamDecoder openCached(UUID id, byte[] contentHash, long contentSize, long startSample, AudioCodec codec) {
+        if (contentHash == null) return null;
+        Path path = ClientAudioCache.lookup(contentHash, contentSize);
+        if (path == null) return null;
+        try {
+            StreamDecoder decoder = codec == AudioCodec.IMA_ADPCM ? AdpcmDecoder.map(path, startSample) : MappedVorbisDecoder.map(path, startSample);
+            if (!decoder.open()) {
+                decoder.close();
+                return null;
+            }
+            return decoder;
+        } catch (IOException e) {
+            LOGGER.warn("[Stream {}] Failed to map cached sound {}", id, path, e);
+            return null;
+        }
+    }
+
+    private AudioStream getByHandle(int handle) {
+        return handle >= 0 && handle < streamsByHandle.length ? streamsByHandle[handle] : null;
+    }
+
+    private void unbindHandle(AudioStream stream) {
+        if (getByHandle(stream.handle) == stream) streamsByHandle[stream.handle] = null;
+    }
+
+    private void stopAllNow() {
         LOGGER.info("[AudioEngine] Stopping all streams.");
         streams.values().forEach(AudioStream::dispose);
         streams.clear();
+        Arrays.fill(streamsByHandle, null);
+        // 这里也在主菜单中重载声音引擎时执行，此时服务端配置（debugMode）尚未加载，不能读取；
+        // 同样的统计随时可在 /tdvoiceclient stats 中查看
+        LOGGER.debug("[AudioEngine] Native stream buffers: {} bytes held, {} bytes peak; {} allocations avoided, {} underruns.",
+                bufferPool.getHeldBytes(), bufferPool.getPeakBytes(), getAllocationsAvoided(), underruns.get());
+        LOGGER.debug("[AudioEngine] Clip cache: {} bytes, {} hits, {} misses.", clipCache.getHeldBytes(), clipCache.getHits(), clipCache.getMisses());
     }
 
+    /**
+     * 主线程对跟随实体的两次相邻采样，音频线程在两者之间按时间插值。
+     */
+    private record EntityMotion(Vec3 previous, Vec3 current, long sampledNanos) {}
+
     private class AudioStream {
         private final UUID id;
+        private final int handle;
+        private int expectedSequence = 0;
         private Vec3 staticPos;
         private final UUID entityId;
+        private final int entityNetworkId;
+        // 以下三个字段只在主线程访问：缓存的实体引用及其所属的世界
+        private Entity trackedEntity;
+        private ClientLevel trackedLevel;
+        private int fallbackCooldown = 0;
+        private volatile EntityMotion motion;
         private final float range;
         private final float volume;
         private final float pitch;
+        private final int priority;
 
-        private ByteBuffer vorbisBuffer;
-        private int writeCursor = 0;
-        private int lastOpenCursor = 0;
-        private final Queue<byte[]> incomingQueue = new ConcurrentLinkedQueue<>();
+        // 命中已解码短音频缓存时为 null，直接播放 clip 的缓冲；改为本地循环时换成读取内存数据的解码器
+        private StreamDecoder decoder;
+        private final PcmClipCache.Clip clip;
+        // clip 的播放位置（采样），没有真实音源时按实时推进
+        private double clipPosition;
+        private int lastClipOffset = 0;
+        // 非 null 时把解码输出攒成完整 PCM，解码完毕后放入短音频缓存；超长或出现断档就放弃
+        private byte[] clipHash;
+        private ShortBuffer clipCapture;
+        // 从本地缓存播放：完整数据已在本地，服务端在收到回复前发来的数据直接忽略
+        private boolean local;
+        // 播完后还要从头再播的遍数，-1 为无限循环；只有完整数据在本地时由客户端自己循环，否则服务端会重发
+        private int loopsRemaining = 0;
+        // 循环播放的流在接收中收齐了完整文件，第一遍播完后换用读取这份数据的解码器
+        private ByteBuffer loopData;
+        // 播放列表中的上一首，它还在时本流只接收数据，等它解码完毕后接管它的音源
+        private UUID follows;
+        private final Queue<byte[]> incomingQueue = new ArrayDeque<>();
+        // 流控：已从接收队列取走的累计字节数与最近一次确认给服务端的值，窗口为 0 时不确认
+        private int creditWindow;
+        private long consumedBytes = 0;
+        private long reportedBytes = 0;
+        // 边接收边攒下完整文件，收齐且大小一致时写入本地缓存；出现断档就放弃
+        private ByteArrayOutputStream capture;
+        private byte[] contentHash;
+        private long contentSize;
 
         private int sourceId = -1;
-        private final int[] buffers = new int[3];
-        private long vorbisHandle = MemoryUtil.NULL;
-        private STBVorbisInfo info;
+        // 只在持有真实音源期间从引擎的池中借用
+        private int[] buffers = new int[0];
+        private int[] bufferSamples = new int[0];
+        // 已从音源取下、等待重新填充的缓冲
+        private final Deque<Integer> idleBuffers = new ArrayDeque<>();
+        private boolean playing = false;
+        private int underruns = 0;
+        // 已排入音源、尚未播放完的采样数，被降为虚拟音源时用来还原播放进度
+        private int queuedSamples = 0;
+
+        // 虚拟音源：还需解码丢弃的采样数（为负表示还要等待这么多采样的时长）
+        private double virtualDebt = 0;
+        private long lastTickNanos = 0;
+        private float score;
+        private boolean wantsSource;
 
-        private int totalSamplesDecoded = 0;
         private boolean inputFinished = false;
         private boolean decoderFinished = false;
+        private boolean paused = false;
         private boolean disposed = false;
 
-        private long bufferAddress = 0;
-
-        public AudioStream(UUID id, Vec3 pos, UUID entityId, float range, float volume, float pitch) {
+        public AudioStream(UUID id, int handle, Vec3 pos, UUID entityId, int entityNetworkId, float range, float volume, float pitch, int priority,
+                           StreamDecoder decoder, boolean local, PcmClipCache.Clip clip, long startSample) {
             this.id = id;
+            this.handle = handle;
             this.staticPos = pos;
             this.entityId = entityId;
+            this.entityNetworkId = entityNetworkId;
             this.range = range;
             this.volume = volume;
             this.pitch = pitch;
-            this.vorbisBuffer = MemoryUtil.memAlloc(4 * 1024 * 1024);
-            this.bufferAddress = MemoryUtil.memAddress(vorbisBuffer);
+            this.priority = priority;
+            this.decoder = decoder;
+            this.local = local;
+            this.inputFinished = local;
+            this.clip = clip;
+            this.clipPosition = startSample;
         }
 
-        public void pushData(byte[] data) {
+        void startCapture(byte[] contentHash, long contentSize) {
+            this.contentHash = contentHash;
+            this.contentSize = contentSize;
+            this.capture = new ByteArrayOutputStream((int) contentSize);
+        }
+
+        public void pushData(int sequence, byte[] data) {
+            if (local) return;
+            if (sequence != expectedSequence) {
+                capture = null;
+                abandonClip();
+                // 中途加入时服务端只补发了头部，之后的数据从当前进度开始，解码器需要在此重新同步
+                if (ModConfig.DEBUG_MODE.get()) {
+                    LOGGER.info("[Stream {}] Sequence gap: expected {}, got {}", id, expectedSequence, sequence);
+                }
+                incomingQueue.offer(DISCONTINUITY);
+            }
+            expectedSequence = sequence + 1;
             incomingQueue.offer(data);
+            if (capture != null) {
+                if (capture.size() + data.length > contentSize) capture = null;
+                else capture.write(data, 0, data.length);
+                if (capture != null && capture.size() == contentSize && loopsRemaining != 0) keepForLoop();
+            }
+        }
+
+        /**
+         * 循环播放的流收齐了完整文件：写入本地缓存并保留一份在内存中，之后改为本地循环，
+         * 并告诉服务端不必再为本客户端重发数据。队列中剩下的数据照常解码完。
+         */
+        private void keepForLoop() {
+            byte[] content = capture.toByteArray();
+            capture = null;
+            ClientAudioCache.store(contentHash, content);
+            loopData = ByteBuffer.allocateDirect(content.length).put(content).flip();
+            local = true;
+            inputFinished = true;
+            PacketHandler.sendToServer(new HaveContentC2SPacket(id));
+            if (ModConfig.DEBUG_MODE.get()) LOGGER.info("[Stream {}] Received the whole file, looping locally.", id);
         }
 
         public void markFinished() {
+            if (capture != null) {
+                if (capture.size() == contentSize) ClientAudioCache.store(contentHash, capture.toByteArray());
+                capture = null;
+            }
+            // 无限循环的流只会因离开范围等原因收到 End，此时播完当前这一遍即可
+            if (loopsRemaining < 0) stopLooping();
             if (!this.inputFinished) {
                 this.inputFinished = true;
                 if (ModConfig.LOG_BASIC_INFO.get()) LOGGER.info("[Stream {}] Received EOS signal.", id);
             }
         }
 
+        public void setPaused(boolean paused) {
+            this.paused = paused;
+            if (sourceId == -1) return;
+            if (paused) {
+                AL10.alSourcePause(sourceId);
+            } else if (AL10.alGetSourcei(sourceId, AL10.AL_BUFFERS_QUEUED) > 0) {
+                AL10.alSourcePlay(sourceId);
+            }
+        }
+
+        /**
+         * 服务端跳转了播放位置：丢弃旧位置尚未播放的数据，让解码器在新数据上重新同步。
+         * 本地播放的流直接跳到服务端给出的采样位置。
+         */
+        public void flush(long position) {
+            capture = null;
+            abandonClip();
+            if (clip != null) {
+                seekClip(position);
+                return;
+            }
+            if (loopData != null) {
+                useLoopData(position);
+            } else if (local) {
+                decoder.seek(position);
+            } else {
+                // 头部尚未解析时队列里还有头部数据，只能在断档处丢弃
+                if (decoder.open()) {
+                    for (byte[] data : incomingQueue) consumedBytes += data.length;
+                    incomingQueue.clear();
+                }
+                incomingQueue.offer(DISCONTINUITY);
+            }
+            decoderFinished = false;
+            virtualDebt = 0;
+            if (sourceId != -1) {
+                // 停止后所有缓冲都变为已处理，解除绑定后下一次 streamAudio 会重新填充
+                AL10.alSourceStop(sourceId);
+                AL10.alSourcei(sourceId, AL10.AL_BUFFER, 0);
+                idleBuffers.clear();
+                for (int buffer : buffers) idleBuffers.add(buffer);
+                queuedSamples = 0;
+                playing = false;
+            }
+        }
+
+        /** 换用读取内存中完整文件的解码器，此后循环与跳转都在本地完成。 */
+        private void useLoopData(long startSample) {
+            decoder.close();
+            decoder = decoder instanceof AdpcmDecoder ? AdpcmDecoder.wrap(loopData, startSample) : MappedVorbisDecoder.wrap(loopData, startSample);
+            loopData = null;
+        }
+
+        /**
+         * 本地数据播完时从头再来一遍，返回 false 表示不再循环。第一遍完整解码出的 PCM 在此时放入短音频缓存。
+         */
+        private boolean restartLoop() {
+            if (loopsRemaining == 0 || !local) return false;
+            storeClip();
+            abandonClip();
+            if (loopData != null) useLoopData(0);
+            else decoder.seek(0);
+            if (loopsRemaining > 0) loopsRemaining--;
+            return true;
+        }
+
+        private void stopLooping() {
+            loopsRemaining = 0;
+            if (clip != null && sourceId != -1) AL10.alSourcei(sourceId, AL10.AL_LOOPING, AL10.AL_FALSE);
+        }
+
+        /** 等待播放列表中的上一首播完。 */
+        private boolean isWaiting() {
+            if (follows != null && !streams.containsKey(follows)) follows = null;
+            return follows != null;
+        }
+
+        /** 上一首的缓冲格式与本流一致时才能排进同一个音源队列。 */
+        boolean canTakeOver(AudioStream previous) {
+            if (disposed || clip != null || sourceId != -1 || !decoder.open()) return false;
+            return decoder.getOutputChannels() == previous.decoder.getOutputChannels() && decoder.getSampleRate() == previous.decoder.getSampleRate();
+        }
+
+        /** 接过上一首的音源与 AL 缓冲，已排队的缓冲留在队列里照常播放；上一首随后因没有音源而结束。 */
+        void takeOver(AudioStream previous) {
+            sourceId = previous.sourceId;
+            buffers = previous.buffers;
+            bufferSamples = previous.bufferSamples;
+            idleBuffers.addAll(previous.idleBuffers);
+            queuedSamples = previous.queuedSamples;
+            playing = previous.playing;
+            previous.sourceId = -1;
+            previous.buffers = new int[0];
+            previous.idleBuffers.clear();
+            previous.queuedSamples = 0;
+            previous.playing = false;
+            follows = null;
+            virtualDebt = 0;
+            configureSource();
+        }
+
         public boolean isDone() {
             if (disposed) return true;
-            if (inputFinished && decoderFinished && sourceId != -1) {
+            if (clip != null) {
+                if (sourceId == -1) return clipPosition >= clip.samples;
+                return AL10.alGetSourcei(sourceId, AL10.AL_SOURCE_STATE) == AL10.AL_STOPPED;
+            }
+            if (decoder.hasFailed()) return true;
+            if (inputFinished && decoderFinished) {
+                if (sourceId == -1) return true; // 虚拟音源已推进到末尾
                 int queued = AL10.alGetSourcei(sourceId, AL10.AL_BUFFERS_QUEUED);
                 int state = AL10.alGetSourcei(sourceId, AL10.AL_SOURCE_STATE);
                 if (queued == 0 || state == AL10.AL_STOPPED) {
@@ -190,164 +700,348 @@ public class AudioEngine {
             return false;
         }
 
-        public void tick(Vec3 listenerPos) {
+        public void tick(long now) {
             if (disposed) return;
+            long elapsed = lastTickNanos == 0 ? 0 : now - lastTickNanos;
+            lastTickNanos = now;
 
-            boolean pointerChanged = false;
-            boolean hasNewData = false;
-
-            while (!incomingQueue.isEmpty()) {
-                byte[] data = incomingQueue.poll();
-                if (vorbisBuffer.remaining() < data.length) {
-                    int newCap = Math.max(vorbisBuffer.capacity() * 2, writeCursor + data.length + 65536);
-                    ByteBuffer newBuf = MemoryUtil.memRealloc(vorbisBuffer, newCap);
-                    if (newBuf == null) { dispose(); return; }
-                    vorbisBuffer = newBuf;
-                    pointerChanged = (MemoryUtil.memAddress(vorbisBuffer) != bufferAddress);
-                    bufferAddress = MemoryUtil.memAddress(vorbisBuffer);
+            if (clip != null) {
+                if (isWaiting()) return;
+                if (sourceId != -1) {
+                    updatePosition(now);
+                    countClipLoops();
+                } else if (!paused) {
+                    clipPosition += elapsed / 1_000_000_000.0 * clip.sampleRate * pitch;
+                    while (clipPosition >= clip.samples && loopsRemaining != 0) {
+                        clipPosition -= clip.samples;
+                        if (loopsRemaining > 0) loopsRemaining--;
+                    }
                 }
-                vorbisBuffer.position(writeCursor);
-                vorbisBuffer.put(data);
-                writeCursor += data.length;
-                hasNewData = true;
-            }
-
-            boolean needsReopen = (vorbisHandle == MemoryUtil.NULL);
-            if (!needsReopen && (pointerChanged || (hasNewData && writeCursor > lastOpenCursor))) {
-                needsReopen = true;
+                return;
             }
 
-            if (needsReopen && writeCursor > 0) {
-                reopenDecoder();
-            }
-
-            if (sourceId == -1 && vorbisHandle != MemoryUtil.NULL && !sourcePool.isEmpty()) {
-                initOpenALSource();
+            // 每个数据块只追加一次，解码器状态跨块保留；缓冲已满的数据留在队列里等下次
+            byte[] next;
+            while ((next = incomingQueue.peek()) != null) {
+                if (next == DISCONTINUITY) decoder.discontinuity();
+                else if (!decoder.append(next)) break;
+                incomingQueue.poll();
+                consumedBytes += next.length;
             }
+            reportCredit();
 
             if (sourceId != -1) {
-                updatePosition();
+                updatePosition(now);
                 streamAudio();
+            } else if (!isWaiting()) {
+                advanceVirtual(elapsed);
             }
         }
 
-        private void reopenDecoder() {
-            if (vorbisHandle != MemoryUtil.NULL) {
-                STBVorbis.stb_vorbis_close(vorbisHandle);
-                vorbisHandle = MemoryUtil.NULL;
+        /**
+         * 循环播放的 clip 由 OpenAL 的 AL_LOOPING 无缝循环，这里按播放位置回绕计数；
+         * 只剩最后一遍时关闭循环，让音源播完后自然停止。
+         */
+        private void countClipLoops() {
+            if (loopsRemaining == 0) return;
+            int offset = AL10.alGetSourcei(sourceId, AL11.AL_SAMPLE_OFFSET);
+            if (offset < lastClipOffset && loopsRemaining > 0 && --loopsRemaining == 0) {
+                AL10.alSourcei(sourceId, AL10.AL_LOOPING, AL10.AL_FALSE);
             }
+            lastClipOffset = offset;
+        }
 
-            try (MemoryStack stack = MemoryStack.stackPush()) {
-                IntBuffer error = stack.mallocInt(1);
-                ByteBuffer slice = vorbisBuffer.duplicate();
-                slice.position(0).limit(writeCursor);
+        /**
+         * 每消费四分之一窗口向服务端确认一次。服务端只有在未确认量接近整个窗口时才会停下，
+         * 而此时客户端未确认的量必然已超过四分之一窗口，所以不会互相等待。
+         */
+        private void reportCredit() {
+            if (creditWindow <= 0 || consumedBytes - reportedBytes < creditWindow / 4) return;
+            reportedBytes = consumedBytes;
+            PacketHandler.sendToServer(new StreamCreditC2SPacket(id, consumedBytes));
+        }
 
-                long h = STBVorbis.stb_vorbis_open_memory(slice, error, null);
-                if (h != MemoryUtil.NULL) {
-                    vorbisHandle = h;
-                    lastOpenCursor = writeCursor;
-                    if (info == null) {
-                        info = STBVorbisInfo.malloc();
-                        STBVorbis.stb_vorbis_get_info(vorbisHandle, info);
-                    }
+        /** 可以参与音源分配：头部已解析且还有数据要解码，或仍在播放已排队的缓冲。 */
+        boolean isReady() {
+            if (disposed || isWaiting()) return false;
+            if (clip != null) return sourceId != -1 || clipPosition < clip.samples;
+            return sourceId != -1 || (!decoderFinished && decoder.open());
+        }
 
-                    if (totalSamplesDecoded > 0) {
-                        STBVorbis.stb_vorbis_seek(vorbisHandle, totalSamplesDecoded);
-                    }
+        /**
+         * 估计听者处的响度，与 OpenAL 默认的 AL_INVERSE_DISTANCE_CLAMPED 衰减一致，再按服务端优先级加权。
+         * 位置未知（跟随的实体尚未加载）时返回 0。
+         */
+        float audibility(Vec3 camPos) {
+            EntityMotion m = motion;
+            Vec3 pos = entityId != null ? (m != null ? m.current() : null) : staticPos;
+            if (pos == null) return 0;
+            double distance = Math.max(REFERENCE_DISTANCE, Math.min(pos.distanceTo(camPos), range));
+            return (float) (volume * (REFERENCE_DISTANCE / distance) * (1 + priority));
+        }
+
+        /**
+         * 没有真实音源时按实时速度（考虑 pitch）解码并丢弃输出；数据不足时与真实音源一样停顿，不累积欠账。
+         */
+        private void advanceVirtual(long elapsedNanos) {
+            if (paused || !decoder.open()) return;
+            virtualDebt += elapsedNanos / 1_000_000_000.0 * decoder.getSampleRate() * pitch;
+            while (virtualDebt > 0) {
+                ShortBuffer pcm = pcmScratch(decoder.getOutputChannels());
+                int count = decodeLooping(pcm);
+                recordClip(pcm, count);
+                if (count == 0) {
+                    if (inputFinished && incomingQueue.isEmpty()) finishDecoding();
+                    virtualDebt = 0;
+                    break;
                 }
+                virtualDebt -= count;
             }
         }
 
-        private void initOpenALSource() {
-            Integer s = sourcePool.poll();
-            if (s != null) {
-                sourceId = s;
-                buffers[0] = AL10.alGenBuffers();
-                buffers[1] = AL10.alGenBuffers();
-                buffers[2] = AL10.alGenBuffers();
-                AL10.alSourcei(sourceId, AL10.AL_LOOPING, AL10.AL_FALSE);
-                AL10.alSourcef(sourceId, AL10.AL_GAIN, volume);
-                AL10.alSourcef(sourceId, AL10.AL_PITCH, pitch);
-                AL10.alSourcef(sourceId, AL10.AL_MAX_DISTANCE, range);
-                AL10.alSourcef(sourceId, AL10.AL_ROLLOFF_FACTOR, 1.0f);
-                AL10.alSourcef(sourceId, AL10.AL_REFERENCE_DISTANCE, 16.0f);
+        private void acquireSource(int source) {
+            sourceId = source;
+            queuedSamples = 0;
+            virtualDebt = 0;
+            configureSource();
+
+            if (clip != null) {
+                // 整段音频就在一个缓冲里，从当前进度直接开始播放
+                AL10.alSourceQueueBuffers(sourceId, clip.buffer);
+                AL10.alSourcei(sourceId, AL10.AL_LOOPING, loopsRemaining != 0 ? AL10.AL_TRUE : AL10.AL_FALSE);
+                AL10.alSourcei(sourceId, AL11.AL_SAMPLE_OFFSET, (int) clipPosition);
+                lastClipOffset = (int) clipPosition;
+                if (!paused) AL10.alSourcePlay(sourceId);
+                return;
+            }
+            int count = ModConfig.STREAM_BUFFER_COUNT.get();
+            buffers = new int[count];
+            bufferSamples = new int[count];
+            for (int i = 0; i < count; i++) {
+                buffers[i] = acquireAlBuffer();
+                idleBuffers.add(buffers[i]);
             }
         }
 
-        private void updatePosition() {
-            Vec3 pos = staticPos;
-            if (entityId != null && Minecraft.getInstance().level != null) {
-                for (Entity en : Minecraft.getInstance().level.entitiesForRendering()) {
-                    if (en.getUUID().equals(entityId)) { pos = en.position(); break; }
+        private void configureSource() {
+            AL10.alSourcei(sourceId, AL10.AL_LOOPING, AL10.AL_FALSE);
+            AL10.alSourcef(sourceId, AL10.AL_GAIN, volume);
+            AL10.alSourcef(sourceId, AL10.AL_PITCH, pitch);
+            AL10.alSourcef(sourceId, AL10.AL_MAX_DISTANCE, range);
+            AL10.alSourcef(sourceId, AL10.AL_ROLLOFF_FACTOR, 1.0f);
+            AL10.alSourcef(sourceId, AL10.AL_REFERENCE_DISTANCE, REFERENCE_DISTANCE);
+            AL10.alSource3f(sourceId, AL10.AL_VELOCITY, 0, 0, 0); // 音源可能刚被别的跟随流用过
+        }
+
+        private void releaseSource() {
+            if (clip != null) {
+                int state = AL10.alGetSourcei(sourceId, AL10.AL_SOURCE_STATE);
+                if (state == AL10.AL_STOPPED) clipPosition = clip.samples;
+                else if (state != AL10.AL_INITIAL) clipPosition = AL10.alGetSourcei(sourceId, AL11.AL_SAMPLE_OFFSET);
+                detachSource();
+                return;
+            }
+            // 已排队但未播放的采样会随缓冲一起丢弃，而解码器已越过它们：虚拟播放头先等待这段时长再继续解码
+            int unplayed = queuedSamples - AL10.alGetSourcei(sourceId, AL11.AL_SAMPLE_OFFSET);
+            virtualDebt = -Math.max(0, unplayed);
+            detachSource();
+        }
+
+        private void seekClip(long position) {
+            clipPosition = Math.min(position, clip.samples);
+            if (sourceId == -1) return;
+            AL10.alSourceStop(sourceId);
+            if (clipPosition >= clip.samples) return; // 停止状态即视为播放完毕
+            AL10.alSourceRewind(sourceId);
+            AL10.alSourcei(sourceId, AL11.AL_SAMPLE_OFFSET, (int) clipPosition);
+            lastClipOffset = (int) clipPosition;
+            if (!paused) AL10.alSourcePlay(sourceId);
+        }
+
+        /** 停止音源并把音源与 AL 缓冲对象归还给引擎。 */
+        private void detachSource() {
+            AL10.alSourceStop(sourceId);
+            AL10.alSourcei(sourceId, AL10.AL_BUFFER, 0);
+            sourcePool.add(sourceId);
+            sourceId = -1;
+            for (int buffer : buffers) alBufferPool.push(buffer);
+            buffers = new int[0];
+            idleBuffers.clear();
+            queuedSamples = 0;
+            playing = false;
+        }
+
+        /** 在主线程调用，记录跟随实体的最新位置。 */
+        void sampleEntityPosition(ClientLevel level, long now) {
+            if (entityId == null) return;
+            Entity previousEntity = trackedEntity;
+            Entity entity = resolveEntity(level);
+            if (entity == null) return;
+
+            Vec3 pos = entity.position();
+            EntityMotion last = motion;
+            // 刚解析到（或换成了另一个）实体、或发生传送时，没有可用于插值的上一个位置
+            Vec3 previous = last != null && previousEntity == entity && last.current().distanceTo(pos) <= TELEPORT_DISTANCE
+                    ? last.current() : pos;
+            motion = new EntityMotion(previous, pos, now);
+        }
+
+        /**
+         * 按网络 ID 直接查找并缓存实体引用，实体被移除或切换世界后失效；
+         * 网络 ID 对不上时退回按 UUID 查找，并限制频率。
+         */
+        private Entity resolveEntity(ClientLevel level) {
+            if (trackedEntity != null && (trackedEntity.isRemoved() || trackedLevel != level)) {
+                trackedEntity = null;
+            }
+            if (trackedEntity != null) return trackedEntity;
+
+            trackedLevel = level;
+            Entity entity = entityNetworkId >= 0 ? level.getEntity(entityNetworkId) : null;
+            if (entity != null && !entity.getUUID().equals(entityId)) entity = null;
+            if (entity == null && --fallbackCooldown <= 0) {
+                fallbackCooldown = UUID_FALLBACK_INTERVAL_TICKS;
+                for (Entity en : level.entitiesForRendering()) {
+                    if (en.getUUID().equals(entityId)) { entity = en; break; }
                 }
             }
-            if (pos != null) AL10.alSource3f(sourceId, AL10.AL_POSITION, (float)pos.x, (float)pos.y, (float)pos.z);
+            trackedEntity = entity;
+            return entity;
+        }
+
+        private void updatePosition(long now) {
+            if (entityId == null) {
+                if (staticPos != null) AL10.alSource3f(sourceId, AL10.AL_POSITION, (float)staticPos.x, (float)staticPos.y, (float)staticPos.z);
+                return;
+            }
+
+            EntityMotion m = motion;
+            if (m == null) return;
+            // 在两次 tick 采样之间插值（落后一个 tick），音频线程的刷新率远高于 20Hz
+            double alpha = Math.min(1.0, Math.max(0.0, (double) (now - m.sampledNanos()) / TICK_NANOS));
+            Vec3 pos = m.previous().lerp(m.current(), alpha);
+            Vec3 velocity = m.current().subtract(m.previous()).scale(1_000_000_000.0 / TICK_NANOS);
+            AL10.alSource3f(sourceId, AL10.AL_POSITION, (float)pos.x, (float)pos.y, (float)pos.z);
+            AL10.alSource3f(sourceId, AL10.AL_VELOCITY, (float)velocity.x, (float)velocity.y, (float)velocity.z);
         }
 
         private void streamAudio() {
-            if (vorbisHandle == MemoryUtil.NULL || decoderFinished) return;
+            if (decoderFinished) return;
 
             int processed = AL10.alGetSourcei(sourceId, AL10.AL_BUFFERS_PROCESSED);
             while (processed-- > 0) {
                 int buf = AL10.alSourceUnqueueBuffers(sourceId);
-                if (buf != 0) fillBuffer(buf);
+                if (buf != 0) {
+                    queuedSamples -= bufferSamples[indexOf(buf)];
+                    idleBuffers.add(buf);
+                }
             }
-
-            int queued = AL10.alGetSourcei(sourceId, AL10.AL_BUFFERS_QUEUED);
-            if (queued == 0 && !decoderFinished) {
-                fillBuffer(buffers[0]);
-                fillBuffer(buffers[1]);
-                fillBuffer(buffers[2]);
+            // 暂时解码不出数据的缓冲留在空闲队列里，下次再填
+            while (!idleBuffers.isEmpty() && fillBuffer(idleBuffers.peek())) {
+                idleBuffers.poll();
             }
 
             int state = AL10.alGetSourcei(sourceId, AL10.AL_SOURCE_STATE);
-            if (AL10.alGetSourcei(sourceId, AL10.AL_BUFFERS_QUEUED) > 0 && state != AL10.AL_PLAYING && state != AL10.AL_PAUSED) {
+            if (playing && state == AL10.AL_STOPPED) {
+                // 播放中途停下：排队的缓冲都播完了，新数据还没解码出来
+                playing = false;
+                underruns++;
+                AudioEngine.this.underruns.incrementAndGet();
+            }
+            if (!paused && AL10.alGetSourcei(sourceId, AL10.AL_BUFFERS_QUEUED) > 0 && state != AL10.AL_PLAYING && state != AL10.AL_PAUSED) {
                 AL10.alSourcePlay(sourceId);
+                playing = true;
             }
         }
 
-        private void fillBuffer(int bufferId) {
-            if (decoderFinished || vorbisHandle == MemoryUtil.NULL) return;
+        /** 解码一个缓冲的数据并排入音源，没有排入时返回 false。 */
+        private boolean fillBuffer(int bufferId) {
+            if (decoderFinished) return false;
 
-            int samples = 8192;
-            // 使用 memAllocShort 分配的内存是未初始化的（Dirty Memory）
-            ShortBuffer pcm = MemoryUtil.memAllocShort(samples * info.channels());
+            int channels = decoder.getOutputChannels();
+            ShortBuffer pcm = pcmScratch(channels);
+            long decodeStart = System.nanoTime();
+            int count = decodeLooping(pcm);
+            decodeMicros.recordSince(decodeStart);
+            recordClip(pcm, count);
 
-            try {
-                int count = STBVorbis.stb_vorbis_get_samples_short_interleaved(vorbisHandle, info.channels(), pcm);
+            if (count > 0) {
+                // 只让 OpenAL 读取实际解码的数据量，暂存区末尾是上一次的残留数据
+                pcm.position(0).limit(count * channels);
 
-                if (count > 0) {
-                    totalSamplesDecoded += count;
+                AL10.alBufferData(bufferId, channels == 1 ? AL10.AL_FORMAT_MONO16 : AL10.AL_FORMAT_STEREO16, pcm, decoder.getSampleRate());
+                AL10.alSourceQueueBuffers(sourceId, bufferId);
+                bufferSamples[indexOf(bufferId)] = count;
+                queuedSamples += count;
+                return true;
+            }
+            if (inputFinished) finishDecoding();
+            return false;
+        }
 
-                    // 【核心修复】设置 limit，只让 OpenAL 读取实际解码的数据量
-                    // 如果不加这一行，OpenAL 会读取整个 8192 长度的 Buffer，末尾全是垃圾数据
-                    pcm.position(0).limit(count * info.channels());
+        /** 解码到暂存区；本地数据播完且还要循环时立即从头接着解码，两遍之间不留空隙。 */
+        private int decodeLooping(ShortBuffer pcm) {
+            int count = decoder.decode(pcm);
+            if (count == 0 && inputFinished && incomingQueue.isEmpty() && restartLoop()) count = decoder.decode(pcm);
+            return count;
+        }
 
-                    AL10.alBufferData(bufferId, info.channels() == 1 ? AL10.AL_FORMAT_MONO16 : AL10.AL_FORMAT_STEREO16, pcm, info.sample_rate());
-                    AL10.alSourceQueueBuffers(sourceId, bufferId);
-                } else {
-                    if (inputFinished) {
-                        decoderFinished = true;
-                    }
-                }
-            } finally {
-                MemoryUtil.memFree(pcm);
+        private void finishDecoding() {
+            decoderFinished = true;
+            storeClip();
+            abandonClip();
+        }
+
+        private void storeClip() {
+            if (clipCapture != null && incomingQueue.isEmpty()) {
+                clipCache.put(clipHash, clipCapture.flip(), decoder.getOutputChannels(), decoder.getSampleRate());
+            }
+        }
+
+        /** 把刚解码出的采样追加到完整 PCM 中，暂存区按需倍增，超过时长上限就放弃。 */
+        private void recordClip(ShortBuffer pcm, int count) {
+            if (clipHash == null || count <= 0) return;
+            int channels = decoder.getOutputChannels();
+            long limit = PcmClipCache.maxSamples(decoder.getSampleRate()) * channels;
+            int written = clipCapture == null ? 0 : clipCapture.position();
+            int needed = written + count * channels;
+            if (needed > limit) {
+                abandonClip();
+                return;
+            }
+            if (clipCapture == null || clipCapture.capacity() < needed) {
+                int initial = decoder.getSampleRate() * channels; // 先按 1 秒分配
+                int capacity = (int) Math.min(limit, Math.max(needed, clipCapture == null ? initial : clipCapture.capacity() * 2L));
+                clipCapture = clipCapture == null ? MemoryUtil.memAllocShort(capacity) : MemoryUtil.memRealloc(clipCapture, capacity);
+                clipCapture.limit(capacity).position(written);
+            }
+            clipCapture.put(pcm.duplicate().position(0).limit(count * channels));
+        }
+
+        private void abandonClip() {
+            clipHash = null;
+            if (clipCapture != null) {
+                MemoryUtil.memFree(clipCapture);
+                clipCapture = null;
             }
         }
 
+        private int indexOf(int bufferId) {
+            for (int i = 0; i < buffers.length; i++) {
+                if (buffers[i] == bufferId) return i;
+            }
+            return 0;
+        }
+
         public void dispose() {
             if (disposed) return;
             disposed = true;
-            if (sourceId != -1) {
-                AL10.alSourceStop(sourceId);
-                AL10.alSourcei(sourceId, AL10.AL_BUFFER, 0);
-                AL10.alDeleteBuffers(buffers);
-                sourcePool.add(sourceId);
-                sourceId = -1;
-            }
-            if (info != null) { info.free(); info = null; }
-            if (vorbisHandle != MemoryUtil.NULL) { STBVorbis.stb_vorbis_close(vorbisHandle); vorbisHandle = MemoryUtil.NULL; }
-            if (vorbisBuffer != null) { MemoryUtil.memFree(vorbisBuffer); vorbisBuffer = null; }
+            if (sourceId != -1) detachSource();
+            capture = null;
+            loopData = null;
+            abandonClip();
+            if (clip != null) clipCache.release(clip);
+            else decoder.close();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+package cn.tdogmc.tdogmc_voice.client;
+
+import cn.tdogmc.tdogmc_voice.config.ModConfig;
+import cn.tdogmc.tdogmc_voice.util.ContentHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * 客户端的持久化音频缓存，以内容摘要 (SHA-256) 命名文件。
+ * 完整接收过的流会被写入缓存，之后服务端再播放同一文件时直接从本地播放，不再重新传输。
+ * 总大小受配置限制，按最近使用时间 (LRU) 淘汰。
+ */
+class ClientAudioCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClientAudioCache.class);
+    private static final Path CACHE_DIR = Path.of("tdogmc_voice_cache");
+    private static final String SUFFIX = ".ogg";
+    private static final HexFormat HEX = HexFormat.of();
+
+    // accessOrder = true，迭代顺序即 LRU 顺序；值为文件大小
+    private static final Map<String, Long> INDEX = new LinkedHashMap<>(16, 0.75f, true);
+    private static long totalBytes = 0;
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Voice-Cache-Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 在后台线程扫描缓存目录，按修改时间（即上次使用时间）恢复 LRU 顺序。
+     */
+    static void init() {
+        WRITER.execute(() -> {
+            if (!Files.isDirectory(CACHE_DIR)) return;
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> stream = Files.list(CACHE_DIR)) {
+                stream.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).forEach(files::add);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to scan audio cache", e);
+                return;
+            }
+
+            files.sort(Comparator.comparing(ClientAudioCache::lastModified));
+            synchronized (INDEX) {
+                for (Path path : files) {
+                    try {
+                        long size = Files.size(path);
+                        String name = path.getFileName().toString();
+                        INDEX.put(name.substring(0, name.length() - SUFFIX.length()), size);
+                        totalBytes += size;
+                    } catch (IOException ignored) {}
+                }
+                evict(limitBytes());
+            }
+            LOGGER.info("[AudioCache] {} cached sounds, {} bytes.", files.size(), totalBytes);
+        });
+    }
+
+    /** 单个文件可以进入缓存的上限，避免为超大文件在内存里攒完整数据。 */
+    static long maxFileBytes() {
+        return limitBytes() / 4;
+    }
+
+    /**
+     * 查找摘要与大小都匹配的缓存文件，命中时刷新其 LRU 位置。
+     */
+    static Path lookup(byte[] hash, long size) {
+        if (limitBytes() <= 0) return null;
+        String key = HEX.formatHex(hash);
+        synchronized (INDEX) {
+            Long cached = INDEX.get(key);
+            if (cached == null || cached != size) return null;
+        }
+        Path path = CACHE_DIR.resolve(key + SUFFIX);
+        WRITER.execute(() -> touch(path));
+        return path;
+    }
+
+    /**
+     * 在后台线程校验摘要后写入缓存，并淘汰最久未使用的文件。
+     */
+    static void store(byte[] hash, byte[] data) {
+        if (data.length > maxFileBytes()) return;
+        WRITER.execute(() -> {
+            if (!Arrays.equals(ContentHash.of(data), hash)) {
+                LOGGER.warn("[AudioCache] Received data does not match its content hash, not caching.");
+                return;
+            }
+            String key = HEX.formatHex(hash);
+            try {
+                Files.createDirectories(CACHE_DIR);
+                Path tmp = CACHE_DIR.resolve(key + ".tmp");
+                Files.write(tmp, data);
+                Files.move(tmp, CACHE_DIR.resolve(key + SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.warn("[AudioCache] Failed to store {}", key, e);
+                return;
+            }
+            synchronized (INDEX) {
+                Long previous = INDEX.put(key, (long) data.length);
+                if (previous != null) totalBytes -= previous;
+                totalBytes += data.length;
+                evict(limitBytes());
+            }
+            if (ModConfig.DEBUG_MODE.get()) LOGGER.info("[AudioCache] Stored {} ({} bytes).", key, data.length);
+        });
+    }
+
+    private static long limitBytes() {
+        return ModConfig.DISK_CACHE_MB.get() * 1024L * 1024L;
+    }
+
+    /** 需持有 INDEX 锁。正在播放的映射文件在部分系统上删除会失败，下次启动时重新计入。 */
+    private static void evict(long limit) {
+        Iterator<Map.Entry<String, Long>> it = INDEX.entrySet().iterator();
+        while (totalBytes > limit && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            totalBytes -= entry.getValue();
+            it.remove();
+            try {
+                Files.deleteIfExists(CACHE_DIR.resolve(entry.getKey() + SUFFIX));
+            } catch (IOException e) {
+                LOGGER.debug("[AudioCache] Failed to delete {}", entry.getKey(), e);
+            }
+        }
+    }
+
+    private static void touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {}
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
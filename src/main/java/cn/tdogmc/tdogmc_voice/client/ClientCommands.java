@@ -0,0 +1,27 @@
+package cn.tdogmc.tdogmc_voice.client;
+
+import cn.tdogmc.tdogmc_voice.util.Metrics;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+import net.minecraftforge.client.event.RegisterClientCommandsEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+
+/**
+ * 客户端指令，连接专用服务器时也能查看本地的播放指标。
+ */
+public class ClientCommands {
+
+    @SubscribeEvent
+    public static void onRegister(RegisterClientCommandsEvent event) {
+        // /tdvoiceclient stats
+        event.getDispatcher().register(Commands.literal("tdvoiceclient")
+                .then(Commands.literal("stats").executes(ctx -> {
+                    CommandSourceStack source = ctx.getSource();
+                    for (String line : Metrics.CLIENT.describe()) {
+                        source.sendSuccess(() -> Component.literal(line), false);
+                    }
+                    return 1;
+                })));
+    }
+}
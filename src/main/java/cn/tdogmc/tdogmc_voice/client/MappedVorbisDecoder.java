@@ -0,0 +1,108 @@
+package cn.tdogmc.tdogmc_voice.client;
+
+import org.lwjgl.stb.STBVorbis;
+import org.lwjgl.stb.STBVorbisInfo;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 解码本地缓存中的完整文件。文件以只读方式映射到内存，由 stb_vorbis 直接读取映射区域，
+ * 不需要把整个文件复制到堆外缓冲，也不受流缓冲上限限制，并支持任意位置跳转。
+ * 也可以直接解码内存中的完整文件（刚接收完、需要本地循环播放的流）。
+ */
+class MappedVorbisDecoder implements StreamDecoder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedVorbisDecoder.class);
+
+    // 持有映射（或直接缓冲）的引用，保证 stb 读取期间不会被回收
+    private final ByteBuffer data;
+    private final long startSample;
+    private long handle = MemoryUtil.NULL;
+    private int channels;
+    private int sampleRate;
+    private boolean failed = false;
+
+    private MappedVorbisDecoder(ByteBuffer data, long startSample) {
+        this.data = data;
+        this.startSample = startSample;
+    }
+
+    static MappedVorbisDecoder map(Path path, long startSample) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MappedVorbisDecoder(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), startSample);
+        }
+    }
+
+    /** 解码内存中的完整文件，{@code data} 必须是直接缓冲。 */
+    static MappedVorbisDecoder wrap(ByteBuffer data, long startSample) {
+        return new MappedVorbisDecoder(data, startSample);
+    }
+
+    /** 完整数据已在本地，网络数据直接忽略。 */
+    @Override
+    public boolean append(byte[] data) { return true; }
+
+    @Override
+    public boolean open() {
+        if (handle != MemoryUtil.NULL) return true;
+        if (failed) return false;
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer error = stack.mallocInt(1);
+            handle = STBVorbis.stb_vorbis_open_memory(data, error, null);
+            if (handle == MemoryUtil.NULL) {
+                failed = true;
+                LOGGER.warn("Failed to open cached vorbis file, stb error {}", error.get(0));
+                return false;
+            }
+
+            STBVorbisInfo info = STBVorbisInfo.malloc(stack);
+            STBVorbis.stb_vorbis_get_info(handle, info);
+            channels = info.channels();
+            sampleRate = info.sample_rate();
+        }
+        if (startSample > 0) seek(startSample);
+        return true;
+    }
+
+    @Override
+    public int decode(ShortBuffer out) {
+        if (!open()) return 0;
+        int outChannels = getOutputChannels();
+        ShortBuffer view = out.duplicate();
+        view.position(0).limit(out.limit() / outChannels * outChannels);
+        // stb 负责把多声道混为所需的输出声道数
+        return STBVorbis.stb_vorbis_get_samples_short_interleaved(handle, outChannels, view);
+    }
+
+    @Override
+    public void discontinuity() {}
+
+    @Override
+    public void seek(long sample) {
+        if (handle != MemoryUtil.NULL) STBVorbis.stb_vorbis_seek(handle, (int) Math.min(sample, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public boolean hasFailed() { return failed; }
+
+    @Override
+    public int getOutputChannels() { return channels == 1 ? 1 : 2; }
+
+    @Override
+    public int getSampleRate() { return sampleRate; }
+
+    @Override
+    public void close() {
+        if (handle != MemoryUtil.NULL) { STBVorbis.stb_vorbis_close(handle); handle = MemoryUtil.NULL; }
+    }
+}
@@ -0,0 +1,60 @@
+package cn.tdogmc.tdogmc_voice.client;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 跨流复用的定长堆外缓冲池。
+ * 流结束后缓冲块归还池中供下一个流使用，同时统计引擎持有的堆外内存（含空闲块）、峰值以及复用次数。
+ */
+class NativeBufferPool {
+    private static final int MAX_IDLE = 8;
+
+    private final Queue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicLong heldBytes = new AtomicLong();
+    private final AtomicLong peakBytes = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    ByteBuffer acquire(int size) {
+        ByteBuffer buf;
+        while ((buf = idle.poll()) != null) {
+            idleCount.decrementAndGet();
+            if (buf.capacity() == size) {
+                buf.clear();
+                reused.incrementAndGet();
+                return buf;
+            }
+            // 配置的块大小变了，旧块直接释放
+            free(buf);
+        }
+        buf = MemoryUtil.memAlloc(size);
+        long held = heldBytes.addAndGet(size);
+        peakBytes.accumulateAndGet(held, Math::max);
+        return buf;
+    }
+
+    void release(ByteBuffer buf) {
+        if (idleCount.incrementAndGet() <= MAX_IDLE) {
+            idle.offer(buf);
+        } else {
+            idleCount.decrementAndGet();
+            free(buf);
+        }
+    }
+
+    long getHeldBytes() { return heldBytes.get(); }
+    long getPeakBytes() { return peakBytes.get(); }
+    /** 直接复用空闲块、省去一次 memAlloc 的次数。 */
+    long getReusedCount() { return reused.get(); }
+
+    private void free(ByteBuffer buf) {
+        heldBytes.addAndGet(-buf.capacity());
+        MemoryUtil.memFree(buf);
+    }
+}
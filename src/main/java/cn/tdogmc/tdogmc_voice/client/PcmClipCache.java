@@ -0,0 +1,124 @@
+package cn.tdogmc.tdogmc_voice.client;
+
+import cn.tdogmc.tdogmc_voice.config.ModConfig;
+import org.lwjgl.openal.AL10;
+
+import java.nio.ShortBuffer;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 短音频的已解码缓存：整段 PCM 存放在一个 OpenAL 缓冲对象里，以内容摘要为键。
+ * 命中时直接把缓冲排入音源，不再创建解码器也不再解码。
+ * 只在音频线程访问；统计计数可在任意线程读取。
+ */
+class PcmClipCache {
+    private static final HexFormat HEX = HexFormat.of();
+
+    // accessOrder = true，迭代顺序即 LRU 顺序
+    private final Map<String, Clip> clips = new LinkedHashMap<>(16, 0.75f, true);
+    private long heldBytes = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * 已解码的整段音频。被流引用期间即使被淘汰也不会删除缓冲对象，最后一个引用释放时才删除。
+     */
+    static final class Clip {
+        final int buffer;
+        final int samples;
+        final int channels;
+        final int sampleRate;
+        private int refs = 0;
+        private boolean evicted = false;
+
+        private Clip(int buffer, int samples, int channels, int sampleRate) {
+            this.buffer = buffer;
+            this.samples = samples;
+            this.channels = channels;
+            this.sampleRate = sampleRate;
+        }
+
+        long bytes() {
+            return (long) samples * channels * Short.BYTES;
+        }
+    }
+
+    long getHits() { return hits.get(); }
+
+    long getMisses() { return misses.get(); }
+
+    long getHeldBytes() { return heldBytes; }
+
+    /** 可以进入缓存的最大时长（单声道采样数）。 */
+    static long maxSamples(int sampleRate) {
+        return (long) (ModConfig.CLIP_CACHE_MAX_SECONDS.get() * sampleRate);
+    }
+
+    static boolean enabled() {
+        return ModConfig.CLIP_CACHE_MB.get() > 0;
+    }
+
+    /**
+     * 查找并引用缓存的片段，调用方播放结束后必须调用 {@link #release(Clip)}。
+     */
+    Clip acquire(byte[] hash) {
+        if (hash == null || !enabled()) return null;
+        Clip clip = clips.get(HEX.formatHex(hash));
+        if (clip == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        clip.refs++;
+        return clip;
+    }
+
+    boolean contains(byte[] hash) {
+        return clips.containsKey(HEX.formatHex(hash));
+    }
+
+    void release(Clip clip) {
+        if (--clip.refs == 0 && clip.evicted) AL10.alDeleteBuffers(clip.buffer);
+    }
+
+    /**
+     * 把完整解码的 PCM 上传为一个缓冲对象并放入缓存，然后按容量淘汰最久未使用的片段。
+     */
+    void put(byte[] hash, ShortBuffer pcm, int channels, int sampleRate) {
+        String key = HEX.formatHex(hash);
+        long limit = ModConfig.CLIP_CACHE_MB.get() * 1024L * 1024L;
+        int samples = pcm.remaining() / channels;
+        if (clips.containsKey(key) || samples == 0 || (long) pcm.remaining() * Short.BYTES > limit) return;
+
+        int buffer = AL10.alGenBuffers();
+        AL10.alBufferData(buffer, channels == 1 ? AL10.AL_FORMAT_MONO16 : AL10.AL_FORMAT_STEREO16, pcm, sampleRate);
+        if (AL10.alGetError() != AL10.AL_NO_ERROR) {
+            AL10.alDeleteBuffers(buffer);
+            return;
+        }
+        Clip clip = new Clip(buffer, samples, channels, sampleRate);
+        clips.put(key, clip);
+        heldBytes += clip.bytes();
+
+        Iterator<Clip> it = clips.values().iterator();
+        while (heldBytes > limit && it.hasNext()) {
+            Clip eldest = it.next();
+            it.remove();
+            heldBytes -= eldest.bytes();
+            eldest.evicted = true;
+            if (eldest.refs == 0) AL10.alDeleteBuffers(eldest.buffer);
+        }
+    }
+
+    /**
+     * 声音引擎重载后旧上下文中的缓冲对象已随上下文销毁，只需丢弃引用。
+     */
+    void clear() {
+        clips.clear();
+        heldBytes = 0;
+    }
+}
@@ -0,0 +1,32 @@
+package cn.tdogmc.tdogmc_voice.client;
+
+import java.nio.ShortBuffer;
+
+/**
+ * 音频流的解码器，所有方法只在音频线程调用。
+ */
+interface StreamDecoder {
+
+    /** 追加一段压缩数据，放不下时返回 false，调用方应稍后重试。 */
+    boolean append(byte[] data);
+
+    /** 尝试解析头部，数据不完整时返回 false。 */
+    boolean open();
+
+    /** 解码到 {@code out} 的 [0, limit) 范围（交错 16bit PCM），返回每声道的采样数；0 表示需要更多数据或已结束。 */
+    int decode(ShortBuffer out);
+
+    /** 数据流出现断档，丢弃尚未解码的数据并重新同步。 */
+    void discontinuity();
+
+    /** 跳转到指定采样位置，只有持有完整数据的解码器支持。 */
+    void seek(long sample);
+
+    boolean hasFailed();
+
+    int getOutputChannels();
+
+    int getSampleRate();
+
+    void close();
+}
@@ -0,0 +1,194 @@
+package cn.tdogmc.tdogmc_voice.client;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.stb.STBVorbis;
+import org.lwjgl.stb.STBVorbisInfo;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * 基于 stb_vorbis pushdata API 的增量解码器。
+ * 每个数据块只追加一次，解码器状态跨数据块保留，已解码的字节会被压缩掉，
+ * 不再需要每次收到新数据就 reopen 整个缓冲区再 seek 回去。
+ * 压缩数据存放在从 {@link NativeBufferPool} 借来的定长块中，容量即单个流的上限。
+ */
+class VorbisPushDecoder implements StreamDecoder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VorbisPushDecoder.class);
+
+    private final NativeBufferPool pool;
+    private ByteBuffer input;
+    private int readCursor = 0;  // 解码器已消费到的位置
+    private int writeCursor = 0; // 已写入的数据末尾
+
+    private long handle = MemoryUtil.NULL;
+    private int channels;
+    private int sampleRate;
+    private int maxFrameSize;
+    private boolean failed = false;
+    private long bytesPresented = 0; // 累计交给 stb 解析的字节数
+
+    VorbisPushDecoder(NativeBufferPool pool, int capacity) {
+        this.pool = pool;
+        this.input = pool.acquire(capacity);
+    }
+
+    /**
+     * 追加一段压缩数据。空间不足时先把已消费的部分压缩掉；
+     * 仍然放不下则返回 false，调用方应保留该数据块，等解码腾出空间后再试。
+     */
+    @Override
+    public boolean append(byte[] data) {
+        if (input == null || failed) return false;
+        if (input.capacity() - writeCursor < data.length) {
+            // 头部还没解析完就先尝试解析，让已消费的头部字节能被压缩掉
+            if (handle == MemoryUtil.NULL && !open() && !failed) {
+                failed = true;
+                LOGGER.warn("Vorbis headers exceed the {} byte stream buffer, dropping stream.", input.capacity());
+            }
+            compact();
+        }
+        if (input.capacity() - writeCursor < data.length) return false;
+
+        input.limit(input.capacity()).position(writeCursor);
+        input.put(data);
+        writeCursor += data.length;
+        return true;
+    }
+
+    /**
+     * 尝试解析 Vorbis 头。头数据不完整时返回 false，等待更多数据。
+     */
+    @Override
+    public boolean open() {
+        if (handle != MemoryUtil.NULL) return true;
+        if (failed || input == null || writeCursor == readCursor) return false;
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer consumed = stack.mallocInt(1);
+            IntBuffer error = stack.mallocInt(1);
+            ByteBuffer window = window();
+            bytesPresented += window.remaining();
+            long h = STBVorbis.stb_vorbis_open_pushdata(window, consumed, error, null);
+            if (h == MemoryUtil.NULL) {
+                if (error.get(0) != STBVorbis.VORBIS_need_more_data) {
+                    failed = true;
+                    LOGGER.warn("Failed to open vorbis stream, stb error {}", error.get(0));
+                }
+                return false;
+            }
+            handle = h;
+            readCursor += consumed.get(0);
+
+            STBVorbisInfo info = STBVorbisInfo.malloc(stack);
+            STBVorbis.stb_vorbis_get_info(handle, info);
+            channels = info.channels();
+            sampleRate = info.sample_rate();
+            maxFrameSize = info.max_frame_size();
+        }
+        return true;
+    }
+
+    /**
+     * 解码尽可能多的完整帧到 {@code out} 的 [0, limit) 范围（交错 16bit PCM），返回每声道的采样数。
+     * 返回 0 表示需要更多数据。
+     */
+    @Override
+    public int decode(ShortBuffer out) {
+        if (!open()) return 0;
+
+        int outChannels = getOutputChannels();
+        int capacity = out.limit() / outChannels;
+        int filled = 0;
+
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer frameChannels = stack.mallocInt(1);
+            PointerBuffer output = stack.mallocPointer(1);
+            IntBuffer samples = stack.mallocInt(1);
+
+            // 只有剩余空间能容纳一整帧时才继续解码，避免帧被截断
+            while (capacity - filled >= maxFrameSize && writeCursor > readCursor) {
+                ByteBuffer window = window();
+                bytesPresented += window.remaining();
+                int used = STBVorbis.stb_vorbis_decode_frame_pushdata(handle, window, frameChannels, output, samples);
+                readCursor += used;
+
+                int n = samples.get(0);
+                if (n > 0) {
+                    interleave(output.get(0), frameChannels.get(0), n, out, filled, outChannels);
+                    filled += n;
+                } else if (used == 0) {
+                    break; // 需要更多数据
+                }
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * 数据流出现断档（中途加入、服务端跳过了部分数据）：先用已有数据解析头部，
+     * 再丢弃尚未解码的字节，让 stb 从下一个完整的 Ogg 页重新同步。
+     */
+    @Override
+    public void discontinuity() {
+        if (!open()) return; // 头部不完整时无法恢复，保留数据继续等待
+        readCursor = writeCursor;
+        STBVorbis.stb_vorbis_flush_pushdata(handle);
+    }
+
+    /** 只持有部分数据，跳转由服务端完成（随后到达的是新位置的数据，配合 {@link #discontinuity()}）。 */
+    @Override
+    public void seek(long sample) {}
+
+    @Override
+    public boolean hasFailed() { return failed; }
+
+    @Override
+    public int getOutputChannels() { return channels == 1 ? 1 : 2; }
+
+    @Override
+    public int getSampleRate() { return sampleRate; }
+
+    /** 累计交给 stb 解析的字节数；每块对应的增量只取决于块内的数据，不随已播放的长度增长。 */
+    long getBytesPresented() { return bytesPresented; }
+
+    @Override
+    public void close() {
+        if (handle != MemoryUtil.NULL) { STBVorbis.stb_vorbis_close(handle); handle = MemoryUtil.NULL; }
+        if (input != null) { pool.release(input); input = null; }
+    }
+
+    private ByteBuffer window() {
+        ByteBuffer view = input.duplicate();
+        view.limit(writeCursor).position(readCursor);
+        return view;
+    }
+
+    private void compact() {
+        input.limit(writeCursor).position(readCursor);
+        input.compact();
+        writeCursor -= readCursor;
+        readCursor = 0;
+    }
+
+    private static void interleave(long channelPtrs, int srcChannels, int samples, ShortBuffer out, int offset, int outChannels) {
+        for (int c = 0; c < outChannels; c++) {
+            // 单声道源输出到立体声时复用第 0 声道
+            int src = Math.min(c, srcChannels - 1);
+            FloatBuffer pcm = MemoryUtil.memFloatBuffer(MemoryUtil.memGetAddress(channelPtrs + (long) src * Pointer.POINTER_SIZE), samples);
+            for (int i = 0; i < samples; i++) {
+                float v = pcm.get(i) * 32767.0f;
+                if (v > 32767.0f) v = 32767.0f;
+                else if (v < -32768.0f) v = -32768.0f;
+                out.put((offset + i) * outChannels + c, (short) v);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package cn.tdogmc.tdogmc_voice.config;
 
+import cn.tdogmc.tdogmc_voice.util.Metrics;
 import net.minecraftforge.common.ForgeConfigSpec;
 
 public class ModConfig {
@@ -9,6 +10,28 @@ public class ModConfig {
 
     public static final ForgeConfigSpec.BooleanValue DEBUG_MODE;
     public static final ForgeConfigSpec.BooleanValue LOG_BASIC_INFO; // 新增的配置开关
+    public static final ForgeConfigSpec.IntValue CHUNK_CACHE_MB;
+    public static final ForgeConfigSpec.IntValue CHUNK_CACHE_MAX_FILE_MB;
+    public static final ForgeConfigSpec.DoubleValue STREAM_LEAD_SECONDS;
+    public static final ForgeConfigSpec.IntValue PLAYER_BANDWIDTH_KBPS;
+    public static final ForgeConfigSpec.IntValue MAX_FRAME_KB;
+    public static final ForgeConfigSpec.IntValue FLOW_WINDOW_KB;
+    public static final ForgeConfigSpec.IntValue FLOW_ACK_TIMEOUT_SECONDS;
+    public static final ForgeConfigSpec.IntValue LIVE_MAX_LATENCY_MS;
+    public static final ForgeConfigSpec.IntValue METRICS_DUMP_SECONDS;
+    public static final ForgeConfigSpec.EnumValue<Metrics.Format> METRICS_DUMP_FORMAT;
+
+    // 客户端配置 (tdogmc_voice-client.toml)
+    public static final ForgeConfigSpec CLIENT_SPEC;
+    public static final ForgeConfigSpec.IntValue STREAM_BUFFER_KB;
+    public static final ForgeConfigSpec.IntValue AUDIO_SERVICE_INTERVAL_MS;
+    public static final ForgeConfigSpec.IntValue STREAM_BUFFER_COUNT;
+    public static final ForgeConfigSpec.IntValue STREAM_BUFFER_SAMPLES;
+    public static final ForgeConfigSpec.IntValue DISK_CACHE_MB;
+    public static final ForgeConfigSpec.IntValue CLIP_CACHE_MB;
+    public static final ForgeConfigSpec.DoubleValue CLIP_CACHE_MAX_SECONDS;
+    public static final ForgeConfigSpec.IntValue CLIENT_METRICS_DUMP_SECONDS;
+    public static final ForgeConfigSpec.EnumValue<Metrics.Format> CLIENT_METRICS_DUMP_FORMAT;
 
     static {
         BUILDER.push("General");
@@ -22,7 +45,99 @@ public class ModConfig {
                 .comment("Enable basic logging for standard operations, like when a stream starts or stops.")
                 .define("logBasicInfo", true); // 默认设置为 true
 
+        BUILDER.pop();
+
+        BUILDER.push("Streaming");
+
+        CHUNK_CACHE_MB = BUILDER
+                .comment("Total size (MB) of the shared in-memory chunk cache for sound files. Hot files are read from disk once and shared by all streams. 0 disables the cache.")
+                .defineInRange("chunkCacheMb", 64, 0, 4096);
+
+        CHUNK_CACHE_MAX_FILE_MB = BUILDER
+                .comment("Files larger than this (MB) are never cached and are streamed from disk instead.")
+                .defineInRange("chunkCacheMaxFileMb", 8, 1, 1024);
+
+        STREAM_LEAD_SECONDS = BUILDER
+                .comment("How far (seconds of audio) a stream may run ahead of real-time playback. Streams are paced by Ogg granule position instead of being sent in bursts.")
+                .defineInRange("streamLeadSeconds", 2.0, 0.25, 30.0);
+
+        PLAYER_BANDWIDTH_KBPS = BUILDER
+                .comment("Upper bound (kbit/s) on audio data sent to a single player, shared across all streams targeting that player. 0 = unlimited.")
+                .defineInRange("playerBandwidthKbps", 2048, 0, 1048576);
+
+        MAX_FRAME_KB = BUILDER
+                .comment("Upper bound (KB) on one data frame. All chunks sent to a player within a tick are coalesced into frames of at most this size.")
+                .defineInRange("maxFrameKb", 64, 9, 1000);
+
+        FLOW_WINDOW_KB = BUILDER
+                .comment("Per-stream, per-player window (KB) of audio data that may be in flight without the client confirming it has consumed it. Players that fall a full window behind skip data and resync instead of stalling everyone else. Values below 16 are raised to 16. 0 = disabled.")
+                .defineInRange("flowWindowKb", 256, 0, 65536);
+
+        FLOW_ACK_TIMEOUT_SECONDS = BUILDER
+                .comment("A player whose flow-control window stays full with no confirmation from its client for this many seconds is dropped from the stream and rejoins from the current position if still in range, so a stuck client cannot stall a stream. Only applies while flow control is enabled. 0 = never.")
+                .defineInRange("flowAckTimeoutSeconds", 10, 0, 600);
+
+        LIVE_MAX_LATENCY_MS = BUILDER
+                .comment("Live inputs (/tdvoice live): chunks that have waited on the server longer than this (ms) are dropped instead of sent late, which bounds the broadcast latency.")
+                .defineInRange("liveMaxLatencyMs", 500, 50, 10000);
+
+        BUILDER.pop();
+
+        BUILDER.push("Metrics");
+
+        METRICS_DUMP_SECONDS = BUILDER
+                .comment("Append server streaming metrics to tdogmc_voice_metrics/ every N seconds. 0 disables the dump; /tdvoice stats works either way.")
+                .defineInRange("metricsDumpSeconds", 0, 0, 3600);
+
+        METRICS_DUMP_FORMAT = BUILDER
+                .comment("File format of the metrics dump: CSV (one column per metric) or JSON (one object per line).")
+                .defineEnum("metricsDumpFormat", Metrics.Format.CSV);
+
         BUILDER.pop();
         SPEC = BUILDER.build();
     }
-}
\ No newline at end of file
+
+    static {
+        ForgeConfigSpec.Builder builder = new ForgeConfigSpec.Builder();
+        builder.push("Client");
+
+        STREAM_BUFFER_KB = builder
+                .comment("Per-stream cap (KB) for compressed audio held in native memory. Decoded pages are discarded; further data waits until space frees up.")
+                .defineInRange("streamBufferKb", 512, 128, 16384);
+
+        AUDIO_SERVICE_INTERVAL_MS = builder
+                .comment("How often (ms) the audio thread decodes and refills OpenAL buffers, independent of the game tick.")
+                .defineInRange("audioServiceIntervalMs", 10, 1, 50);
+
+        STREAM_BUFFER_COUNT = builder
+                .comment("Number of OpenAL buffers queued per stream. Higher values tolerate longer stalls at the cost of latency.")
+                .defineInRange("streamBufferCount", 3, 2, 16);
+
+        STREAM_BUFFER_SAMPLES = builder
+                .comment("Samples per channel decoded into each OpenAL buffer. Must hold at least one Vorbis frame (4096).")
+                .defineInRange("streamBufferSamples", 8192, 4096, 65536);
+
+        DISK_CACHE_MB = builder
+                .comment("Size limit (MB) of the on-disk cache of received sound files. Sounds already in the cache are played locally instead of being streamed again. 0 disables the cache.")
+                .defineInRange("diskCacheMb", 256, 0, 65536);
+
+        CLIP_CACHE_MB = builder
+                .comment("Size limit (MB) of the in-memory cache of fully decoded short clips. Cached clips start playing without decoding. 0 disables the cache.")
+                .defineInRange("clipCacheMb", 32, 0, 1024);
+
+        CLIP_CACHE_MAX_SECONDS = builder
+                .comment("Only sounds shorter than this many seconds are kept in the decoded clip cache.")
+                .defineInRange("clipCacheMaxSeconds", 5.0, 0.5, 60.0);
+
+        CLIENT_METRICS_DUMP_SECONDS = builder
+                .comment("Append client playback metrics to tdogmc_voice_metrics/ every N seconds. 0 disables the dump.")
+                .defineInRange("metricsDumpSeconds", 0, 0, 3600);
+
+        CLIENT_METRICS_DUMP_FORMAT = builder
+                .comment("File format of the metrics dump: CSV (one column per metric) or JSON (one object per line).")
+                .defineEnum("metricsDumpFormat", Metrics.Format.CSV);
+
+        builder.pop();
+        CLIENT_SPEC = builder.build();
+    }
+}
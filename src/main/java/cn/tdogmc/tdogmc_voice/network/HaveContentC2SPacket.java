@@ -0,0 +1,34 @@
+package cn.tdogmc.tdogmc_voice.network;
+
+import cn.tdogmc.tdogmc_voice.stream.ServerStreamManager;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * 客户端本地缓存中已有该流的完整文件，正在从本地播放，服务端不必再发送数据。
+ */
+public class HaveContentC2SPacket {
+    private final UUID streamId;
+
+    public HaveContentC2SPacket(UUID streamId) {
+        this.streamId = streamId;
+    }
+
+    public HaveContentC2SPacket(FriendlyByteBuf buf) {
+        this.streamId = buf.readUUID();
+    }
+
+    public void toBytes(FriendlyByteBuf buf) {
+        buf.writeUUID(this.streamId);
+    }
+
+    public void handle(Supplier<NetworkEvent.Context> supplier) {
+        ServerPlayer player = supplier.get().getSender();
+        if (player != null) ServerStreamManager.onClientHasContent(player, streamId);
+        supplier.get().setPacketHandled(true);
+    }
+}
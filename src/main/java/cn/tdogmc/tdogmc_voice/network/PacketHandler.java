@@ -1,7 +1,7 @@
 package cn.tdogmc.tdogmc_voice.network;
 
 import cn.tdogmc.tdogmc_voice.Tdogmc_voice;
-import cn.tdogmc.tdogmc_voice.client.AudioEngine;
+import net.minecraft.network.Connection;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraftforge.network.NetworkDirection;
@@ -9,8 +9,12 @@ import net.minecraftforge.network.NetworkRegistry;
 import net.minecraftforge.network.PacketDistributor;
 import net.minecraftforge.network.simple.SimpleChannel;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 public class PacketHandler {
-    private static final String PROTOCOL_VERSION = "2";
+    private static final String PROTOCOL_VERSION = "11"; // 11: Start 包携带循环次数与播放列表中的上一首
     public static final SimpleChannel INSTANCE = NetworkRegistry.newSimpleChannel(
             new ResourceLocation(Tdogmc_voice.MODID, "main"),
             () -> PROTOCOL_VERSION, PROTOCOL_VERSION::equals, PROTOCOL_VERSION::equals
@@ -20,25 +24,56 @@ public class PacketHandler {
     private static int id() { return packetId++; }
 
     public static void register() {
-        // 只保留这 4 个包，移除 PlayAudioDataPacket 和 RequestDataC2SPacket
+        // 移除了 PlayAudioDataPacket 和 RequestDataC2SPacket
+        // 处理器只向音频线程的无锁队列投递命令，因此直接在网络线程执行
         INSTANCE.messageBuilder(StartStreamS2CPacket.class, id(), NetworkDirection.PLAY_TO_CLIENT)
                 .decoder(StartStreamS2CPacket::new).encoder(StartStreamS2CPacket::toBytes)
-                .consumerMainThread(StartStreamS2CPacket::handle).add();
+                .consumerNetworkThread(StartStreamS2CPacket::handle).add();
 
-        INSTANCE.messageBuilder(StreamDataS2CPacket.class, id(), NetworkDirection.PLAY_TO_CLIENT)
-                .decoder(StreamDataS2CPacket::new).encoder(StreamDataS2CPacket::toBytes)
-                .consumerMainThread(StreamDataS2CPacket::handle).add();
+        INSTANCE.messageBuilder(StreamFrameS2CPacket.class, id(), NetworkDirection.PLAY_TO_CLIENT)
+                .decoder(StreamFrameS2CPacket::new).encoder(StreamFrameS2CPacket::toBytes)
+                .consumerNetworkThread(StreamFrameS2CPacket::handle).add();
 
         INSTANCE.messageBuilder(EndStreamS2CPacket.class, id(), NetworkDirection.PLAY_TO_CLIENT)
                 .decoder(EndStreamS2CPacket::new).encoder(EndStreamS2CPacket::toBytes)
-                .consumerMainThread(EndStreamS2CPacket::handle).add();
+                .consumerNetworkThread(EndStreamS2CPacket::handle).add();
 
         INSTANCE.messageBuilder(StopAllStreamsS2CPacket.class, id(), NetworkDirection.PLAY_TO_CLIENT)
                 .decoder(StopAllStreamsS2CPacket::new).encoder(StopAllStreamsS2CPacket::toBytes)
-                .consumerMainThread(StopAllStreamsS2CPacket::handle).add();
+                .consumerNetworkThread(StopAllStreamsS2CPacket::handle).add();
+
+        INSTANCE.messageBuilder(StreamControlS2CPacket.class, id(), NetworkDirection.PLAY_TO_CLIENT)
+                .decoder(StreamControlS2CPacket::new).encoder(StreamControlS2CPacket::toBytes)
+                .consumerNetworkThread(StreamControlS2CPacket::handle).add();
+
+        // C2S 包需要访问会话状态，在服务端主线程处理
+        INSTANCE.messageBuilder(HaveContentC2SPacket.class, id(), NetworkDirection.PLAY_TO_SERVER)
+                .decoder(HaveContentC2SPacket::new).encoder(HaveContentC2SPacket::toBytes)
+                .consumerMainThread(HaveContentC2SPacket::handle).add();
+
+        INSTANCE.messageBuilder(StreamCreditC2SPacket.class, id(), NetworkDirection.PLAY_TO_SERVER)
+                .decoder(StreamCreditC2SPacket::new).encoder(StreamCreditC2SPacket::toBytes)
+                .consumerMainThread(StreamCreditC2SPacket::handle).add();
+    }
+
+    public static <MSG> void sendToServer(MSG message) {
+        INSTANCE.sendToServer(message);
     }
 
     public static <MSG> void sendToPlayer(MSG message, ServerPlayer player) {
         INSTANCE.send(PacketDistributor.PLAYER.with(() -> player), message);
     }
+
+    /**
+     * 广播给多个玩家。消息只编码一次，所有连接共享同一个数据包，
+     * 而不是像逐个 sendToPlayer 那样为每个接收者重新序列化一遍。
+     */
+    public static <MSG> void sendToPlayers(MSG message, Collection<ServerPlayer> players) {
+        if (players.isEmpty()) return;
+        List<Connection> connections = new ArrayList<>(players.size());
+        for (ServerPlayer player : players) {
+            connections.add(player.connection.connection);
+        }
+        INSTANCE.send(PacketDistributor.NMLIST.with(() -> connections), message);
+    }
 }
\ No newline at end of file
@@ -1,6 +1,8 @@
 package cn.tdogmc.tdogmc_voice.network;
 
 import cn.tdogmc.tdogmc_voice.client.AudioEngine;
+import cn.tdogmc.tdogmc_voice.util.AudioCodec;
+import cn.tdogmc.tdogmc_voice.util.ContentHash;
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraftforge.network.NetworkEvent;
 
@@ -9,61 +11,113 @@ import java.util.function.Supplier;
 
 public class StartStreamS2CPacket {
     private final UUID streamId;
+    private final int streamHandle; // 本连接内的短句柄，数据包只携带它
     private final double x, y, z;
     private final boolean isFollowingEntity;
     private final UUID entityToFollow;
+    private final int entityNetworkId; // 客户端按网络 ID 直接查找实体，UUID 作为校验与回退
     private final float range;
     private final float volume;
     private final float pitch; // 新增：音调
+    private final int priority; // 客户端音源不足时，优先级高的流优先占用真实音源
+    // 文件内容摘要与大小：客户端本地缓存里已有同样的文件时回复 HaveContent，服务端不再发送数据
+    private final byte[] contentHash;
+    private final long contentSize;
+    // 中途加入时的实时播放位置（采样），本地播放时从这里开始
+    private final long startSample;
+    private final AudioCodec codec; // 客户端据此选择解码器
+    // 流控窗口（字节）：客户端每消费约四分之一窗口回复一次确认，0 表示不启用流控
+    private final int creditWindow;
+    // 之后还要循环播放的遍数，-1 为无限循环；客户端完整收到文件后在本地循环，不再接收数据
+    private final int loops;
+    // 播放列表中的上一首，客户端在它解码完毕后接着在同一个音源上播放；不属于播放列表时为 null
+    private final UUID follows;
 
     // 构造函数 1：定点播放 (带 pitch)
-    public StartStreamS2CPacket(UUID streamId, double x, double y, double z, float range, float volume, float pitch) {
+    public StartStreamS2CPacket(UUID streamId, int streamHandle, double x, double y, double z, float range, float volume, float pitch, int priority,
+                                byte[] contentHash, long contentSize, long startSample, AudioCodec codec, int creditWindow,
+                                int loops, UUID follows) {
         this.streamId = streamId;
+        this.streamHandle = streamHandle;
         this.x = x;
         this.y = y;
         this.z = z;
         this.isFollowingEntity = false;
         this.entityToFollow = new UUID(0, 0);
+        this.entityNetworkId = -1;
         this.range = range;
         this.volume = volume;
         this.pitch = pitch;
+        this.priority = priority;
+        this.contentHash = contentHash;
+        this.contentSize = contentSize;
+        this.startSample = startSample;
+        this.codec = codec;
+        this.creditWindow = creditWindow;
+        this.loops = loops;
+        this.follows = follows;
     }
 
     // 构造函数 2：跟随播放 (带 pitch)
-    public StartStreamS2CPacket(UUID streamId, UUID entityToFollow, float range, float volume, float pitch) {
+    public StartStreamS2CPacket(UUID streamId, int streamHandle, UUID entityToFollow, int entityNetworkId, float range, float volume, float pitch, int priority,
+                                byte[] contentHash, long contentSize, long startSample, AudioCodec codec, int creditWindow,
+                                int loops, UUID follows) {
         this.streamId = streamId;
+        this.streamHandle = streamHandle;
         this.x = 0; this.y = 0; this.z = 0;
         this.isFollowingEntity = true;
         this.entityToFollow = entityToFollow;
+        this.entityNetworkId = entityNetworkId;
         this.range = range;
         this.volume = volume;
         this.pitch = pitch;
+        this.priority = priority;
+        this.contentHash = contentHash;
+        this.contentSize = contentSize;
+        this.startSample = startSample;
+        this.codec = codec;
+        this.creditWindow = creditWindow;
+        this.loops = loops;
+        this.follows = follows;
     }
 
     // 解码器
     public StartStreamS2CPacket(FriendlyByteBuf buf) {
         this.streamId = buf.readUUID();
+        this.streamHandle = buf.readVarInt();
         this.isFollowingEntity = buf.readBoolean();
         if (this.isFollowingEntity) {
             this.entityToFollow = buf.readUUID();
+            this.entityNetworkId = buf.readVarInt();
             this.x = 0; this.y = 0; this.z = 0;
         } else {
             this.x = buf.readDouble();
             this.y = buf.readDouble();
             this.z = buf.readDouble();
             this.entityToFollow = new UUID(0, 0);
+            this.entityNetworkId = -1;
         }
         this.range = buf.readFloat();
         this.volume = buf.readFloat();
         this.pitch = buf.readFloat(); // 读取 pitch
+        this.priority = buf.readVarInt();
+        this.contentHash = buf.readBoolean() ? buf.readByteArray(ContentHash.LENGTH) : null;
+        this.contentSize = buf.readVarLong();
+        this.startSample = buf.readVarLong();
+        this.codec = buf.readEnum(AudioCodec.class);
+        this.creditWindow = buf.readVarInt();
+        this.loops = buf.readVarInt();
+        this.follows = buf.readBoolean() ? buf.readUUID() : null;
     }
 
     // 编码器
     public void toBytes(FriendlyByteBuf buf) {
         buf.writeUUID(this.streamId);
+        buf.writeVarInt(this.streamHandle);
         buf.writeBoolean(this.isFollowingEntity);
         if (this.isFollowingEntity) {
             buf.writeUUID(this.entityToFollow);
+            buf.writeVarInt(this.entityNetworkId);
         } else {
             buf.writeDouble(this.x);
             buf.writeDouble(this.y);
@@ -72,18 +126,27 @@ public class StartStreamS2CPacket {
         buf.writeFloat(this.range);
         buf.writeFloat(this.volume);
         buf.writeFloat(this.pitch); // 写入 pitch
+        buf.writeVarInt(this.priority);
+        buf.writeBoolean(this.contentHash != null);
+        if (this.contentHash != null) buf.writeByteArray(this.contentHash);
+        buf.writeVarLong(Math.max(0, this.contentSize));
+        buf.writeVarLong(this.startSample);
+        buf.writeEnum(this.codec);
+        buf.writeVarInt(this.creditWindow);
+        buf.writeVarInt(this.loops);
+        buf.writeBoolean(this.follows != null);
+        if (this.follows != null) buf.writeUUID(this.follows);
     }
 
     // 处理器
     public boolean handle(Supplier<NetworkEvent.Context> supplier) {
-        supplier.get().enqueueWork(() -> {
-            // 这里调用 AudioEngine，传递所有参数，包括 pitch
-            if (isFollowingEntity) {
-                AudioEngine.getInstance().startStream(streamId, entityToFollow, range, volume, pitch);
-            } else {
-                AudioEngine.getInstance().startStream(streamId, x, y, z, range, volume, pitch);
-            }
-        });
+        // 直接在网络线程投递给音频线程，不再经过主线程
+        if (isFollowingEntity) {
+            AudioEngine.getInstance().startStream(streamId, streamHandle, entityToFollow, entityNetworkId, range, volume, pitch, priority, contentHash, contentSize, startSample, codec, creditWindow, loops, follows);
+        } else {
+            AudioEngine.getInstance().startStream(streamId, streamHandle, x, y, z, range, volume, pitch, priority, contentHash, contentSize, startSample, codec, creditWindow, loops, follows);
+        }
+        supplier.get().setPacketHandled(true);
         return true;
     }
 }
\ No newline at end of file
@@ -11,7 +11,8 @@ public class StopAllStreamsS2CPacket {
     public void toBytes(FriendlyByteBuf buf) {}
 
     public boolean handle(Supplier<NetworkEvent.Context> supplier) {
-        supplier.get().enqueueWork(() -> AudioEngine.getInstance().stopAll());
+        AudioEngine.getInstance().stopAll();
+        supplier.get().setPacketHandled(true);
         return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package cn.tdogmc.tdogmc_voice.network;
+
+import cn.tdogmc.tdogmc_voice.client.AudioEngine;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.function.Supplier;
+
+public class StreamControlS2CPacket {
+
+    public enum Action {
+        STOP,   // 立即停止并丢弃已缓冲的数据（End 会把缓冲播完）
+        PAUSE,
+        RESUME,
+        FLUSH   // 服务端已跳转播放位置，丢弃旧位置的缓冲，后续数据从新位置开始
+    }
+
+    private final int streamHandle;
+    private final Action action;
+    private final long position; // FLUSH 的目标位置（采样），播放本地缓存文件的客户端据此跳转
+
+    public StreamControlS2CPacket(int streamHandle, Action action) {
+        this(streamHandle, action, 0);
+    }
+
+    public StreamControlS2CPacket(int streamHandle, Action action, long position) {
+        this.streamHandle = streamHandle;
+        this.action = action;
+        this.position = position;
+    }
+
+    public StreamControlS2CPacket(FriendlyByteBuf buf) {
+        this.streamHandle = buf.readVarInt();
+        this.action = buf.readEnum(Action.class);
+        this.position = buf.readVarLong();
+    }
+
+    public void toBytes(FriendlyByteBuf buf) {
+        buf.writeVarInt(this.streamHandle);
+        buf.writeEnum(this.action);
+        buf.writeVarLong(this.position);
+    }
+
+    public boolean handle(Supplier<NetworkEvent.Context> supplier) {
+        AudioEngine.getInstance().controlStream(streamHandle, action, position);
+        supplier.get().setPacketHandled(true);
+        return true;
+    }
+}
@@ -0,0 +1,39 @@
+package cn.tdogmc.tdogmc_voice.network;
+
+import cn.tdogmc.tdogmc_voice.stream.ServerStreamManager;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * 流控确认：客户端已从接收队列取走（交给解码器或因跳转丢弃）的累计字节数。
+ * 服务端据此把该玩家的发送窗口向前推进，累计值使重复与乱序的确认都无害。
+ */
+public class StreamCreditC2SPacket {
+    private final UUID streamId;
+    private final long consumedBytes;
+
+    public StreamCreditC2SPacket(UUID streamId, long consumedBytes) {
+        this.streamId = streamId;
+        this.consumedBytes = consumedBytes;
+    }
+
+    public StreamCreditC2SPacket(FriendlyByteBuf buf) {
+        this.streamId = buf.readUUID();
+        this.consumedBytes = buf.readVarLong();
+    }
+
+    public void toBytes(FriendlyByteBuf buf) {
+        buf.writeUUID(this.streamId);
+        buf.writeVarLong(this.consumedBytes);
+    }
+
+    public void handle(Supplier<NetworkEvent.Context> supplier) {
+        ServerPlayer player = supplier.get().getSender();
+        if (player != null) ServerStreamManager.onClientCredit(player, streamId, consumedBytes);
+        supplier.get().setPacketHandled(true);
+    }
+}
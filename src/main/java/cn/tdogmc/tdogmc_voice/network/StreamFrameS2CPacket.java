@@ -0,0 +1,59 @@
+package cn.tdogmc.tdogmc_voice.network;
+
+import cn.tdogmc.tdogmc_voice.client.AudioEngine;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 最热的数据包：一个 tick 内发给同一玩家的所有数据块（可以来自多个流）合并成一帧，
+ * 客户端只处理一次、向音频线程投递一条命令。
+ */
+public class StreamFrameS2CPacket {
+
+    /**
+     * 一个数据块，只携带 Start 时分配的 varint 句柄和序号，不再每次带 16 字节 UUID。
+     */
+    public record Chunk(int streamHandle, int sequence, byte[] data) {
+        /** 编码后的字节数上限：两个 varint 与数组长度前缀各按最长计算。 */
+        public int encodedSize() {
+            return data.length + 15;
+        }
+    }
+
+    private final List<Chunk> chunks;
+
+    public StreamFrameS2CPacket(List<Chunk> chunks) {
+        this.chunks = chunks;
+    }
+
+    public StreamFrameS2CPacket(FriendlyByteBuf buf) {
+        int count = buf.readVarInt();
+        this.chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            chunks.add(new Chunk(buf.readVarInt(), buf.readVarInt(), buf.readByteArray()));
+        }
+    }
+
+    public void toBytes(FriendlyByteBuf buf) {
+        buf.writeVarInt(this.chunks.size());
+        for (Chunk chunk : this.chunks) {
+            buf.writeVarInt(chunk.streamHandle());
+            buf.writeVarInt(chunk.sequence());
+            buf.writeByteArray(chunk.data());
+        }
+    }
+
+    public List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    public boolean handle(Supplier<NetworkEvent.Context> supplier) {
+        AudioEngine.getInstance().receiveFrame(chunks);
+        supplier.get().setPacketHandled(true);
+        return true;
+    }
+}
@@ -0,0 +1,9 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+/**
+ * 一个待发送的数据块。
+ *
+ * @param data    原始文件字节，多个会话共享，不可修改
+ * @param granule 截至该块末尾最后一个完整 Ogg 页的 granule 位置（即已覆盖的采样数），用于按实时速率限速
+ */
+record AudioChunk(byte[] data, long granule) {}
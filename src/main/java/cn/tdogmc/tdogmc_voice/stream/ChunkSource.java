@@ -0,0 +1,62 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import cn.tdogmc.tdogmc_voice.util.AudioCodec;
+
+import java.util.List;
+
+/**
+ * 会话的数据来源。所有方法都在服务端主线程调用且不得阻塞，
+ * 实际的磁盘读取由实现类在后台线程完成。
+ */
+interface ChunkSource {
+
+    /** 数据源已就绪（文件已打开或已命中缓存），可以通知客户端开始播放。 */
+    boolean isOpen();
+
+    /** 打开或读取失败，会话应直接结束。 */
+    boolean hasFailed();
+
+    /** 已解析出的 Ogg/Vorbis 流信息，未知时为 null。 */
+    OggPageScanner.StreamInfo getInfo();
+
+    /** 发送给客户端的数据的编码格式，数据源就绪后可用。 */
+    AudioCodec getCodec();
+
+    /**
+     * 文件开头只含头部页的数据块，按发送顺序排列，中途加入的玩家要先收到它们才能初始化解码器。
+     * 尚未读完头部时为 null，不是 Ogg 流时为空列表。
+     */
+    List<AudioChunk> getHeaderChunks();
+
+    /** 完整内容的 SHA-256 摘要，未知时为 null。数据源就绪后可用。 */
+    byte[] getContentHash();
+
+    /** 完整内容的字节数，未知时为 -1。 */
+    long getContentSize();
+
+    /** 查看下一个已就绪的数据块但不取出；暂时没有数据时返回 null。 */
+    AudioChunk peek();
+
+    /** 取出下一个已就绪的数据块；暂时没有数据时返回 null。 */
+    AudioChunk poll();
+
+    /** 所有数据都已被取走。 */
+    boolean isExhausted();
+
+    /**
+     * 跳转到第一个 granule 不小于 {@code granule} 的数据块，丢弃已预读的数据。
+     * 返回 false 表示不支持跳转。
+     */
+    boolean seek(long granule);
+
+    /** 实时输入：数据按到达的速度发送，不按播放进度限速，也不支持跳转与循环。 */
+    boolean isLive();
+
+    /** 实时输入因积压超过延迟上限而丢弃的数据块数（累计），文件数据源总是 0。 */
+    long getDroppedChunks();
+
+    /** 实时输入：上一次 {@link #poll()} 取出的数据块到达服务端的时刻（System.nanoTime），文件数据源为 -1。 */
+    long getLastArrivalNanos();
+
+    void close();
+}
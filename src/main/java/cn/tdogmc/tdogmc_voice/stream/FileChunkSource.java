@@ -0,0 +1,339 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import cn.tdogmc.tdogmc_voice.util.AudioCodec;
+import cn.tdogmc.tdogmc_voice.util.SeekIndex;
+import cn.tdogmc.tdogmc_voice.util.SoundFileCache;
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于文件的数据源。打开文件、查询分块缓存以及读取磁盘都在 IO 线程池中进行，
+ * 主线程只从预读队列中取出已经读好的数据块，不会因为磁盘慢而阻塞 tick。
+ * WAV 文件先交给 {@link WavTranscoder} 转码，等待期间数据源保持未就绪，之后读取的是转码结果。
+ * 数据块按 Ogg 页对齐（见 {@link OggPageChunker}），头部块单独保留，供会话开始发送与中途加入的玩家使用；
+ * 流式读取时头部块不进入预读队列，队列只有数据块。
+ * 流式读取时按 {@link SeekIndex} 直接定位到目标附近的页，跳转不再从文件开头扫描。
+ */
+class FileChunkSource implements ChunkSource {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int READ_AHEAD_CHUNKS = 16;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    private static final ExecutorService IO_EXECUTOR = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "Voice-IO-Thread-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String filename;
+    private final BlockingQueue<AudioChunk> readAhead = new ArrayBlockingQueue<>(READ_AHEAD_CHUNKS);
+    private final AtomicBoolean readScheduled = new AtomicBoolean(false);
+
+    // 命中缓存时直接按下标读取共享分块，只在主线程访问 cachedIndex
+    private volatile AudioChunk[] cachedChunks;
+    private int cachedIndex = 0;
+    private volatile List<AudioChunk> headerChunks;
+
+    // 只在 IO 线程访问（readMore / closeInput 互斥）
+    private Path path;
+    private InputStream input;
+    private OggPageChunker chunker;
+    private SeekIndex seekIndex;
+    private volatile OggPageScanner.StreamInfo info;
+    private volatile AudioCodec codec = AudioCodec.VORBIS;
+    private CompletableFuture<Path> transcoding;
+    private volatile byte[] contentHash;
+    private volatile long contentSize = -1;
+
+    // 主线程请求跳转的目标 granule，-1 表示没有。与入队、eof 一起由 queueLock 保护，
+    // 保证跳转之后不会混入 IO 线程正在读的旧位置数据
+    private final Object queueLock = new Object();
+    private volatile long pendingSeek = -1;
+    // 预读队列已满时放不进去的数据块，队列腾出空间后最先入队，不会被丢掉；同样由 queueLock 保护
+    private AudioChunk overflow;
+
+    private volatile boolean open = false;
+    private volatile boolean eof = false;
+    private volatile boolean failed = false;
+    private volatile boolean closed = false;
+
+    FileChunkSource(String filename) {
+        this.filename = filename;
+        scheduleRead();
+    }
+
+    @Override
+    public boolean isOpen() { return open; }
+
+    @Override
+    public boolean hasFailed() { return failed; }
+
+    @Override
+    public OggPageScanner.StreamInfo getInfo() { return info; }
+
+    @Override
+    public AudioCodec getCodec() { return codec; }
+
+    @Override
+    public List<AudioChunk> getHeaderChunks() { return headerChunks; }
+
+    @Override
+    public byte[] getContentHash() { return contentHash; }
+
+    @Override
+    public long getContentSize() { return contentSize; }
+
+    @Override
+    public AudioChunk peek() {
+        AudioChunk[] chunks = cachedChunks;
+        if (chunks != null) {
+            return cachedIndex < chunks.length ? chunks[cachedIndex] : null;
+        }
+        return readAhead.peek();
+    }
+
+    @Override
+    public AudioChunk poll() {
+        AudioChunk[] chunks = cachedChunks;
+        if (chunks != null) {
+            return cachedIndex < chunks.length ? chunks[cachedIndex++] : null;
+        }
+
+        AudioChunk data = readAhead.poll();
+        if (!eof && readAhead.size() <= READ_AHEAD_CHUNKS / 2) scheduleRead();
+        return data;
+    }
+
+    @Override
+    public boolean isExhausted() {
+        AudioChunk[] chunks = cachedChunks;
+        if (chunks != null) return cachedIndex >= chunks.length;
+        return eof && readAhead.isEmpty();
+    }
+
+    @Override
+    public boolean seek(long granule) {
+        AudioChunk[] chunks = cachedChunks;
+        if (chunks != null) {
+            // 头部块的 granule 为 0，跳转目标总是落在其后的数据块上
+            cachedIndex = Math.max(findChunk(chunks, granule), headerChunks.size());
+            return true;
+        }
+        if (!open || failed) return false;
+
+        // 流式读取时由 IO 线程重新打开文件并向前扫描到目标位置
+        synchronized (queueLock) {
+            pendingSeek = granule;
+            readAhead.clear();
+            overflow = null;
+            eof = false;
+        }
+        scheduleRead();
+        return true;
+    }
+
+    /** 二分查找第一个 granule 不小于目标的数据块，granule 随块下标单调不减。 */
+    private static int findChunk(AudioChunk[] chunks, long granule) {
+        int low = 0, high = chunks.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunks[mid].granule() < granule) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    @Override
+    public boolean isLive() { return false; }
+
+    @Override
+    public long getDroppedChunks() { return 0; }
+
+    @Override
+    public long getLastArrivalNanos() { return -1; }
+
+    @Override
+    public void close() {
+        closed = true;
+        IO_EXECUTOR.execute(this::closeInput);
+    }
+
+    private void scheduleRead() {
+        if (!failed && !closed && readScheduled.compareAndSet(false, true)) {
+            IO_EXECUTOR.execute(this::readMore);
+        }
+    }
+
+    private synchronized void readMore() {
+        try {
+            if (closed) return;
+            if (!open) openSource();
+            if (!open || failed || cachedChunks != null) return;
+
+            while (!closed) {
+                long target = pendingSeek;
+                if (target >= 0) reopenAt(target);
+                else if (!flushOverflow() || eof || readAhead.remainingCapacity() == 0) break;
+                else readChunk();
+            }
+        } catch (IOException e) {
+            failed = true;
+            LOGGER.error("Failed to read sound file {}", filename, e);
+        } finally {
+            readScheduled.set(false);
+        }
+
+        // 读取期间主线程可能已经消耗掉一半，但因为标记未清除而没有重新调度
+        if ((!eof || pendingSeek >= 0) && open && cachedChunks == null && readAhead.size() <= READ_AHEAD_CHUNKS / 2) scheduleRead();
+        // 转码恰好在本次读取期间完成时，完成回调的调度可能因为标记未清除而落空
+        if (!open && !failed && transcoding != null && transcoding.isDone()) scheduleRead();
+    }
+
+    private void readChunk() throws IOException {
+        long readStart = System.nanoTime();
+        AudioChunk chunk = chunker.next();
+        ServerStreamManager.READ_US.recordSince(readStart);
+        synchronized (queueLock) {
+            if (pendingSeek >= 0) return; // 读取期间发生了跳转，这块数据已过期
+            if (chunk != null) enqueue(chunk);
+            else eof = true;
+        }
+    }
+
+    /** 放入预读队列；队列已满时先留在 overflow 中，由下次读取补上。调用方持有 queueLock。 */
+    private void enqueue(AudioChunk chunk) {
+        if (!readAhead.offer(chunk)) overflow = chunk;
+    }
+
+    /** 把上次放不下的数据块补进队列，返回 false 表示队列仍然是满的。 */
+    private boolean flushOverflow() {
+        synchronized (queueLock) {
+            if (overflow == null) return true;
+            if (!readAhead.offer(overflow)) return false;
+            overflow = null;
+            return true;
+        }
+    }
+
+    private void reopenAt(long target) throws IOException {
+        if (input != null) input.close();
+        input = openInput(path);
+        // 索引点都是页起点，从那里开始分块仍然按页对齐；没有索引时从文件开头扫描
+        long offset = seekIndex != null ? seekIndex.offsetFor(target) : 0;
+        input.skipNBytes(offset);
+        chunker = new OggPageChunker(input);
+
+        while (!closed && pendingSeek == target) {
+            long readStart = System.nanoTime();
+            AudioChunk chunk = chunker.next();
+            ServerStreamManager.READ_US.recordSince(readStart);
+            // 头部块不重复发送，从第一个覆盖目标位置的数据块开始
+            if (chunk != null && (chunker.lastWasHeader() || chunk.granule() < target)) continue;
+
+            synchronized (queueLock) {
+                if (pendingSeek != target) return; // 又有新的跳转请求，由外层循环处理
+                pendingSeek = -1;
+                if (chunk != null) enqueue(chunk);
+                else eof = true;
+            }
+            return;
+        }
+    }
+
+    private void openSource() throws IOException {
+        Path file = SoundFileCache.getPath(filename);
+        if (file == null) {
+            failed = true;
+            LOGGER.warn("File not found in cache: {}", filename);
+            return;
+        }
+        if (WavTranscoder.isWav(filename)) {
+            if (transcoding == null) {
+                transcoding = WavTranscoder.transcode(filename, file);
+                transcoding.whenComplete((result, error) -> scheduleRead());
+            }
+            if (!transcoding.isDone()) return;
+            try {
+                file = transcoding.join();
+            } catch (CompletionException e) {
+                throw new IOException("Failed to transcode " + filename, e.getCause());
+            }
+            codec = AudioCodec.IMA_ADPCM;
+        }
+        path = file;
+
+        // 热点文件直接复用缓存中的分块，大文件才逐块从磁盘读取
+        SoundChunkCache.CachedSound sound = SoundChunkCache.get(filename, path);
+        contentSize = Files.size(path);
+        if (sound != null) {
+            info = sound.info();
+            contentHash = sound.hash();
+            headerChunks = List.of(Arrays.copyOf(sound.chunks(), sound.headerChunks()));
+            cachedChunks = sound.chunks();
+        } else {
+            contentHash = SoundChunkCache.contentHash(filename, path);
+            seekIndex = loadSeekIndex();
+            input = openInput(path);
+            chunker = new OggPageChunker(input);
+            readHeader();
+        }
+        open = true;
+    }
+
+    /**
+     * 先读出头部块：数据源就绪时流信息与头部即已可用，之后按索引跳转到文件中部也不必再回到开头读取头部。
+     * 头部块只保留在 headerChunks 中，由会话开始发送时补发；带封面图等头部很大的文件也不会占满预读队列。
+     */
+    private void readHeader() throws IOException {
+        AudioChunk chunk;
+        do {
+            chunk = chunker.next();
+            // 不是 Ogg 流时没有头部，第一块就是数据
+            if (chunk != null && !chunker.lastWasHeader()) {
+                synchronized (queueLock) {
+                    enqueue(chunk);
+                }
+            }
+        } while (chunk != null && chunker.getHeaderChunks() == null);
+        if (chunk == null) eof = true;
+        info = chunker.getInfo();
+        headerChunks = chunker.getHeaderChunks();
+    }
+
+    /** 文件索引中已建好的跳转索引；WAV 的转码结果不在索引中，在这里读取或建立。 */
+    private SeekIndex loadSeekIndex() throws IOException {
+        if (codec == AudioCodec.IMA_ADPCM) return SeekIndex.loadOrBuild(path, WavTranscoder.indexPath(path));
+        SoundFileCache.SoundInfo indexed = SoundFileCache.getInfo(filename);
+        if (indexed == null || indexed.size() != contentSize || indexed.lastModified() != Files.getLastModifiedTime(path).toMillis()) return null;
+        return indexed.seekIndex();
+    }
+
+    /** 按页读取时每页要读两三次，套一层缓冲避免频繁的小读取。 */
+    static InputStream openInput(Path path) throws IOException {
+        return new BufferedInputStream(Files.newInputStream(path), READ_BUFFER_SIZE);
+    }
+
+    private synchronized void closeInput() {
+        if (input != null) {
+            try { input.close(); } catch (IOException ignored) {}
+            input = null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import cn.tdogmc.tdogmc_voice.network.PacketHandler;
+import cn.tdogmc.tdogmc_voice.network.StreamFrameS2CPacket;
+import net.minecraft.server.level.ServerPlayer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 收集一个 tick 内发给各玩家的数据块，在 tick 结束时合并成 {@link StreamFrameS2CPacket} 发出。
+ * 待发内容完全相同的玩家（例如同时收听同一组流的玩家）归为一组，每帧只编码一次、由整组共享。
+ * 实时输入的数据块在第一次随帧写入连接时记录 live.latency_us。只在服务端主线程使用。
+ */
+class FrameBatcher {
+    private final Map<ServerPlayer, List<StreamFrameS2CPacket.Chunk>> pending = new LinkedHashMap<>();
+    // 尚未发出的实时数据块到达服务端的时刻，按 Chunk 对象区分
+    private final Map<StreamFrameS2CPacket.Chunk, Long> arrivals = new IdentityHashMap<>();
+
+    /**
+     * 把一个数据块排入这些玩家的待发队列，同一个 Chunk 对象被所有玩家共享。
+     * {@code arrivalNanos} 不为 -1 时为实时输入的到达时刻，发出时记录延迟。
+     */
+    void add(Collection<ServerPlayer> players, int handle, int sequence, byte[] data, long arrivalNanos) {
+        if (players.isEmpty()) return;
+        StreamFrameS2CPacket.Chunk chunk = new StreamFrameS2CPacket.Chunk(handle, sequence, data);
+        if (arrivalNanos != -1) arrivals.put(chunk, arrivalNanos);
+        for (ServerPlayer player : players) {
+            pending.computeIfAbsent(player, p -> new ArrayList<>()).add(chunk);
+        }
+    }
+
+    /** 先发出这些玩家已排队的数据，保证随后的控制包（如 End）不会越过之前的数据。 */
+    void flush(Collection<ServerPlayer> players, int maxFrameBytes) {
+        if (pending.isEmpty()) return;
+        Map<ServerPlayer, List<StreamFrameS2CPacket.Chunk>> selected = new LinkedHashMap<>();
+        for (ServerPlayer player : players) {
+            List<StreamFrameS2CPacket.Chunk> chunks = pending.remove(player);
+            if (chunks != null) selected.put(player, chunks);
+        }
+        send(selected, maxFrameBytes);
+    }
+
+    /** 发出所有玩家的待发数据，tick 结束时调用。 */
+    void flushAll(int maxFrameBytes) {
+        if (pending.isEmpty()) return;
+        Map<ServerPlayer, List<StreamFrameS2CPacket.Chunk>> all = new LinkedHashMap<>(pending);
+        pending.clear();
+        send(all, maxFrameBytes);
+    }
+
+    private void send(Map<ServerPlayer, List<StreamFrameS2CPacket.Chunk>> byPlayer, int maxFrameBytes) {
+        // Chunk 是共享对象，List.equals 逐个比较即可判断两名玩家的待发内容是否相同
+        Map<List<StreamFrameS2CPacket.Chunk>, List<ServerPlayer>> groups = new LinkedHashMap<>();
+        for (Map.Entry<ServerPlayer, List<StreamFrameS2CPacket.Chunk>> entry : byPlayer.entrySet()) {
+            groups.computeIfAbsent(entry.getValue(), c -> new ArrayList<>()).add(entry.getKey());
+        }
+
+        for (Map.Entry<List<StreamFrameS2CPacket.Chunk>, List<ServerPlayer>> group : groups.entrySet()) {
+            Iterator<StreamFrameS2CPacket.Chunk> it = group.getKey().iterator();
+            List<StreamFrameS2CPacket.Chunk> frame = new ArrayList<>();
+            int frameBytes = 0;
+            while (it.hasNext()) {
+                StreamFrameS2CPacket.Chunk chunk = it.next();
+                // 单个数据块总能放进一帧，超出上限时先发出已有的部分
+                if (!frame.isEmpty() && frameBytes + chunk.encodedSize() > maxFrameBytes) {
+                    sendFrame(frame, group.getValue());
+                    frame = new ArrayList<>();
+                    frameBytes = 0;
+                }
+                frame.add(chunk);
+                frameBytes += chunk.encodedSize();
+            }
+            sendFrame(frame, group.getValue());
+        }
+    }
+
+    private void sendFrame(List<StreamFrameS2CPacket.Chunk> frame, List<ServerPlayer> players) {
+        PacketHandler.sendToPlayers(new StreamFrameS2CPacket(frame), players);
+        ServerStreamManager.recordFrame(players);
+        if (arrivals.isEmpty()) return;
+        for (StreamFrameS2CPacket.Chunk chunk : frame) {
+            // 同一块发给几组玩家时只按最先发出的一组记录
+            Long arrival = arrivals.remove(chunk);
+            if (arrival != null) ServerStreamManager.LIVE_LATENCY_US.recordSince(arrival);
+        }
+    }
+}
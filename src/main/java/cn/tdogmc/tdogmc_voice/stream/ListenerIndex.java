@@ -0,0 +1,71 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 按维度与水平网格索引在线玩家，用于音源周边的听众查询，
+ * 避免每个会话都遍历全部玩家（O(玩家 × 会话)）。
+ */
+class ListenerIndex {
+    private static final int CELL_SHIFT = 6; // 64 格一个网格
+
+    private final Map<ResourceKey<Level>, Long2ObjectMap<List<ServerPlayer>>> cells = new HashMap<>();
+    private final Map<ResourceKey<Level>, List<ServerPlayer>> byLevel = new HashMap<>();
+
+    void rebuild(Collection<ServerPlayer> players) {
+        cells.clear();
+        byLevel.clear();
+        for (ServerPlayer player : players) {
+            ResourceKey<Level> dimension = player.level().dimension();
+            long key = cellKey((int) Math.floor(player.getX()) >> CELL_SHIFT, (int) Math.floor(player.getZ()) >> CELL_SHIFT);
+            cells.computeIfAbsent(dimension, d -> new Long2ObjectOpenHashMap<>())
+                    .computeIfAbsent(key, k -> new ArrayList<>()).add(player);
+            byLevel.computeIfAbsent(dimension, d -> new ArrayList<>()).add(player);
+        }
+    }
+
+    /**
+     * 遍历 dimension 中水平方向可能位于 range 以内的玩家（粗筛，调用方仍需精确判断距离）。
+     * dimension 为 null 时查询所有维度。
+     */
+    void forEachNear(ResourceKey<Level> dimension, Vec3 pos, double range, Consumer<ServerPlayer> action) {
+        if (dimension == null) {
+            for (ResourceKey<Level> key : byLevel.keySet()) forEachNear(key, pos, range, action);
+            return;
+        }
+
+        List<ServerPlayer> all = byLevel.get(dimension);
+        if (all == null) return;
+
+        int minX = (int) Math.floor(pos.x - range) >> CELL_SHIFT;
+        int maxX = (int) Math.floor(pos.x + range) >> CELL_SHIFT;
+        int minZ = (int) Math.floor(pos.z - range) >> CELL_SHIFT;
+        int maxZ = (int) Math.floor(pos.z + range) >> CELL_SHIFT;
+
+        // 范围很大时要查的网格比玩家还多，直接遍历该维度的玩家更快
+        if ((long) (maxX - minX + 1) * (maxZ - minZ + 1) > all.size()) {
+            all.forEach(action);
+            return;
+        }
+
+        Long2ObjectMap<List<ServerPlayer>> levelCells = cells.get(dimension);
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cz = minZ; cz <= maxZ; cz++) {
+                List<ServerPlayer> players = levelCells.get(cellKey(cx, cz));
+                if (players != null) players.forEach(action);
+            }
+        }
+    }
+
+    private static long cellKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,215 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import cn.tdogmc.tdogmc_voice.util.AudioCodec;
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 实时输入的数据源：读取本机编码器持续写出的 Ogg 流（Vorbis 或 ADPCM），输入为
+ * {@code pipe:<名称>}（{@link #LIVE_DIR} 下的命名管道）或 {@code tcp:<主机>:<端口>}（只允许回环地址）。
+ * 每个输入有自己的读取线程，按页切块且不等待凑满一块，已到达的页立即可发；会话不按播放进度限速。
+ * 发送跟不上（带宽或流控受限、会话暂停）时丢弃积压超过延迟上限的数据块，端到端延迟因此有上界，
+ * 丢弃造成的断档由会话跳过序号通知客户端重新同步。
+ */
+class LiveChunkSource implements ChunkSource {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    static final Path LIVE_DIR = Path.of("tdogmc_voice_live");
+    private static final String PIPE_PREFIX = "pipe:";
+    private static final String TCP_PREFIX = "tcp:";
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    // 缓冲只用于合并一页的几次小读取，不攒数据
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    // 会话暂停等不取数据的情况下，队列最多保留的块数
+    private static final int MAX_QUEUED_CHUNKS = 256;
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private record Arrival(AudioChunk chunk, long nanos) {}
+
+    private final String input;
+    private final LongSupplier maxLatencyNanos;
+    private final BlockingQueue<Arrival> queue = new ArrayBlockingQueue<>(MAX_QUEUED_CHUNKS);
+    private final AtomicLong dropped = new AtomicLong();
+    // 只在主线程访问
+    private long lastArrivalNanos = -1;
+
+    private volatile List<AudioChunk> headerChunks;
+    private volatile OggPageScanner.StreamInfo info;
+    private volatile AudioCodec codec = AudioCodec.VORBIS;
+    private volatile InputStream stream;
+
+    private volatile boolean open = false;
+    private volatile boolean eof = false;
+    private volatile boolean failed = false;
+    private volatile boolean closed = false;
+
+    LiveChunkSource(String input, LongSupplier maxLatencyNanos) {
+        this.input = input;
+        this.maxLatencyNanos = maxLatencyNanos;
+        Thread reader = new Thread(this::read, "Voice-Live-Reader-" + THREAD_COUNTER.incrementAndGet());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public boolean isOpen() { return open; }
+
+    @Override
+    public boolean hasFailed() { return failed; }
+
+    @Override
+    public OggPageScanner.StreamInfo getInfo() { return info; }
+
+    @Override
+    public AudioCodec getCodec() { return codec; }
+
+    @Override
+    public List<AudioChunk> getHeaderChunks() { return headerChunks; }
+
+    /** 实时内容没有固定的摘要，客户端不会缓存。 */
+    @Override
+    public byte[] getContentHash() { return null; }
+
+    @Override
+    public long getContentSize() { return -1; }
+
+    @Override
+    public AudioChunk peek() {
+        dropStale();
+        Arrival head = queue.peek();
+        return head != null ? head.chunk() : null;
+    }
+
+    @Override
+    public AudioChunk poll() {
+        // 只有主线程取数据，不在这里丢弃，保证取到的就是刚才 peek 到的块
+        Arrival head = queue.poll();
+        if (head == null) return null;
+        // 延迟在数据块交给连接时才记录（见 FrameBatcher），包含等待本 tick 结束合并成帧的时间
+        lastArrivalNanos = head.nanos();
+        return head.chunk();
+    }
+
+    @Override
+    public boolean isExhausted() {
+        return eof && queue.isEmpty();
+    }
+
+    @Override
+    public boolean seek(long granule) { return false; }
+
+    @Override
+    public boolean isLive() { return true; }
+
+    @Override
+    public long getDroppedChunks() { return dropped.get(); }
+
+    @Override
+    public long getLastArrivalNanos() { return lastArrivalNanos; }
+
+    /**
+     * 关闭输入让读取线程退出。阻塞在打开命名管道上的线程要等写入方出现后才会退出，它是守护线程，不影响关服。
+     */
+    @Override
+    public void close() {
+        closed = true;
+        InputStream current = stream;
+        if (current != null) {
+            try { current.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /** 丢弃到达时间早于延迟上限的数据块。 */
+    private void dropStale() {
+        long limit = System.nanoTime() - maxLatencyNanos.getAsLong();
+        Arrival head;
+        while ((head = queue.peek()) != null && head.nanos() < limit) {
+            if (queue.poll() != null) drop();
+        }
+    }
+
+    private void drop() {
+        dropped.incrementAndGet();
+        ServerStreamManager.LIVE_DROPPED.increment();
+    }
+
+    private void read() {
+        try (InputStream in = connect()) {
+            stream = in;
+            if (closed) return;
+            OggPageChunker chunker = new OggPageChunker(in, true);
+            AudioChunk chunk;
+            while (!closed && (chunk = chunker.next()) != null) {
+                long arrival = System.nanoTime();
+                if (!open && chunker.getHeaderChunks() != null) {
+                    List<AudioChunk> header = chunker.getHeaderChunks();
+                    if (header.isEmpty()) throw new IOException("Not an Ogg Vorbis or ADPCM stream");
+                    info = chunker.getInfo();
+                    codec = chunker.getCodec();
+                    headerChunks = header;
+                    open = true;
+                    LOGGER.debug("Live input {} open: {} {}", input, codec, info);
+                }
+                // 头部块不入队，会话开始发送时从 getHeaderChunks() 补发，不会因超时被丢掉
+                if (chunker.lastWasHeader()) continue;
+                // 没有人取数据时队列满了就丢掉新块，队列不会无限增长；积压的旧块恢复发送时会因超时被丢弃
+                if (!queue.offer(new Arrival(chunk, arrival))) drop();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                // 已经开始播放后输入断开视为直播结束，已收到的数据照常发完
+                if (open) LOGGER.warn("Live input {} ended: {}", input, e.getMessage());
+                else LOGGER.error("Failed to read live input {}", input, e);
+            }
+        } finally {
+            if (open) eof = true;
+            else failed = true;
+        }
+    }
+
+    private InputStream connect() throws IOException {
+        if (input.startsWith(TCP_PREFIX)) {
+            String address = input.substring(TCP_PREFIX.length());
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) throw new IOException("Missing port in live input " + input);
+            InetAddress host = InetAddress.getByName(address.substring(0, colon));
+            if (!host.isLoopbackAddress()) throw new IOException("Live input must be on this machine: " + input);
+            int port;
+            try {
+                port = Integer.parseInt(address.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid port in live input " + input, e);
+            }
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                return new BufferedInputStream(socket.getInputStream(), READ_BUFFER_SIZE);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+        if (input.startsWith(PIPE_PREFIX)) {
+            Path dir = LIVE_DIR.toAbsolutePath().normalize();
+            Path path = dir.resolve(input.substring(PIPE_PREFIX.length())).normalize();
+            if (!path.startsWith(dir)) throw new IOException("Live pipe must be inside " + LIVE_DIR + ": " + input);
+            // 命名管道在写入方打开之前会阻塞在这里
+            return new BufferedInputStream(Files.newInputStream(path), READ_BUFFER_SIZE);
+        }
+        throw new IOException("Unknown live input " + input + ", expected pipe:<name> or tcp:<host>:<port>");
+    }
+}
@@ -0,0 +1,168 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import cn.tdogmc.tdogmc_voice.util.AudioCodec;
+import cn.tdogmc.tdogmc_voice.util.ImaAdpcm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按 Ogg 页边界把文件切成数据块：每块由若干完整的页组成，不超过 {@link ServerStreamManager#CHUNK_SIZE}，
+ * 单页更大时独占一块。头部页（Vorbis 的三个头包或 ADPCM 标识头）单独成块，
+ * 中途加入的玩家只需先收到这些头部块，之后从任意数据块开始都能直接解码。
+ * 不是 Ogg 数据（或遇到损坏的页）时，剩余内容退回按固定大小切分。
+ * 实时输入使用 eager 模式：已经到达的页读完就交出一块，不阻塞等待后面的页来凑满。
+ */
+class OggPageChunker {
+    private static final int PAGE_HEADER_SIZE = 27;
+    private static final int VORBIS_HEADER_PACKETS = 3;
+
+    // endsHeader：本页结束了最后一个头部包
+    private record Page(byte[] data, long granule, boolean header, boolean endsHeader) {}
+
+    private final InputStream input;
+    private final boolean eager;
+    private final OggPageScanner scanner = new OggPageScanner();
+    private AudioCodec codec = AudioCodec.VORBIS;
+    private Page pending;            // 放不进上一块的页
+    private byte[] rawPrefix;        // 退回固定切分前已读出的字节
+    private boolean raw = false;
+    private int headerPackets = -1;  // 尚未读完的头部包数，-1 表示还没读到第一页
+    private long granule = 0;
+
+    private final List<AudioChunk> headerChunks = new ArrayList<>();
+    private boolean headerComplete = false;
+    private boolean lastWasHeader = false;
+
+    OggPageChunker(InputStream input) {
+        this(input, false);
+    }
+
+    OggPageChunker(InputStream input, boolean eager) {
+        this.input = input;
+        this.eager = eager;
+    }
+
+    /** 读取下一个数据块，文件结束时返回 null。 */
+    AudioChunk next() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(ServerStreamManager.CHUNK_SIZE);
+        boolean header = false;
+        boolean endsHeader = false;
+        while (!raw) {
+            Page page = pending != null ? pending : readPage();
+            pending = null;
+            if (page == null) break;
+            // 头部页与数据页不放进同一块
+            if (out.size() > 0 && (page.header() != header || out.size() + page.data().length > ServerStreamManager.CHUNK_SIZE)) {
+                pending = page;
+                break;
+            }
+            header = page.header();
+            endsHeader = page.endsHeader();
+            out.writeBytes(page.data());
+            if (page.granule() != -1) granule = page.granule(); // -1 表示该页没有结束任何数据包
+            if (eager && input.available() == 0) break;
+        }
+        if (out.size() == 0 && raw) return nextRaw();
+
+        if (out.size() == 0) {
+            headerComplete = true;
+            return null;
+        }
+        AudioChunk chunk = new AudioChunk(out.toByteArray(), granule);
+        lastWasHeader = header;
+        if (header) headerChunks.add(chunk);
+        if (!header || endsHeader) headerComplete = true;
+        return chunk;
+    }
+
+    /** 上一次返回的数据块是否为头部块。 */
+    boolean lastWasHeader() {
+        return lastWasHeader;
+    }
+
+    /** 头部块，尚未读完头部时为 null；不是 Ogg 流时为空列表。 */
+    List<AudioChunk> getHeaderChunks() {
+        return headerComplete ? List.copyOf(headerChunks) : null;
+    }
+
+    OggPageScanner.StreamInfo getInfo() {
+        return scanner.getInfo();
+    }
+
+    /** 按第一页的标识头判断的编码格式，无法识别时为 Vorbis。 */
+    AudioCodec getCodec() {
+        return codec;
+    }
+
+    private Page readPage() throws IOException {
+        byte[] head = input.readNBytes(PAGE_HEADER_SIZE);
+        if (head.length == 0) return null;
+        if (head.length < PAGE_HEADER_SIZE || head[0] != 'O' || head[1] != 'g' || head[2] != 'g' || head[3] != 'S') {
+            raw = true;
+            rawPrefix = head;
+            return null;
+        }
+
+        int segments = head[26] & 0xFF;
+        byte[] lacing = input.readNBytes(segments);
+        int body = 0;
+        int packets = 0;
+        for (byte value : lacing) {
+            body += value & 0xFF;
+            if ((value & 0xFF) < 255) packets++;
+        }
+        int bodyOffset = PAGE_HEADER_SIZE + segments;
+        byte[] data = new byte[bodyOffset + body];
+        System.arraycopy(head, 0, data, 0, PAGE_HEADER_SIZE);
+        System.arraycopy(lacing, 0, data, PAGE_HEADER_SIZE, lacing.length);
+        int read = input.readNBytes(data, bodyOffset, body);
+        if (read < body) data = Arrays.copyOf(data, bodyOffset + read); // 文件末尾被截断的页原样发出
+
+        scanner.scan(data);
+        if (headerPackets < 0) {
+            codec = isAdpcmHeader(data, bodyOffset) ? AudioCodec.IMA_ADPCM : AudioCodec.VORBIS;
+            headerPackets = headerPacketCount(data, bodyOffset);
+        }
+        boolean header = headerPackets > 0;
+        if (header) headerPackets = Math.max(0, headerPackets - packets);
+
+        long pageGranule = (readInt(head, 6) & 0xFFFFFFFFL) | (long) readInt(head, 10) << 32;
+        return new Page(data, pageGranule, header, header && headerPackets == 0);
+    }
+
+    private AudioChunk nextRaw() throws IOException {
+        headerComplete = true;
+        lastWasHeader = false;
+        byte[] prefix = rawPrefix != null ? rawPrefix : new byte[0];
+        rawPrefix = null;
+        byte[] rest = input.readNBytes(ServerStreamManager.CHUNK_SIZE - prefix.length);
+        if (prefix.length + rest.length == 0) return null;
+        byte[] data = Arrays.copyOf(prefix, prefix.length + rest.length);
+        System.arraycopy(rest, 0, data, prefix.length, rest.length);
+        return new AudioChunk(data, granule);
+    }
+
+    /** 按第一页的标识头判断头部由几个数据包组成，无法识别时没有头部。 */
+    private static int headerPacketCount(byte[] page, int bodyOffset) {
+        int body = page.length - bodyOffset;
+        if (body >= 7 && page[bodyOffset] == 1 && page[bodyOffset + 1] == 'v' && page[bodyOffset + 2] == 'o'
+                && page[bodyOffset + 3] == 'r' && page[bodyOffset + 4] == 'b' && page[bodyOffset + 5] == 'i' && page[bodyOffset + 6] == 's') {
+            return VORBIS_HEADER_PACKETS;
+        }
+        return isAdpcmHeader(page, bodyOffset) ? 1 : 0;
+    }
+
+    private static boolean isAdpcmHeader(byte[] page, int bodyOffset) {
+        return page.length - bodyOffset >= ImaAdpcm.ID_HEADER_SIZE && ImaAdpcm.isIdHeader(ByteBuffer.wrap(page), bodyOffset);
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+    }
+}
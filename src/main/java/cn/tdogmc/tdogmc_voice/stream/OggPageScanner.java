@@ -0,0 +1,113 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import cn.tdogmc.tdogmc_voice.util.ImaAdpcm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 增量扫描 Ogg 页头，不要求数据块与页边界对齐。
+ * 从第一页中解析 Vorbis 或 ADPCM 标识头（采样率、声道数、标称码率），并记录已完整出现的页的 granule 位置。
+ */
+class OggPageScanner {
+    private static final int PAGE_HEADER_SIZE = 27;
+    private static final int ID_HEADER_SIZE = 28;
+
+    /**
+     * @param sampleRate     采样率
+     * @param channels       声道数
+     * @param nominalBitrate 标称码率 (bit/s)，编码器未填写时为 0
+     */
+    record StreamInfo(int sampleRate, int channels, int nominalBitrate) {}
+
+    private final byte[] header = new byte[PAGE_HEADER_SIZE + 255];
+    private int headerFill = 0;
+    private int headerSize = PAGE_HEADER_SIZE;
+    private long bodyRemaining = 0;
+    private long pageGranule = 0;
+    private int pageIndex = 0;
+
+    private final byte[] idHeader = new byte[ID_HEADER_SIZE];
+    private int idFill = 0;
+
+    private long lastGranule = 0;
+    private boolean invalid = false;
+    private StreamInfo info;
+
+    /**
+     * 扫描下一段数据，返回截至这段数据末尾最后一个完整页的 granule 位置。
+     */
+    long scan(byte[] data) {
+        int pos = 0;
+        while (pos < data.length && !invalid) {
+            if (bodyRemaining > 0) {
+                int n = (int) Math.min(bodyRemaining, data.length - pos);
+                if (pageIndex == 0) captureIdHeader(data, pos, n);
+                pos += n;
+                bodyRemaining -= n;
+                if (bodyRemaining == 0) completePage();
+                continue;
+            }
+
+            int n = Math.min(headerSize - headerFill, data.length - pos);
+            System.arraycopy(data, pos, header, headerFill, n);
+            headerFill += n;
+            pos += n;
+
+            if (headerFill == PAGE_HEADER_SIZE && headerSize == PAGE_HEADER_SIZE) {
+                if (header[0] != 'O' || header[1] != 'g' || header[2] != 'g' || header[3] != 'S') {
+                    invalid = true;
+                    break;
+                }
+                headerSize = PAGE_HEADER_SIZE + (header[26] & 0xFF);
+            }
+            if (headerFill == headerSize) {
+                parsePageHeader();
+            }
+        }
+        return lastGranule;
+    }
+
+    /** 解析出标识头后返回流信息，否则返回 null（尚未读到或不是支持的 Ogg 流）。 */
+    StreamInfo getInfo() {
+        return info;
+    }
+
+    private void parsePageHeader() {
+        pageGranule = readLong(header, 6);
+        int segments = header[26] & 0xFF;
+        long body = 0;
+        for (int i = 0; i < segments; i++) body += header[PAGE_HEADER_SIZE + i] & 0xFF;
+
+        headerFill = 0;
+        headerSize = PAGE_HEADER_SIZE;
+        bodyRemaining = body;
+        if (body == 0) completePage();
+    }
+
+    private void completePage() {
+        // granule 为 -1 表示本页没有结束任何数据包
+        if (pageGranule != -1) lastGranule = pageGranule;
+        pageIndex++;
+    }
+
+    private void captureIdHeader(byte[] data, int pos, int len) {
+        int n = Math.min(len, ID_HEADER_SIZE - idFill);
+        if (n <= 0) return;
+        System.arraycopy(data, pos, idHeader, idFill, n);
+        idFill += n;
+        if (idFill == ID_HEADER_SIZE && idHeader[0] == 1 && idHeader[1] == 'v' && idHeader[2] == 'o'
+                && idHeader[3] == 'r' && idHeader[4] == 'b' && idHeader[5] == 'i' && idHeader[6] == 's') {
+            info = new StreamInfo(readInt(idHeader, 12), idHeader[11] & 0xFF, Math.max(0, readInt(idHeader, 20)));
+        } else if (idFill == ID_HEADER_SIZE && ImaAdpcm.isIdHeader(ByteBuffer.wrap(idHeader), 0)) {
+            info = new StreamInfo(readInt(idHeader, 10), idHeader[9] & 0xFF, readInt(idHeader, 16));
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        return (readInt(b, off) & 0xFFFFFFFFL) | ((long) readInt(b, off + 4)) << 32;
+    }
+}
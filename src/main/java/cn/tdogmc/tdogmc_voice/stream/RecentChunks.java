@@ -0,0 +1,43 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 会话最近发出、客户端还没播到的数据块。会话按实时进度超前发送，中途加入的玩家如果只从下一块开始接收，
+ * 会比其他人超前最多 streamLeadSeconds 秒；补发这里从当前进度所在的块起的数据，新玩家与其他人同步，也同样有缓冲余量。
+ * 序号始终连续，接在补发的块后面的就是会话接下来发出的块。只在服务端主线程使用。
+ */
+class RecentChunks {
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+    /**
+     * 记录刚发出的数据块。{@code position} 为该块末尾的采样位置（含已播完的循环），序号不连续时丢弃之前的记录。
+     */
+    void add(int sequence, long position, byte[] data) {
+        Entry last = entries.peekLast();
+        if (last != null && (sequence != last.sequence + 1 || position < last.position)) entries.clear();
+        entries.addLast(new Entry(sequence, position, data));
+    }
+
+    /** 丢弃在 {@code position} 之前就已播完的块，包含该位置的块保留。 */
+    void trim(long position) {
+        while (!entries.isEmpty() && entries.peekFirst().position < position) entries.pollFirst();
+    }
+
+    /** 从包含 {@code position} 的块起到最近发出的块为止。 */
+    List<Entry> from(long position) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.position >= position) result.add(entry);
+        }
+        return result;
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    record Entry(int sequence, long position, byte[] data) {}
+}
@@ -4,152 +4,1004 @@ import cn.tdogmc.tdogmc_voice.config.ModConfig;
 import cn.tdogmc.tdogmc_voice.network.EndStreamS2CPacket;
 import cn.tdogmc.tdogmc_voice.network.PacketHandler;
 import cn.tdogmc.tdogmc_voice.network.StartStreamS2CPacket;
-import cn.tdogmc.tdogmc_voice.network.StreamDataS2CPacket;
+import cn.tdogmc.tdogmc_voice.network.StreamControlS2CPacket;
+import cn.tdogmc.tdogmc_voice.util.Metrics;
 import cn.tdogmc.tdogmc_voice.util.SoundFileCache;
 import com.mojang.logging.LogUtils;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.Level;
 import net.minecraft.world.phys.Vec3;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.server.ServerStartedEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.server.ServerLifecycleHooks;
 import org.slf4j.Logger;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ServerStreamManager {
     private static final Logger LOGGER = LogUtils.getLogger();
-    private static final int CHUNK_SIZE = 8192;
+    static final int CHUNK_SIZE = 8192;
     private static final int PACKETS_PER_TICK = 4;
+    // 每隔多少 tick 重新计算一次各会话的听众
+    private static final int INTEREST_INTERVAL_TICKS = 10;
+    // 离开判定比加入多出的距离，避免玩家在边界来回走动时反复重发头部
+    private static final double LEAVE_MARGIN = 8.0;
+    // 流控窗口的下限：客户端每消费四分之一窗口确认一次，窗口过小时服务端会在确认到达前停住
+    private static final int MIN_FLOW_WINDOW = 16 * 1024;
+    public static final int DEFAULT_PRIORITY = 0;
+    public static final int MAX_PRIORITY = 255;
 
     private static final Map<UUID, StreamSession> ACTIVE_SESSIONS = new ConcurrentHashMap<>();
+    private static final AtomicLong STARVED_TICKS = new AtomicLong();
+    // 每个玩家剩余的带宽令牌（字节），只在服务端主线程访问
+    private static final Map<UUID, Long> PLAYER_BUDGET = new HashMap<>();
+    // 已分配的流句柄。每块数据只编码一次并发给所有接收者，所以句柄在全服范围内唯一而不是按连接分配；
+    // 总是复用最小的空闲值，让 varint 保持在 1~2 字节
+    private static final BitSet USED_HANDLES = new BitSet();
+    private static final ListenerIndex LISTENER_INDEX = new ListenerIndex();
+    private static final FrameBatcher BATCHER = new FrameBatcher();
+    private static int interestCountdown = 0;
+
+    // 指标，见 /tdvoice stats。磁盘读取的直方图也在这里注册，保证导出文件的列从一开始就固定
+    private static final Metrics.Counter BYTES_SENT = Metrics.SERVER.counter("stream.bytes_sent");
+    private static final Metrics.Counter PACKETS_SENT = Metrics.SERVER.counter("stream.packets_sent");
+    private static final Metrics.Histogram TICK_BYTES = Metrics.SERVER.histogram("stream.bytes_per_tick");
+    private static final Metrics.Histogram TICK_PACKETS = Metrics.SERVER.histogram("stream.packets_per_tick");
+    private static final Metrics.Histogram PLAYER_TICK_BYTES = Metrics.SERVER.histogram("stream.player_bytes_per_tick");
+    private static final Metrics.Histogram TICK_US = Metrics.SERVER.histogram("stream.tick_us");
+    private static final Metrics.Counter FLOW_SKIPPED = Metrics.SERVER.counter("flow.skipped_chunks");
+    private static final Metrics.Counter FLOW_EVICTED = Metrics.SERVER.counter("flow.evicted");
+    static final Metrics.Histogram READ_US = Metrics.SERVER.histogram("io.read_us");
+    static final Metrics.Histogram FILE_LOAD_US = Metrics.SERVER.histogram("io.file_load_us");
+    // 实时输入：数据块从输入读到到写入玩家连接的延迟，以及因积压超过上限而丢弃的块数
+    static final Metrics.Histogram LIVE_LATENCY_US = Metrics.SERVER.histogram("live.latency_us");
+    static final Metrics.Counter LIVE_DROPPED = Metrics.SERVER.counter("live.dropped_chunks");
+    // 本 tick 的发送量与各玩家的累计流量，只在服务端主线程访问
+    private static long tickBytes = 0;
+    private static long tickPackets = 0;
+    private static final Map<UUID, Long> TICK_BYTES_BY_PLAYER = new HashMap<>();
+    private static final Map<UUID, PlayerTraffic> TRAFFIC_BY_PLAYER = new HashMap<>();
+
+    static {
+        Metrics.SERVER.gauge("stream.sessions", ACTIVE_SESSIONS::size);
+        Metrics.SERVER.gauge("stream.starved_ticks", STARVED_TICKS::get);
+        Metrics.SERVER.gauge("chunk_cache.bytes", SoundChunkCache::getCachedBytes);
+    }
+
+    /** 发给某个玩家的累计数据量（只统计音频数据帧）。 */
+    public static final class PlayerTraffic {
+        private final UUID player;
+        private long bytes;
+        private long packets;
+
+        private PlayerTraffic(UUID player) {
+            this.player = player;
+        }
+
+        public UUID getPlayer() { return player; }
+
+        public long getBytes() { return bytes; }
+
+        public long getPackets() { return packets; }
+    }
 
     public static void init() {
         MinecraftForge.EVENT_BUS.register(ServerStreamManager.class);
+        SoundFileCache.addChangeListener(SoundChunkCache::invalidate);
     }
 
     @SubscribeEvent
     public static void onServerTick(TickEvent.ServerTickEvent event) {
-        if (event.phase != TickEvent.Phase.END || ACTIVE_SESSIONS.isEmpty()) return;
+        if (event.phase == TickEvent.Phase.END) tick();
+    }
+
+    /** 一个服务端 tick 的发送：更新听众、推进各会话、轮流取块，tick 结束时合并成帧发出。 */
+    static void tick() {
+        if (ACTIVE_SESSIONS.isEmpty()) return;
+        long tickStart = System.nanoTime();
+        tickBytes = 0;
+        tickPackets = 0;
+
+        refillBandwidth();
+
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        boolean updateInterest = server != null && --interestCountdown <= 0;
+        if (updateInterest) {
+            interestCountdown = INTEREST_INTERVAL_TICKS;
+            LISTENER_INDEX.rebuild(server.getPlayerList().getPlayers());
+        }
 
         Iterator<Map.Entry<UUID, StreamSession>> it = ACTIVE_SESSIONS.entrySet().iterator();
         while (it.hasNext()) {
             StreamSession session = it.next().getValue();
+            if (updateInterest) session.updateInterest(server);
             if (!session.tick()) {
                 session.close();
                 it.remove();
             }
         }
+
+        // 按轮次发送，每轮每个会话最多发一个块，让同一玩家的带宽在多个会话之间公平分配
+        List<StreamSession> sending = new ArrayList<>(ACTIVE_SESSIONS.values());
+        while (!sending.isEmpty()) {
+            sending.removeIf(session -> !session.sendNext());
+        }
+        BATCHER.flushAll(maxFrameBytes());
+
+        TICK_BYTES.record(tickBytes);
+        TICK_PACKETS.record(tickPackets);
+        TICK_BYTES_BY_PLAYER.values().forEach(PLAYER_TICK_BYTES::record);
+        TICK_BYTES_BY_PLAYER.clear();
+        TICK_US.recordSince(tickStart);
+    }
+
+    @SubscribeEvent
+    public static void onPlayerLoggedOut(PlayerEvent.PlayerLoggedOutEvent event) {
+        PLAYER_BUDGET.remove(event.getEntity().getUUID());
+        TRAFFIC_BY_PLAYER.remove(event.getEntity().getUUID());
+    }
+
+    @SubscribeEvent
+    public static void onServerStarted(ServerStartedEvent event) {
+        Metrics.SERVER.startDump(ModConfig.METRICS_DUMP_SECONDS::get, ModConfig.METRICS_DUMP_FORMAT::get);
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        Metrics.SERVER.stopDump();
+        TRAFFIC_BY_PLAYER.clear();
+    }
+
+    /**
+     * 播放给指定列表的玩家（定点音源）。只有位于 range 内的玩家会收到数据，
+     * 之后走进范围的玩家会从当前进度加入，离开范围的玩家停止接收。
+     * 返回流 ID，可用于之后停止、暂停或跳转；没有目标玩家时返回 null。
+     */
+    public static UUID playToPlayers(Collection<ServerPlayer> recipients, ServerLevel level, Vec3 position, String filename, float range, float volume, float pitch) {
+        return playToPlayers(recipients, level, position, filename, range, volume, pitch, DEFAULT_PRIORITY);
     }
 
     /**
-     * 播放给指定列表的玩家（定点音源）
+     * 同上，并指定优先级：客户端音源不足时，优先级高的流更晚被降为虚拟音源。
      */
-    public static void playToPlayers(Collection<ServerPlayer> recipients, Vec3 position, String filename, float range, float volume, float pitch) {
-        startStreamInternal(recipients, position, null, filename, range, volume, pitch);
+    public static UUID playToPlayers(Collection<ServerPlayer> recipients, ServerLevel level, Vec3 position, String filename, float range, float volume, float pitch, int priority) {
+        return playToPlayers(recipients, level, position, filename, range, volume, pitch, priority, 0);
+    }
+
+    /**
+     * 同上，并从第 {@code startSeconds} 秒开始播放。流式读取的文件按跳转索引直接定位，不必从开头读取。
+     * 无法解析出采样率的文件忽略起始位置。
+     */
+    public static UUID playToPlayers(Collection<ServerPlayer> recipients, ServerLevel level, Vec3 position, String filename, float range, float volume, float pitch, int priority,
+                                     double startSeconds) {
+        return playToPlayers(recipients, level, position, filename, range, volume, pitch, priority, startSeconds, 0);
+    }
+
+    /**
+     * 同上，播完后再从头播放 {@code loops} 遍，-1 为无限循环（直到被停止）。
+     * 完整收到过文件的客户端在本地循环，服务端只为其余客户端重发数据（不含头部）。
+     */
+    public static UUID playToPlayers(Collection<ServerPlayer> recipients, ServerLevel level, Vec3 position, String filename, float range, float volume, float pitch, int priority,
+                                     double startSeconds, int loops) {
+        return startStreamInternal(recipients, level.dimension(), position, null, filename, false, range, volume, pitch, priority, startSeconds, loops);
+    }
+
+    /**
+     * 播放给指定列表的玩家（定点音源，不区分维度）
+     */
+    public static UUID playToPlayers(Collection<ServerPlayer> recipients, Vec3 position, String filename, float range, float volume, float pitch) {
+        return startStreamInternal(recipients, null, position, null, filename, false, range, volume, pitch, DEFAULT_PRIORITY, 0, 0);
     }
 
     /**
      * 播放给指定列表的玩家（实体跟随音源）
      */
-    public static void playToPlayers(Collection<ServerPlayer> recipients, Entity entitySource, String filename, float range, float volume, float pitch) {
-        startStreamInternal(recipients, null, entitySource, filename, range, volume, pitch);
+    public static UUID playToPlayers(Collection<ServerPlayer> recipients, Entity entitySource, String filename, float range, float volume, float pitch) {
+        return playToPlayers(recipients, entitySource, filename, range, volume, pitch, DEFAULT_PRIORITY);
     }
 
-    private static void startStreamInternal(Collection<ServerPlayer> recipients, Vec3 pos, Entity entity, String filename, float range, float volume, float pitch) {
-        if (recipients.isEmpty()) return;
+    public static UUID playToPlayers(Collection<ServerPlayer> recipients, Entity entitySource, String filename, float range, float volume, float pitch, int priority) {
+        return playToPlayers(recipients, entitySource, filename, range, volume, pitch, priority, 0);
+    }
 
-        Path path = SoundFileCache.getPath(filename);
-        if (path == null) {
-            LOGGER.warn("File not found in cache: {}", filename);
-            return;
+    public static UUID playToPlayers(Collection<ServerPlayer> recipients, Entity entitySource, String filename, float range, float volume, float pitch, int priority,
+                                     double startSeconds) {
+        return playToPlayers(recipients, entitySource, filename, range, volume, pitch, priority, startSeconds, 0);
+    }
+
+    public static UUID playToPlayers(Collection<ServerPlayer> recipients, Entity entitySource, String filename, float range, float volume, float pitch, int priority,
+                                     double startSeconds, int loops) {
+        return startStreamInternal(recipients, entitySource.level().dimension(), entitySource.position(), entitySource, filename, false, range, volume, pitch, priority, startSeconds, loops);
+    }
+
+    /**
+     * 转播本机的实时输入（定点音源）：{@code pipe:<名称>} 读取 tdogmc_voice_live 目录下的命名管道，
+     * {@code tcp:<主机>:<端口>} 连接回环地址上的编码器。输入必须是 Ogg Vorbis 或 ADPCM 流。
+     * 数据到达后尽快发出，积压超过 liveMaxLatencyMs 的数据会被丢弃；输入结束时流随之结束。
+     */
+    public static UUID playLive(Collection<ServerPlayer> recipients, ServerLevel level, Vec3 position, String input, float range, float volume, float pitch, int priority) {
+        return startStreamInternal(recipients, level.dimension(), position, null, input, true, range, volume, pitch, priority, 0, 0);
+    }
+
+    /** 同上，音源跟随实体。 */
+    public static UUID playLive(Collection<ServerPlayer> recipients, Entity entitySource, String input, float range, float volume, float pitch, int priority) {
+        return startStreamInternal(recipients, entitySource.level().dimension(), entitySource.position(), entitySource, input, true, range, volume, pitch, priority, 0, 0);
+    }
+
+    /**
+     * 按顺序无缝播放多个文件（定点音源），整个列表重复 {@code loops} 遍，-1 为无限循环。
+     * 每一首的数据发完时就开始预读下一首，客户端在上一首解码完毕后接着在同一个音源上播放。
+     * 返回播放列表 ID，停止、暂停、恢复作用于整个列表，跳转作用于正在播放的一首。
+     */
+    public static UUID playPlaylist(Collection<ServerPlayer> recipients, ServerLevel level, Vec3 position, List<String> filenames, float range, float volume, float pitch, int priority,
+                                    int loops) {
+        return startPlaylistInternal(recipients, level.dimension(), position, null, filenames, range, volume, pitch, priority, loops);
+    }
+
+    /** 同上，音源跟随实体。 */
+    public static UUID playPlaylist(Collection<ServerPlayer> recipients, Entity entitySource, List<String> filenames, float range, float volume, float pitch, int priority,
+                                    int loops) {
+        return startPlaylistInternal(recipients, entitySource.level().dimension(), entitySource.position(), entitySource, filenames, range, volume, pitch, priority, loops);
+    }
+
+    private static UUID startPlaylistInternal(Collection<ServerPlayer> recipients, ResourceKey<Level> dimension, Vec3 pos, Entity entity, List<String> filenames, float range, float volume, float pitch,
+                                              int priority, int loops) {
+        if (filenames.isEmpty()) return null;
+        UUID first = startStreamInternal(recipients, dimension, pos, entity, filenames.get(0), false, range, volume, pitch, priority, 0, 0);
+        if (first == null) return null;
+        Playlist playlist = new Playlist(UUID.randomUUID(), List.copyOf(filenames), loops);
+        ACTIVE_SESSIONS.get(first).playlist = playlist;
+        return playlist.id;
+    }
+
+    private static UUID startStreamInternal(Collection<ServerPlayer> recipients, ResourceKey<Level> dimension, Vec3 pos, Entity entity, String filename, boolean live, float range, float volume,
+                                            float pitch, int priority, double startSeconds, int loops) {
+        if (recipients.isEmpty()) return null;
+        priority = Math.max(DEFAULT_PRIORITY, Math.min(priority, MAX_PRIORITY));
+
+        // 创建会话，文件的打开与读取都在 IO 线程中完成，Start Packet 等数据源就绪（内容摘要已知）后再构建并发送。
+        // 选择器选中的玩家只是候选听众，实际接收者按距离筛选
+        StreamSession session = newSession(filename, live, range, volume, pitch, priority, dimension, pos, entity);
+        session.startSeconds = Math.max(0, startSeconds);
+        session.loops = Math.max(-1, loops);
+        for (ServerPlayer player : recipients) {
+            session.candidates.add(player.getUUID());
+            if (session.isInRange(player, range)) session.recipients.add(player);
+        }
+        ACTIVE_SESSIONS.put(session.id, session);
+
+        if (ModConfig.LOG_BASIC_INFO.get()) {
+            LOGGER.info("Started audio stream {} for {} players ({} in range)", filename, recipients.size(), session.recipients.size());
         }
+        return session.id;
+    }
 
-        try {
-            UUID streamId = UUID.randomUUID();
-            InputStream input = Files.newInputStream(path);
+    private static StreamSession newSession(String filename, boolean live, double range, float volume, float pitch, int priority, ResourceKey<Level> dimension, Vec3 pos,
+                                            Entity entity) {
+        ChunkSource source = live ? new LiveChunkSource(filename, ServerStreamManager::liveMaxLatencyNanos) : new FileChunkSource(filename);
+        return newSession(filename, source, range, volume, pitch, priority, dimension, pos, entity);
+    }
 
-            // 构建 Start Packet
-            StartStreamS2CPacket startPacket;
-            if (entity != null) {
-                startPacket = new StartStreamS2CPacket(streamId, entity.getUUID(), range, volume, pitch);
-            } else {
-                startPacket = new StartStreamS2CPacket(streamId, pos.x, pos.y, pos.z, range, volume, pitch);
+    private static StreamSession newSession(String filename, ChunkSource source, double range, float volume, float pitch, int priority, ResourceKey<Level> dimension, Vec3 pos,
+                                            Entity entity) {
+        int handle = USED_HANDLES.nextClearBit(0);
+        USED_HANDLES.set(handle);
+        return new StreamSession(UUID.randomUUID(), handle, filename, source, range, volume, pitch, priority, dimension, pos, entity);
+    }
+
+    /**
+     * 用给定的数据源直接开始一个会话，所有玩家都是接收者，不按距离筛选也不更新听众。
+     * 供基准测试在没有世界的情况下驱动真实的发送路径（{@link #tick()}）。
+     */
+    static UUID startSession(String name, ChunkSource source, Collection<ServerPlayer> recipients) {
+        StreamSession session = newSession(name, source, 64.0, 1.0f, 1.0f, DEFAULT_PRIORITY, null, Vec3.ZERO, null);
+        for (ServerPlayer player : recipients) {
+            session.candidates.add(player.getUUID());
+            session.recipients.add(player);
+        }
+        ACTIVE_SESSIONS.put(session.id, session);
+        return session.id;
+    }
+
+    private static long liveMaxLatencyNanos() {
+        return ModConfig.LIVE_MAX_LATENCY_MS.get() * 1_000_000L;
+    }
+
+    /** 当前所有活动流的 ID。 */
+    public static Collection<UUID> getStreamIds() {
+        return new ArrayList<>(ACTIVE_SESSIONS.keySet());
+    }
+
+    /** 正在播放指定文件的流。 */
+    public static List<UUID> findStreams(String filename) {
+        List<UUID> result = new ArrayList<>();
+        ACTIVE_SESSIONS.forEach((id, session) -> {
+            if (session.filename.equals(filename)) result.add(id);
+        });
+        return result;
+    }
+
+    /** 以这些玩家为目标的流（不论玩家当前是否在范围内）。 */
+    public static List<UUID> findStreams(Collection<ServerPlayer> players) {
+        List<UUID> result = new ArrayList<>();
+        ACTIVE_SESSIONS.forEach((id, session) -> {
+            for (ServerPlayer player : players) {
+                if (session.candidates.contains(player.getUUID())) { result.add(id); break; }
             }
+        });
+        return result;
+    }
 
-            // 广播 Start Packet 给指定接收者
-            for (ServerPlayer player : recipients) {
-                PacketHandler.sendToPlayer(startPacket, player);
+    /**
+     * 流 ID 对应的会话。播放列表中的曲目（以及播放列表 ID 本身）对应列表中所有尚未移除的曲目，包括正在预读的下一首。
+     */
+    private static List<StreamSession> resolve(UUID id) {
+        StreamSession session = ACTIVE_SESSIONS.get(id);
+        if (session != null && session.playlist == null) return List.of(session);
+        UUID playlistId = session != null ? session.playlist.id : id;
+        List<StreamSession> result = new ArrayList<>();
+        for (StreamSession candidate : ACTIVE_SESSIONS.values()) {
+            if (candidate.playlist != null && candidate.playlist.id.equals(playlistId)) result.add(candidate);
+        }
+        return result;
+    }
+
+    /**
+     * 立即停止流：服务端不再读取和发送，客户端丢弃已缓冲的数据。
+     */
+    public static boolean stopStream(UUID streamId) {
+        List<StreamSession> sessions = resolve(streamId);
+        for (StreamSession session : sessions) {
+            ACTIVE_SESSIONS.remove(session.id);
+            session.stop();
+        }
+        return !sessions.isEmpty();
+    }
+
+    public static boolean pauseStream(UUID streamId) {
+        boolean changed = false;
+        for (StreamSession session : resolve(streamId)) changed |= session.setPaused(true);
+        return changed;
+    }
+
+    public static boolean resumeStream(UUID streamId) {
+        boolean changed = false;
+        for (StreamSession session : resolve(streamId)) changed |= session.setPaused(false);
+        return changed;
+    }
+
+    /**
+     * 跳转到指定秒数。需要能解析出 Vorbis 采样率，否则返回 false。
+     * 播放列表只跳转正在播放的一首（没有在等待上一首的那一首）。
+     */
+    public static boolean seekStream(UUID streamId, double seconds) {
+        for (StreamSession session : resolve(streamId)) {
+            if (!session.finished && !session.isQueued()) return session.seek(seconds);
+        }
+        return false;
+    }
+
+    /**
+     * 客户端回复本地缓存中已有该流的文件：此后只给它发送控制包，不再发送数据。
+     */
+    public static void onClientHasContent(ServerPlayer player, UUID streamId) {
+        StreamSession session = ACTIVE_SESSIONS.get(streamId);
+        if (session == null || !session.recipients.contains(player)) return;
+        session.localPlayers.add(player);
+        if (ModConfig.DEBUG_MODE.get()) {
+            LOGGER.info("Stream {}: {} plays from its local cache", streamId, player.getGameProfile().getName());
+        }
+    }
+
+    /**
+     * 客户端确认已消费的累计字节数，推进该玩家的发送窗口。
+     */
+    public static void onClientCredit(ServerPlayer player, UUID streamId, long consumedBytes) {
+        StreamSession session = ACTIVE_SESSIONS.get(streamId);
+        if (session == null) return;
+        FlowWindow window = session.windows.get(player);
+        // 不超过已发送量：重新加入前的旧确认晚到时不会把新窗口撑大
+        if (window != null) window.ack(consumedBytes);
+    }
+
+    /**
+     * 这些玩家不再接收任何流（客户端已自行停止播放，例如收到了 StopAllStreams）。
+     * 其他接收者不受影响，没有剩余目标的流会被关闭。
+     */
+    public static void removeListeners(Collection<ServerPlayer> players) {
+        Iterator<StreamSession> it = ACTIVE_SESSIONS.values().iterator();
+        while (it.hasNext()) {
+            StreamSession session = it.next();
+            for (ServerPlayer player : players) {
+                session.candidates.remove(player.getUUID());
+                session.recipients.remove(player);
+                session.localPlayers.remove(player);
+            }
+            if (session.candidates.isEmpty()) {
+                session.finished = true; // 已无人接收，不需要再发 End
+                session.close();
+                it.remove();
             }
+        }
+    }
 
-            // 创建会话
-            // 注意：这里我们做了一个优化，StreamSession 持有的是 recipients 的副本，防止外部修改
-            StreamSession session = new StreamSession(streamId, input, new ArrayList<>(recipients));
-            ACTIVE_SESSIONS.put(streamId, session);
+    /** 在线玩家的累计流量，按字节数从大到小排序。 */
+    public static List<PlayerTraffic> getPlayerTraffic() {
+        List<PlayerTraffic> traffic = new ArrayList<>(TRAFFIC_BY_PLAYER.values());
+        traffic.sort(Comparator.comparingLong(PlayerTraffic::getBytes).reversed());
+        return traffic;
+    }
 
-            if (ModConfig.LOG_BASIC_INFO.get()) {
-                LOGGER.info("Started audio stream {} for {} players", filename, recipients.size());
+    /** 会话已开始播放但本 tick 没有任何预读数据可发送的次数。 */
+    public static long getStarvedTicks() {
+        return STARVED_TICKS.get();
+    }
+
+    private static long burstBytes() {
+        return Math.max(ModConfig.PLAYER_BANDWIDTH_KBPS.get() * 1000L / 8, CHUNK_SIZE * 2L);
+    }
+
+    private static void refillBandwidth() {
+        int kbps = ModConfig.PLAYER_BANDWIDTH_KBPS.get();
+        if (kbps <= 0) {
+            PLAYER_BUDGET.clear();
+            return;
+        }
+        long perTick = kbps * 1000L / 8 / 20;
+        long burst = burstBytes();
+        PLAYER_BUDGET.replaceAll((id, tokens) -> Math.min(tokens + perTick, burst));
+    }
+
+    private static boolean hasBandwidth(Collection<ServerPlayer> players) {
+        if (ModConfig.PLAYER_BANDWIDTH_KBPS.get() <= 0) return true;
+        long burst = burstBytes();
+        for (ServerPlayer player : players) {
+            if (PLAYER_BUDGET.getOrDefault(player.getUUID(), burst) < 0) return false;
+        }
+        return true;
+    }
+
+    /** 流控窗口（字节），0 表示不启用。 */
+    private static int flowWindowBytes() {
+        int kb = ModConfig.FLOW_WINDOW_KB.get();
+        return kb <= 0 ? 0 : Math.max(kb * 1024, MIN_FLOW_WINDOW);
+    }
+
+    /** 流控确认超时（纳秒），0 表示不超时。 */
+    private static long flowAckTimeoutNanos() {
+        return ModConfig.FLOW_ACK_TIMEOUT_SECONDS.get() * 1_000_000_000L;
+    }
+
+    private static int maxFrameBytes() {
+        return ModConfig.MAX_FRAME_KB.get() * 1024;
+    }
+
+    /** 记录一个数据块排队发给了这些玩家（每个玩家各收到一份）。 */
+    private static void recordSent(Collection<ServerPlayer> players, int bytes) {
+        int count = players.size();
+        tickBytes += (long) bytes * count;
+        BYTES_SENT.add((long) bytes * count);
+        for (ServerPlayer player : players) {
+            TICK_BYTES_BY_PLAYER.merge(player.getUUID(), (long) bytes, Long::sum);
+            TRAFFIC_BY_PLAYER.computeIfAbsent(player.getUUID(), PlayerTraffic::new).bytes += bytes;
+        }
+    }
+
+    /** 记录一个数据帧发给了这些玩家，由 {@link FrameBatcher} 调用。 */
+    static void recordFrame(Collection<ServerPlayer> players) {
+        int count = players.size();
+        tickPackets += count;
+        PACKETS_SENT.add(count);
+        for (ServerPlayer player : players) {
+            TRAFFIC_BY_PLAYER.computeIfAbsent(player.getUUID(), PlayerTraffic::new).packets++;
+        }
+    }
+
+    private static void consumeBandwidth(Collection<ServerPlayer> players, int bytes) {
+        if (ModConfig.PLAYER_BANDWIDTH_KBPS.get() <= 0) return;
+        long burst = burstBytes();
+        for (ServerPlayer player : players) {
+            PLAYER_BUDGET.merge(player.getUUID(), burst - bytes, (tokens, ignored) -> tokens - bytes);
+        }
+    }
+
+    /** 播放列表：按顺序播放的文件，整个列表再重复 {@code loops} 遍（-1 为无限）。只在服务端主线程访问。 */
+    private static final class Playlist {
+        private final UUID id;
+        private final List<String> files;
+        private int index = 0;
+        private int loops;
+        // 连续打不开的曲目数，整个列表都打不开时停止
+        private int failures = 0;
+
+        private Playlist(UUID id, List<String> files, int loops) {
+            this.id = id;
+            this.files = files;
+            this.loops = Math.max(-1, loops);
+        }
+
+        /** 下一首的文件名，列表播完且不再重复时为 null。 */
+        String next() {
+            if (++index >= files.size()) {
+                if (loops == 0) return null;
+                if (loops > 0) loops--;
+                index = 0;
             }
+            return files.get(index);
+        }
+    }
+
+    /** 一个接收者的流控状态：发给它的字节数与它确认消费的字节数，只在服务端主线程访问。 */
+    private static final class FlowWindow {
+        private long sent;
+        private long acked;
+        // 窗口用完、开始等待确认的时刻；正常的客户端按消费进度确认，窗口不会长时间用完
+        private boolean blocked;
+        private long blockedNanos;
+
+        void ack(long consumed) {
+            long value = Math.min(consumed, sent);
+            if (value <= acked) return;
+            acked = value;
+            blocked = false;
+        }
+
+        void block(long now) {
+            if (blocked) return;
+            blocked = true;
+            blockedNanos = now;
+        }
 
-        } catch (IOException e) {
-            LOGGER.error("Failed to start stream", e);
+        /** 窗口用完后超过 {@code timeout} 仍没有新的确认。 */
+        boolean timedOut(long now, long timeout) {
+            return blocked && now - blockedNanos > timeout;
+        }
+
+        boolean allows(int bytes, int window) {
+            // 按页对齐的数据块可能比窗口还大，没有未确认数据时总是允许，避免永远发不出去
+            return sent == acked || sent - acked + bytes <= window;
         }
     }
 
     private static class StreamSession {
         private final UUID id;
-        private final InputStream input;
-        private final List<ServerPlayer> recipients;
-        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private final int handle;
+        private final String filename;
+        private final ChunkSource source;
+        private final float volume;
+        private final float pitch;
+        private final int priority;
+        // 音源位置：定点音源固定不变，实体音源每次更新听众时刷新
+        private final ResourceKey<Level> dimension;
+        private Vec3 position;
+        private final Entity entity;
+        private final double range;
+        // 选择器选中的玩家（按 UUID，重新登录后仍有效）与当前实际接收数据的玩家
+        private final Set<UUID> candidates = new HashSet<>();
+        private final Set<ServerPlayer> recipients = new LinkedHashSet<>();
+        // 从本地缓存播放的接收者，只收控制包不收数据
+        private final Set<ServerPlayer> localPlayers = new HashSet<>();
+        // 各数据接收者的流控窗口，收到 Start Packet 时重置（客户端新建的流从 0 开始计数）
+        private final Map<ServerPlayer, FlowWindow> windows = new HashMap<>();
+        private boolean started = false;
+        private boolean finished = false;
+        private boolean paused = false;
+        private long startNanos;
+        // 开始播放的位置（秒），数据源就绪时跳转过去
+        private double startSeconds;
+        private long pauseNanos;
+        private int sentThisTick;
+        private int nextSequence = 0;
+        // 实时输入已丢弃的块数，变化时跳过一个序号让客户端重新同步
+        private long droppedChunks = 0;
+        // 之后还要重播的遍数（-1 为无限），已播完各遍的总采样数，以及本遍最后发出的 granule
+        private int loops = 0;
+        private long loopBase = 0;
+        private long lastGranule = 0;
+        // 超前发出、尚未播到的数据块，补发给中途加入的玩家
+        private final RecentChunks recent = new RecentChunks();
+        // 所属播放列表与列表中的上一首；上一首的预计结束时刻，数据源就绪后从这一刻起计时
+        private Playlist playlist;
+        private UUID follows;
+        private long scheduledStart = 0;
+        // 上一首还在客户端上播放（本曲只是在预读），到达 scheduledStart 时清除
+        private boolean queued = false;
 
-        public StreamSession(UUID id, InputStream input, List<ServerPlayer> recipients) {
+        public StreamSession(UUID id, int handle, String filename, ChunkSource source, double range, float volume, float pitch, int priority,
+                             ResourceKey<Level> dimension, Vec3 position, Entity entity) {
             this.id = id;
-            this.input = input;
-            this.recipients = recipients;
+            this.handle = handle;
+            this.filename = filename;
+            this.source = source;
+            this.volume = volume;
+            this.pitch = pitch;
+            this.priority = priority;
+            this.dimension = dimension;
+            this.position = position;
+            this.entity = entity;
+            this.range = range;
+        }
+
+        private StartStreamS2CPacket buildStartPacket(long startSample) {
+            byte[] hash = source.getContentHash();
+            long size = source.getContentSize();
+            if (entity != null) {
+                return new StartStreamS2CPacket(id, handle, entity.getUUID(), entity.getId(), (float) range, volume, pitch, priority, hash, size, startSample,
+                        source.getCodec(), flowWindowBytes(), loops, follows);
+            }
+            return new StartStreamS2CPacket(id, handle, position.x, position.y, position.z, (float) range, volume, pitch, priority, hash, size, startSample,
+                    source.getCodec(), flowWindowBytes(), loops, follows);
+        }
+
+        /** 按实时进度估算的当前播放位置（采样），流信息未知时为 0。 */
+        private long currentSample() {
+            OggPageScanner.StreamInfo info = source.getInfo();
+            if (!started || info == null) return 0;
+            long now = paused ? pauseNanos : System.nanoTime();
+            return (long) ((now - startNanos) / 1_000_000_000.0 * pitch * info.sampleRate());
+        }
+
+        /** 需要接收数据包的玩家：排除从本地缓存播放的玩家。 */
+        private Collection<ServerPlayer> dataRecipients() {
+            if (localPlayers.isEmpty()) return recipients;
+            List<ServerPlayer> result = new ArrayList<>(recipients.size());
+            for (ServerPlayer player : recipients) {
+                if (!localPlayers.contains(player)) result.add(player);
+            }
+            return result;
         }
 
+        /**
+         * 每 tick 开始时调用：清理离线玩家、在数据源就绪后发送 Start Packet。返回 false 表示会话应被移除。
+         */
         public boolean tick() {
-            try {
-                recipients.removeIf(ServerPlayer::isRemoved);
-                if (recipients.isEmpty()) return false;
-
-                for (int i = 0; i < PACKETS_PER_TICK; i++) {
-                    int read = input.read(buffer);
-                    if (read == -1) {
-                        finish();
-                        return false;
-                    }
-
-                    byte[] dataToSend = (read == CHUNK_SIZE) ? buffer : Arrays.copyOf(buffer, read);
-                    StreamDataS2CPacket packet = new StreamDataS2CPacket(id, dataToSend);
-
-                    for (ServerPlayer player : recipients) {
-                        PacketHandler.sendToPlayer(packet, player);
-                    }
-
-                    if (read < CHUNK_SIZE) {
-                        finish();
-                        return false;
-                    }
+            sentThisTick = 0;
+            recipients.removeIf(ServerPlayer::isRemoved);
+            localPlayers.removeIf(ServerPlayer::isRemoved);
+            windows.keySet().retainAll(recipients);
+            if (finished) return false;
+            evictStalled();
+            if (source.hasFailed()) {
+                // 播放列表跳过打不开的曲目，整个列表都打不开时停止
+                if (playlist != null && ++playlist.failures < playlist.files.size()) startNext(Math.max(scheduledStart, System.nanoTime()));
+                return false;
+            }
+
+            if (!started && source.isOpen()) {
+                // 需要从中途开始时先让数据源跳转，客户端从 Start Packet 携带的位置开始计时
+                long startSample = startSeconds > 0 ? seekSource(startSeconds) : 0;
+                if (startSample < 0) startSeconds = 0;
+                // 广播 Start Packet 给范围内的接收者
+                PacketHandler.sendToPlayers(buildStartPacket(Math.max(0, startSample)), recipients);
+                for (ServerPlayer player : recipients) windows.put(player, new FlowWindow());
+                started = true;
+                if (playlist != null) playlist.failures = 0;
+                // 预读的下一首从上一首的预计结束时刻起计时，超前窗口同样从那一刻算起
+                startNanos = Math.max(scheduledStart, System.nanoTime()) - (long) (startSeconds / pitch * 1_000_000_000L);
+                pauseNanos = startNanos;
+                if (paused) PacketHandler.sendToPlayers(new StreamControlS2CPacket(handle, StreamControlS2CPacket.Action.PAUSE), recipients);
+                if (ModConfig.DEBUG_MODE.get()) LOGGER.info("Stream {} pacing with {}", id, source.getInfo());
+            }
+            return true;
+        }
+
+        /**
+         * 窗口用完后超时仍没有确认的接收者视为卡住（客户端不再回复确认）：先发出它排队的数据，再发送 End 并移出接收者，
+         * 其余接收者不再被它拖住。仍在范围内时下次更新听众会重新加入，收到新的 Start 与头部后从当前进度重新同步。
+         * 暂停期间客户端不消费数据，不计超时。
+         */
+        private void evictStalled() {
+            long timeout = flowAckTimeoutNanos();
+            if (!started || paused || timeout <= 0 || flowWindowBytes() <= 0) return;
+            long now = System.nanoTime();
+            List<ServerPlayer> stalled = new ArrayList<>();
+            windows.forEach((player, window) -> {
+                if (window.timedOut(now, timeout)) stalled.add(player);
+            });
+            if (stalled.isEmpty()) return;
+            for (ServerPlayer player : stalled) {
+                recipients.remove(player);
+                localPlayers.remove(player);
+                windows.remove(player);
+            }
+            BATCHER.flush(stalled, maxFrameBytes());
+            PacketHandler.sendToPlayers(new EndStreamS2CPacket(handle), stalled);
+            FLOW_EVICTED.add(stalled.size());
+            if (ModConfig.DEBUG_MODE.get()) LOGGER.info("Stream {}: {} sent no credit for {}s, resyncing", id, stalled.size(), ModConfig.FLOW_ACK_TIMEOUT_SECONDS.get());
+        }
+
+        /**
+         * 暂停时停止发送，恢复时把暂停的时长加到起始时间上，限速进度从暂停处继续。
+         */
+        public boolean setPaused(boolean paused) {
+            if (finished || this.paused == paused) return false;
+            this.paused = paused;
+            long now = System.nanoTime();
+            if (paused) {
+                pauseNanos = now;
+            } else if (started) {
+                startNanos += now - pauseNanos;
+                // 暂停期间没有确认是正常的，确认超时从恢复时重新计
+                for (FlowWindow window : windows.values()) window.blockedNanos = now;
+            }
+            if (started) {
+                StreamControlS2CPacket.Action action = paused ? StreamControlS2CPacket.Action.PAUSE : StreamControlS2CPacket.Action.RESUME;
+                PacketHandler.sendToPlayers(new StreamControlS2CPacket(handle, action), recipients);
+            }
+            return true;
+        }
+
+        public boolean seek(double seconds) {
+            if (finished || !started) return false;
+            long granule = seekSource(seconds);
+            if (granule < 0) return false;
+
+            // 让限速进度与新位置对齐，之前播完的各遍仍计入进度
+            long now = System.nanoTime();
+            double loopSeconds = (double) loopBase / source.getInfo().sampleRate();
+            startNanos = now - (long) ((seconds + loopSeconds) / pitch * 1_000_000_000L);
+            if (paused) pauseNanos = now;
+            recent.clear();
+            PacketHandler.sendToPlayers(new StreamControlS2CPacket(handle, StreamControlS2CPacket.Action.FLUSH, granule), recipients);
+            return true;
+        }
+
+        /** 让数据源跳转到指定秒数，返回目标 granule；采样率未知或不支持跳转时返回 -1。 */
+        private long seekSource(double seconds) {
+            OggPageScanner.StreamInfo info = source.getInfo();
+            if (info == null || info.sampleRate() <= 0) return -1;
+            // 头部页的 granule 为 0，目标至少为 1 以跳过它们（客户端解码器已经有头部了）
+            long granule = Math.max(1, (long) (seconds * info.sampleRate()));
+            return source.seek(granule) ? granule : -1;
+        }
+
+        /** 立即停止，由 {@link ServerStreamManager#stopStream} 在移出活动列表后调用。 */
+        private void stop() {
+            if (started && !finished) {
+                PacketHandler.sendToPlayers(new StreamControlS2CPacket(handle, StreamControlS2CPacket.Action.STOP), recipients);
+            }
+            finished = true;
+            close();
+        }
+
+        /**
+         * 按距离重新计算接收者：离开范围的玩家收到 End Packet，走进范围的候选玩家从当前进度加入。
+         * 没有接收者时会话仍按实时进度推进，这样之后加入的玩家听到的是"正在播放"的位置。
+         */
+        public void updateInterest(MinecraftServer server) {
+            if (finished) return;
+            if (entity != null && !entity.isRemoved()) position = entity.position();
+
+            List<ServerPlayer> left = new ArrayList<>();
+            Iterator<ServerPlayer> it = recipients.iterator();
+            while (it.hasNext()) {
+                ServerPlayer player = it.next();
+                if (!isInRange(player, range + LEAVE_MARGIN)) {
+                    it.remove();
+                    localPlayers.remove(player);
+                    left.add(player);
+                }
+            }
+            if (started && !left.isEmpty()) PacketHandler.sendToPlayers(new EndStreamS2CPacket(handle), left);
+
+            List<ServerPlayer> joined = new ArrayList<>();
+            LISTENER_INDEX.forEachNear(dimension, position, range, player -> {
+                if (candidates.contains(player.getUUID()) && !recipients.contains(player) && isInRange(player, range)) {
+                    joined.add(player);
+                }
+            });
+            for (ServerPlayer player : joined) join(player);
+
+            if (ModConfig.DEBUG_MODE.get() && (!left.isEmpty() || !joined.isEmpty())) {
+                LOGGER.info("Stream {}: {} joined, {} left, {} listening", id, joined.size(), left.size(), recipients.size());
+            }
+
+            // 候选玩家全部离线后没有人能再加入，提前结束
+            if (recipients.isEmpty() && candidates.stream().noneMatch(uuid -> server.getPlayerList().getPlayer(uuid) != null)) {
+                finished = true;
+            }
+        }
+
+        private void join(ServerPlayer player) {
+            // 头部已部分发出但还没读完时无法补发，等下次更新听众再加入
+            List<AudioChunk> header = source.getHeaderChunks();
+            if (started && nextSequence > 0 && header == null) return;
+            recipients.add(player);
+            if (!started) return; // 数据源就绪时会和其他接收者一起收到 Start Packet
+
+            // 先补发头部块（它们总是以序号 0 起发出），再补发当前进度所在的块起已经超前发出的数据，之后接着会话发出的块；
+            // 序号的跳跃让客户端知道需要重新同步。数据块按页对齐，解码器不必在残缺的页中搜索同步点
+            List<ServerPlayer> target = List.of(player);
+            long position = currentSample();
+            PacketHandler.sendToPlayers(buildStartPacket(Math.max(0, position - loopBase)), target);
+            if (paused) PacketHandler.sendToPlayers(new StreamControlS2CPacket(handle, StreamControlS2CPacket.Action.PAUSE), target);
+            windows.put(player, new FlowWindow());
+            if (nextSequence == 0) return; // 还没有发出任何数据，直接从头接收
+            for (int i = 0; i < header.size(); i++) {
+                deliver(target, i, header.get(i).data());
+            }
+            for (RecentChunks.Entry entry : recent.from(position)) {
+                if (entry.sequence() >= header.size()) deliver(target, entry.sequence(), entry.data());
+            }
+        }
+
+        private boolean isInRange(ServerPlayer player, double distance) {
+            if (dimension != null && player.level().dimension() != dimension) return false;
+            return player.position().distanceToSqr(position) <= distance * distance;
+        }
+
+        /**
+         * 尝试发送下一个数据块。返回 false 表示本 tick 内不再发送（超前于播放进度、带宽不足、暂无数据或已结束）。
+         */
+        public boolean sendNext() {
+            if (!started || finished || paused) return false;
+
+            AudioChunk chunk = source.peek();
+            if (chunk == null) {
+                if (source.isExhausted()) {
+                    if (!rewind()) end();
+                } else if (sentThisTick == 0) {
+                    STARVED_TICKS.incrementAndGet();
                 }
-                return true;
-            } catch (IOException e) {
                 return false;
             }
+            if (!isWithinPace(chunk)) return false;
+            Collection<ServerPlayer> listeners = dataRecipients();
+            Collection<ServerPlayer> targets = withCredit(listeners, chunk.data().length);
+            // 所有接收者都用完窗口时等待确认；只有部分玩家跟不上时跳过他们，序号跳跃会让其客户端重新同步
+            if (targets.isEmpty() && !listeners.isEmpty()) return false;
+            if (!hasBandwidth(targets)) return false;
+
+            source.poll();
+            long dropped = source.getDroppedChunks();
+            if (dropped != droppedChunks) {
+                droppedChunks = dropped;
+                if (nextSequence > 0) nextSequence++;
+            }
+            if (nextSequence == 0) {
+                // 流式读取的数据源不在队列中给出头部块，开始发送前就跳转过时也已越过头部：先补上头部块，保证序号 0 起总是头部
+                List<AudioChunk> header = source.getHeaderChunks();
+                if (header != null && !header.isEmpty() && header.get(0) != chunk) {
+                    for (AudioChunk headerChunk : header) deliver(targets, nextSequence++, headerChunk.data());
+                }
+            }
+            deliver(targets, nextSequence++, chunk.data(), source.getLastArrivalNanos());
+            if (chunk.granule() > 0) {
+                lastGranule = chunk.granule();
+                // 实时输入没有超前量；流信息未知时无法按进度定位，都不保留
+                if (!source.isLive() && source.getInfo() != null) {
+                    recent.add(nextSequence - 1, loopBase + lastGranule, chunk.data());
+                    recent.trim(currentSample());
+                }
+            }
+            if (targets.size() < listeners.size()) FLOW_SKIPPED.add(listeners.size() - targets.size());
+            sentThisTick++;
+
+            if (source.isExhausted() && !rewind()) {
+                end();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 还要循环时让数据源回到第一个数据块（头部块不重发），客户端解码器接着解码下一遍的数据。
+         * 流信息未知或不支持跳转时不循环。
+         */
+        private boolean rewind() {
+            if (loops == 0 || lastGranule <= 0 || !source.seek(1)) return false;
+            if (loops > 0) loops--;
+            loopBase += lastGranule;
+            lastGranule = 0;
+            return true;
+        }
+
+        /** 本曲（包括所有循环）的数据都已发出：通知客户端，并开始预读播放列表的下一首。 */
+        private void end() {
+            finish();
+            startNext(endNanos());
+        }
+
+        /** 按已发出的采样数估算的播放结束时刻，流信息未知时为当前时刻。 */
+        private long endNanos() {
+            OggPageScanner.StreamInfo info = source.getInfo();
+            if (info == null || info.sampleRate() <= 0) return System.nanoTime();
+            return startNanos + (long) ((double) (loopBase + lastGranule) / info.sampleRate() / pitch * 1_000_000_000L);
+        }
+
+        /**
+         * 创建播放列表下一首的会话：此时客户端还有约 streamLeadSeconds 秒的数据没播完，下一首在这段时间里预读，
+         * 从 {@code startAt} 起按实时进度限速。候选与接收者沿用本曲的，之后照常按距离更新。
+         */
+        private void startNext(long startAt) {
+            if (playlist == null) return;
+            String next = playlist.next();
+            if (next == null) return;
+            StreamSession session = newSession(next, false, range, volume, pitch, priority, dimension, position, entity);
+            session.playlist = playlist;
+            // 本曲没能开始时客户端不知道它，下一首接在本曲的上一首后面
+            session.follows = started ? id : follows;
+            session.scheduledStart = startAt;
+            session.queued = true;
+            session.candidates.addAll(candidates);
+            session.recipients.addAll(recipients);
+            ACTIVE_SESSIONS.put(session.id, session);
+            if (ModConfig.DEBUG_MODE.get()) LOGGER.info("Playlist {}: queued {} after {}", playlist.id, next, filename);
+        }
+
+        /**
+         * 在等待播放列表中的上一首在客户端播完。上一首的数据发完（finished）时本曲才被创建，
+         * 所以不能看上一首的状态，而是看是否已到达本曲的预计开始时刻。
+         */
+        private boolean isQueued() {
+            if (queued && System.nanoTime() >= scheduledStart) queued = false;
+            return queued;
+        }
+
+        /** 数据块在 tick 结束时合并成帧发出，并计入带宽与流控窗口；没有接收者时只推进进度。 */
+        private void deliver(Collection<ServerPlayer> targets, int sequence, byte[] data) {
+            deliver(targets, sequence, data, -1);
+        }
+
+        /** 同上，{@code arrivalNanos} 为实时输入的数据块到达服务端的时刻，帧发出时据此记录延迟；其余为 -1。 */
+        private void deliver(Collection<ServerPlayer> targets, int sequence, byte[] data, long arrivalNanos) {
+            BATCHER.add(targets, handle, sequence, data, arrivalNanos);
+            recordSent(targets, data.length);
+            consumeBandwidth(targets, data.length);
+            for (ServerPlayer player : targets) {
+                FlowWindow window = windows.get(player);
+                if (window != null) window.sent += data.length;
+            }
+        }
+
+        /** 窗口内还能再收 {@code bytes} 字节的接收者；未启用流控时原样返回。 */
+        private Collection<ServerPlayer> withCredit(Collection<ServerPlayer> players, int bytes) {
+            int window = flowWindowBytes();
+            if (window <= 0) return players;
+            List<ServerPlayer> result = new ArrayList<>(players.size());
+            long now = System.nanoTime();
+            for (ServerPlayer player : players) {
+                FlowWindow flow = windows.get(player);
+                if (flow == null || flow.allows(bytes, window)) result.add(player);
+                else flow.block(now);
+            }
+            return result;
+        }
+
+        /**
+         * 按实时播放进度（考虑 pitch）加上预留的超前窗口限速；无法解析 Vorbis 头时沿用固定速率。
+         */
+        private boolean isWithinPace(AudioChunk chunk) {
+            if (source.isLive()) return true; // 实时输入本身就按实时速度到达
+            OggPageScanner.StreamInfo info = source.getInfo();
+            if (info == null || info.sampleRate() <= 0) return sentThisTick < PACKETS_PER_TICK;
+
+            double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0 * pitch + ModConfig.STREAM_LEAD_SECONDS.get();
+            return loopBase + chunk.granule() <= seconds * info.sampleRate();
         }
 
         private void finish() {
-            EndStreamS2CPacket packet = new EndStreamS2CPacket(id);
-            for (ServerPlayer player : recipients) PacketHandler.sendToPlayer(packet, player);
+            finished = true;
+            // End 包立即发出，先把这些玩家排队中的数据发掉，保证最后的数据块在 End 之前到达
+            BATCHER.flush(recipients, maxFrameBytes());
+            PacketHandler.sendToPlayers(new EndStreamS2CPacket(handle), recipients);
         }
 
         public void close() {
-            try { input.close(); } catch (IOException ignored) {}
+            // 读取失败等原因提前结束时也要通知客户端，句柄随后会被复用
+            if (started && !finished) finish();
+            source.close();
+            USED_HANDLES.clear(handle);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,157 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import cn.tdogmc.tdogmc_voice.config.ModConfig;
+import cn.tdogmc.tdogmc_voice.util.ContentHash;
+import cn.tdogmc.tdogmc_voice.util.SoundFileCache;
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 服务端共享的分块文件缓存。
+ * 同一个文件被多次播放时只从磁盘读取一次，所有会话共享同一组不可变的数据块。
+ * 容量按总字节数限制，按 LRU 淘汰；文件变更时由 SoundFileCache 的监听线程使其失效，
+ * 查找时还会核对修改时间与大小，与磁盘不一致的条目重新读取。
+ */
+public class SoundChunkCache {
+    private static final Logger LOGGER = LogUtils.getLogger();
+
+    // accessOrder = true，迭代顺序即 LRU 顺序
+    private static final Map<String, Entry> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+    // 不进入分块缓存的大文件只记住摘要，同样由 ENTRIES 的锁保护
+    private static final Map<String, HashEntry> HASHES = new HashMap<>();
+    private static long totalBytes = 0;
+    private static long generation = 0;
+
+    /**
+     * 预先按页分好块的文件内容，块数组与 info 均不可变，可被多个会话共享。
+     * 前 {@code headerChunks} 块只含头部页。
+     */
+    record CachedSound(AudioChunk[] chunks, int headerChunks, OggPageScanner.StreamInfo info, byte[] hash) {}
+
+    private record Entry(FileTime mtime, long size, CachedSound sound) {}
+
+    private record HashEntry(FileTime mtime, long size, byte[] hash) {}
+
+    /**
+     * 获取文件的分块内容。未命中时读取整个文件并放入缓存；
+     * 文件超过单文件上限或缓存被禁用时返回 null，调用方应直接流式读取。
+     */
+    static CachedSound get(String filename, Path path) throws IOException {
+        // 缓存按文件名 + 修改时间 + 大小命中，监听线程漏掉变更事件（部分文件系统、事件队列溢出）时也不会用到旧内容
+        FileTime mtime = Files.getLastModifiedTime(path);
+        long size = Files.size(path);
+        long loadGeneration;
+        synchronized (ENTRIES) {
+            Entry entry = ENTRIES.get(filename);
+            if (entry != null) {
+                if (entry.mtime().equals(mtime) && entry.size() == size) return entry.sound();
+                ENTRIES.remove(filename);
+                totalBytes -= entry.size();
+                if (ModConfig.DEBUG_MODE.get()) LOGGER.info("Cached {} is stale (mtime {} -> {}), reloading", filename, entry.mtime(), mtime);
+            }
+            loadGeneration = generation;
+        }
+
+        long maxTotal = ModConfig.CHUNK_CACHE_MB.get() * 1024L * 1024L;
+        if (size > maxTotal || size > ModConfig.CHUNK_CACHE_MAX_FILE_MB.get() * 1024L * 1024L) return null;
+
+        CachedSound sound = readChunks(path);
+        boolean unchanged = mtime.equals(Files.getLastModifiedTime(path)) && size == Files.size(path);
+
+        synchronized (ENTRIES) {
+            // 读取期间文件被修改过，结果可能已过期，只用这一次不入缓存
+            if (loadGeneration != generation || !unchanged) return sound;
+
+            Entry previous = ENTRIES.put(filename, new Entry(mtime, size, sound));
+            if (previous != null) totalBytes -= previous.size();
+            totalBytes += size;
+            evict(maxTotal);
+        }
+
+        if (ModConfig.DEBUG_MODE.get()) {
+            LOGGER.info("Cached {} ({} bytes, {} chunks, {})", filename, size, sound.chunks().length, sound.info());
+        }
+        return sound;
+    }
+
+    /**
+     * 文件内容的摘要，用于客户端的本地缓存。优先使用文件索引中已解析的摘要；
+     * 否则完整读一遍文件，按修改时间与大小记忆结果。
+     */
+    static byte[] contentHash(String filename, Path path) throws IOException {
+        FileTime mtime = Files.getLastModifiedTime(path);
+        long size = Files.size(path);
+        // WAV 发送的是转码结果，索引中的摘要属于源文件
+        SoundFileCache.SoundInfo indexed = WavTranscoder.isWav(filename) ? null : SoundFileCache.getInfo(filename);
+        if (indexed != null && indexed.hash() != null && indexed.size() == size && indexed.lastModified() == mtime.toMillis()) {
+            return indexed.hash();
+        }
+        synchronized (ENTRIES) {
+            HashEntry entry = HASHES.get(filename);
+            if (entry != null && entry.mtime().equals(mtime) && entry.size() == size) return entry.hash();
+        }
+
+        byte[] hash = ContentHash.of(path);
+
+        synchronized (ENTRIES) {
+            HASHES.put(filename, new HashEntry(mtime, size, hash));
+        }
+        return hash;
+    }
+
+    public static void invalidate(String filename) {
+        synchronized (ENTRIES) {
+            generation++;
+            HASHES.remove(filename);
+            Entry removed = ENTRIES.remove(filename);
+            if (removed != null) {
+                totalBytes -= removed.size();
+                if (ModConfig.DEBUG_MODE.get()) LOGGER.info("Invalidated cached {} (mtime {})", filename, removed.mtime());
+            }
+        }
+    }
+
+    private static void evict(long maxTotal) {
+        Iterator<Entry> it = ENTRIES.values().iterator();
+        while (totalBytes > maxTotal && it.hasNext()) {
+            totalBytes -= it.next().size();
+            it.remove();
+        }
+    }
+
+    /** 缓存中所有文件的总字节数。 */
+    static long getCachedBytes() {
+        synchronized (ENTRIES) {
+            return totalBytes;
+        }
+    }
+
+    private static CachedSound readChunks(Path path) throws IOException {
+        long start = System.nanoTime();
+        List<AudioChunk> chunks = new ArrayList<>();
+        MessageDigest digest = ContentHash.newDigest();
+        OggPageChunker chunker;
+        // 分块器会一直读到文件末尾，摘要覆盖全部内容
+        try (InputStream input = new BufferedInputStream(new DigestInputStream(Files.newInputStream(path), digest))) {
+            chunker = new OggPageChunker(input);
+            for (AudioChunk chunk = chunker.next(); chunk != null; chunk = chunker.next()) chunks.add(chunk);
+        }
+        ServerStreamManager.FILE_LOAD_US.recordSince(start);
+        return new CachedSound(chunks.toArray(new AudioChunk[0]), chunker.getHeaderChunks().size(), chunker.getInfo(), digest.digest());
+    }
+}
@@ -0,0 +1,230 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import cn.tdogmc.tdogmc_voice.util.ContentHash;
+import cn.tdogmc.tdogmc_voice.util.ImaAdpcm;
+import cn.tdogmc.tdogmc_voice.util.Metrics;
+import cn.tdogmc.tdogmc_voice.util.OggCrc;
+import cn.tdogmc.tdogmc_voice.util.SoundFileCache;
+import cn.tdogmc.tdogmc_voice.util.WavFormat;
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 把 WAV 转码为 Ogg 封装的 IMA ADPCM（约为 16bit PCM 的四分之一），之后与 .ogg 文件走同样的分块、限速与跳转流程。
+ * 转码在独立的后台线程中进行，结果按源文件的内容摘要保存在 {@link #OUTPUT_DIR} 中，
+ * 同样的内容只转码一次，服务器重启后仍然有效；源文件修改后摘要改变，自然会重新转码。
+ */
+final class WavTranscoder {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    static final Path OUTPUT_DIR = Path.of("tdogmc_voice_transcoded");
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Voice-Transcode-Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Metrics.Histogram TRANSCODE_US = Metrics.SERVER.histogram("io.transcode_us");
+
+    // 按源文件记住转码任务，文件未变时直接复用（包括失败的结果，避免反复转码损坏的文件）
+    private static final Map<Path, Job> JOBS = new ConcurrentHashMap<>();
+
+    private record Job(FileTime mtime, long size, CompletableFuture<Path> result) {}
+
+    private WavTranscoder() {}
+
+    /** 转码结果的跳转索引旁路文件，与结果放在同一目录。 */
+    static Path indexPath(Path output) {
+        String name = output.getFileName().toString();
+        return output.resolveSibling(name.substring(0, name.length() - ".ogg".length()) + ".idx");
+    }
+
+    static boolean isWav(String filename) {
+        return filename.toLowerCase(Locale.ROOT).endsWith(".wav");
+    }
+
+    /** 返回转码结果的路径，未转码过的文件会提交到后台线程。 */
+    static CompletableFuture<Path> transcode(String filename, Path wav) {
+        FileTime mtime;
+        long size;
+        try {
+            mtime = Files.getLastModifiedTime(wav);
+            size = Files.size(wav);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return JOBS.compute(wav, (key, job) -> job != null && job.mtime().equals(mtime) && job.size() == size ? job
+                : new Job(mtime, size, CompletableFuture.supplyAsync(() -> encode(filename, wav, mtime, size), EXECUTOR))).result();
+    }
+
+    private static Path encode(String filename, Path wav, FileTime mtime, long size) {
+        long start = System.nanoTime();
+        Path tmp = null;
+        try {
+            // 文件索引已算好的摘要可以直接用，省去一次完整读取
+            SoundFileCache.SoundInfo indexed = SoundFileCache.getInfo(filename);
+            byte[] hash = indexed != null && indexed.hash() != null && indexed.size() == size && indexed.lastModified() == mtime.toMillis()
+                    ? indexed.hash() : ContentHash.of(wav);
+            Path output = OUTPUT_DIR.resolve(HexFormat.of().formatHex(hash) + ".ogg");
+            if (Files.isRegularFile(output)) return output;
+
+            Files.createDirectories(OUTPUT_DIR);
+            tmp = Files.createTempFile(OUTPUT_DIR, "transcode", ".tmp");
+            WavFormat format;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(wav));
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                format = WavFormat.read(in);
+                if (!format.isSupported()) throw new IOException("Unsupported WAV format " + format);
+                writeStream(in, format, out, hash);
+            }
+            try {
+                Files.move(tmp, output, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+            TRANSCODE_US.recordSince(start);
+            LOGGER.info("Transcoded {} ({} Hz, {} ch, {} bit) to IMA ADPCM: {} -> {} bytes in {} ms", filename, format.sampleRate(),
+                    format.channels(), format.bitsPerSample(), size, Files.size(output), (System.nanoTime() - start) / 1_000_000);
+            return output;
+        } catch (IOException e) {
+            if (tmp != null) {
+                try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+            }
+            LOGGER.error("Failed to transcode {}", filename, e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** 逐块读取采样并编码，每 {@link ImaAdpcm#BLOCKS_PER_PAGE} 个块写成一页。 */
+    private static void writeStream(InputStream in, WavFormat format, OutputStream out, byte[] hash) throws IOException {
+        int channels = format.channels();
+        int frameBytes = format.blockAlign();
+        long remaining = format.dataSize() < 0 ? Long.MAX_VALUE : format.dataSize();
+
+        OggPageWriter writer = new OggPageWriter(out, (hash[0] & 0xFF) | (hash[1] & 0xFF) << 8 | (hash[2] & 0xFF) << 16 | (hash[3] & 0xFF) << 24);
+        byte[] idHeader = ImaAdpcm.idHeader(channels, format.sampleRate());
+        writer.addPacket(idHeader, idHeader.length);
+        writer.flush(0, false);
+
+        ImaAdpcm.Encoder encoder = new ImaAdpcm.Encoder(channels);
+        byte[] raw = new byte[ImaAdpcm.FRAMES_PER_BLOCK * frameBytes];
+        short[] pcm = new short[ImaAdpcm.FRAMES_PER_BLOCK * channels];
+        byte[] block = new byte[ImaAdpcm.blockSize(channels, ImaAdpcm.FRAMES_PER_BLOCK)];
+        long granule = 0;
+        while (remaining > 0) {
+            int want = (int) Math.min(raw.length, remaining);
+            int read = in.readNBytes(raw, 0, want);
+            int frames = read / frameBytes;
+            if (frames == 0) break;
+            remaining -= read;
+
+            toPcm16(raw, frames * channels, format, pcm);
+            // 先写出已满的一页，最后一页留到结尾带上 EOS 标记
+            if (writer.packets == ImaAdpcm.BLOCKS_PER_PAGE) writer.flush(granule, false);
+            writer.addPacket(block, encoder.encodeBlock(pcm, frames, block, 0));
+            granule += frames;
+            if (read < want) break;
+        }
+        writer.flush(granule, true);
+    }
+
+    private static void toPcm16(byte[] raw, int samples, WavFormat format, short[] out) {
+        switch (format.bitsPerSample()) {
+            case 8 -> {
+                for (int i = 0; i < samples; i++) out[i] = (short) (((raw[i] & 0xFF) - 128) << 8);
+            }
+            case 16 -> {
+                for (int i = 0; i < samples; i++) out[i] = (short) ((raw[2 * i] & 0xFF) | raw[2 * i + 1] << 8);
+            }
+            case 24 -> {
+                for (int i = 0; i < samples; i++) out[i] = (short) ((raw[3 * i + 1] & 0xFF) | raw[3 * i + 2] << 8);
+            }
+            default -> {
+                for (int i = 0; i < samples; i++) {
+                    int o = 4 * i;
+                    int bits = (raw[o] & 0xFF) | (raw[o + 1] & 0xFF) << 8 | (raw[o + 2] & 0xFF) << 16 | raw[o + 3] << 24;
+                    if (format.encoding() == WavFormat.FLOAT) {
+                        float v = Float.intBitsToFloat(bits) * 32767.0f;
+                        out[i] = (short) Math.max(-32768.0f, Math.min(32767.0f, v));
+                    } else {
+                        out[i] = (short) (bits >> 16);
+                    }
+                }
+            }
+        }
+    }
+
+    /** 按 Ogg 页格式写出数据包，数据包不跨页。 */
+    private static final class OggPageWriter {
+        private static final int HEADER_SIZE = 27;
+
+        private final OutputStream out;
+        private final int serial;
+        private final byte[] body = new byte[ImaAdpcm.BLOCKS_PER_PAGE * ImaAdpcm.blockSize(ImaAdpcm.MAX_CHANNELS, ImaAdpcm.FRAMES_PER_BLOCK)];
+        private final byte[] lacing = new byte[255];
+        private int bodyLength = 0;
+        private int segments = 0;
+        private int packets = 0;
+        private int sequence = 0;
+
+        OggPageWriter(OutputStream out, int serial) {
+            this.out = out;
+            this.serial = serial;
+        }
+
+        void addPacket(byte[] data, int length) {
+            System.arraycopy(data, 0, body, bodyLength, length);
+            bodyLength += length;
+            for (int left = length; ; left -= 255) {
+                lacing[segments++] = (byte) Math.min(255, left);
+                if (left < 255) break;
+            }
+            packets++;
+        }
+
+        void flush(long granule, boolean last) throws IOException {
+            byte[] header = new byte[HEADER_SIZE + segments];
+            header[0] = 'O'; header[1] = 'g'; header[2] = 'g'; header[3] = 'S';
+            header[5] = (byte) ((sequence == 0 ? 0x02 : 0) | (last ? 0x04 : 0));
+            writeInt(header, 6, (int) granule);
+            writeInt(header, 10, (int) (granule >>> 32));
+            writeInt(header, 14, serial);
+            writeInt(header, 18, sequence++);
+            header[26] = (byte) segments;
+            System.arraycopy(lacing, 0, header, HEADER_SIZE, segments);
+            int crc = OggCrc.update(0, header, 0, header.length);
+            writeInt(header, 22, OggCrc.update(crc, body, 0, bodyLength));
+
+            out.write(header);
+            out.write(body, 0, bodyLength);
+            bodyLength = 0;
+            segments = 0;
+            packets = 0;
+        }
+
+        private static void writeInt(byte[] b, int off, int value) {
+            b[off] = (byte) value;
+            b[off + 1] = (byte) (value >>> 8);
+            b[off + 2] = (byte) (value >>> 16);
+            b[off + 3] = (byte) (value >>> 24);
+        }
+    }
+}
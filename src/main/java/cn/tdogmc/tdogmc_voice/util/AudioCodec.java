@@ -0,0 +1,12 @@
+package cn.tdogmc.tdogmc_voice.util;
+
+/**
+ * 流的编码格式，在 Start Packet 中告诉客户端使用哪个解码器。两者都封装在 Ogg 页中，
+ * 服务端按同样的 granule 限速、补发头部与跳转。
+ */
+public enum AudioCodec {
+    /** 原始的 .ogg 文件。 */
+    VORBIS,
+    /** 服务端由 WAV 转码而来的 IMA ADPCM，见 {@link ImaAdpcm}。 */
+    IMA_ADPCM
+}
@@ -0,0 +1,40 @@
+package cn.tdogmc.tdogmc_voice.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 音频文件的内容摘要 (SHA-256)。服务端在 Start Packet 中携带，客户端以此为键缓存文件。
+ */
+public final class ContentHash {
+    public static final int LENGTH = 32;
+
+    private ContentHash() {}
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public static byte[] of(byte[] data) {
+        return newDigest().digest(data);
+    }
+
+    /** 流式读取整个文件计算摘要。 */
+    public static byte[] of(Path path) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream input = Files.newInputStream(path)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = input.read(buffer)) > 0) digest.update(buffer, 0, n);
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,169 @@
+package cn.tdogmc.tdogmc_voice.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * IMA ADPCM 编解码（4bit/采样，约为 16bit PCM 的四分之一）。服务端把 WAV 转码为这种格式，客户端解码。
+ * <p>
+ * 流以 Ogg 页封装：第一页只含标识头（{@link #ID_HEADER_SIZE} 字节），之后每个数据包是一个独立的块，
+ * 块不跨页，granule 为截至本页末尾的采样数。块内布局（小端）：
+ * <pre>
+ * u16 帧数
+ * 每声道 { s16 首个采样, u8 步长下标, u8 保留 }
+ * 每声道 ceil((帧数 - 1) / 2) 字节，低 4 位在前
+ * </pre>
+ * 每个块自带预测器状态，断档后从任意一页开始都能正确解码。
+ */
+public final class ImaAdpcm {
+    public static final int FRAMES_PER_BLOCK = 1025;
+    public static final int BLOCKS_PER_PAGE = 4;
+    public static final int MAX_CHANNELS = 2;
+
+    /** 标识头：魔数、版本、声道数、采样率、每块帧数、标称码率，补齐到 28 字节。 */
+    public static final int ID_HEADER_SIZE = 28;
+    private static final byte[] MAGIC = {1, 'T', 'D', 'A', 'D', 'P', 'C', 'M'};
+    private static final int VERSION = 1;
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+    private static final int[] INDEX_TABLE = {-1, -1, -1, -1, 2, 4, 6, 8};
+
+    private ImaAdpcm() {}
+
+    /** 含 {@code frames} 帧的块的字节数。 */
+    public static int blockSize(int channels, int frames) {
+        return 2 + channels * 4 + channels * (frames / 2);
+    }
+
+    public static byte[] idHeader(int channels, int sampleRate) {
+        byte[] header = new byte[ID_HEADER_SIZE];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[8] = VERSION;
+        header[9] = (byte) channels;
+        writeInt(header, 10, sampleRate);
+        header[14] = (byte) FRAMES_PER_BLOCK;
+        header[15] = (byte) (FRAMES_PER_BLOCK >>> 8);
+        writeInt(header, 16, nominalBitrate(channels, sampleRate));
+        return header;
+    }
+
+    /** 是否为 ADPCM 标识头，{@code header} 至少有 {@link #ID_HEADER_SIZE} 字节可读。 */
+    public static boolean isIdHeader(ByteBuffer header, int offset) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header.get(offset + i) != MAGIC[i]) return false;
+        }
+        return header.get(offset + 8) == VERSION;
+    }
+
+    public static int nominalBitrate(int channels, int sampleRate) {
+        long bits = (long) blockSize(channels, FRAMES_PER_BLOCK) * 8 * sampleRate / FRAMES_PER_BLOCK;
+        return (int) Math.min(Integer.MAX_VALUE, bits);
+    }
+
+    /**
+     * 编码器，只保存各声道的步长下标。首个采样原样写入块头，预测器在每块开头重置。
+     */
+    public static final class Encoder {
+        private final int channels;
+        private final int[] index;
+
+        public Encoder(int channels) {
+            this.channels = channels;
+            this.index = new int[channels];
+        }
+
+        /**
+         * 把 {@code frames} 帧交错 PCM 编码为一个块，写入 {@code out[offset..]}，返回写入的字节数。
+         */
+        public int encodeBlock(short[] pcm, int frames, byte[] out, int offset) {
+            int nibbleBytes = frames / 2;
+            out[offset] = (byte) frames;
+            out[offset + 1] = (byte) (frames >>> 8);
+            for (int c = 0; c < channels; c++) {
+                int header = offset + 2 + c * 4;
+                int predictor = pcm[c];
+                out[header] = (byte) predictor;
+                out[header + 1] = (byte) (predictor >>> 8);
+                out[header + 2] = (byte) index[c];
+                out[header + 3] = 0;
+
+                int data = offset + 2 + channels * 4 + c * nibbleBytes;
+                int step = index[c];
+                for (int i = 1; i < frames; i++) {
+                    int diff = pcm[i * channels + c] - predictor;
+                    int code = 0;
+                    if (diff < 0) { code = 8; diff = -diff; }
+                    int s = STEP_TABLE[step];
+                    if (diff >= s) { code |= 4; diff -= s; }
+                    s >>= 1;
+                    if (diff >= s) { code |= 2; diff -= s; }
+                    s >>= 1;
+                    if (diff >= s) code |= 1;
+
+                    // 与解码端使用完全相同的重建公式，避免误差累积
+                    predictor = reconstruct(predictor, step, code);
+                    step = nextIndex(step, code);
+
+                    int pos = data + (i - 1) / 2;
+                    if ((i & 1) == 1) out[pos] = (byte) code;
+                    else out[pos] |= (byte) (code << 4);
+                }
+                index[c] = step;
+            }
+            return blockSize(channels, frames);
+        }
+    }
+
+    /**
+     * 解码 {@code data} 中从 {@code offset} 开始的一个块到交错 PCM，返回帧数；块不完整时返回 -1。
+     */
+    public static int decodeBlock(ByteBuffer data, int offset, int length, int channels, short[] out) {
+        if (length < 2 + channels * 4) return -1;
+        int frames = (data.get(offset) & 0xFF) | (data.get(offset + 1) & 0xFF) << 8;
+        if (frames == 0 || length < blockSize(channels, frames) || frames * channels > out.length) return -1;
+
+        int nibbleBytes = frames / 2;
+        for (int c = 0; c < channels; c++) {
+            int header = offset + 2 + c * 4;
+            int predictor = (short) ((data.get(header) & 0xFF) | data.get(header + 1) << 8);
+            int step = Math.min(data.get(header + 2) & 0xFF, STEP_TABLE.length - 1);
+            out[c] = (short) predictor;
+
+            int base = offset + 2 + channels * 4 + c * nibbleBytes;
+            for (int i = 1; i < frames; i++) {
+                int b = data.get(base + (i - 1) / 2);
+                int code = (i & 1) == 1 ? b & 0x0F : (b >> 4) & 0x0F;
+                predictor = reconstruct(predictor, step, code);
+                step = nextIndex(step, code);
+                out[i * channels + c] = (short) predictor;
+            }
+        }
+        return frames;
+    }
+
+    private static int reconstruct(int predictor, int index, int code) {
+        int step = STEP_TABLE[index];
+        int diff = step >> 3;
+        if ((code & 4) != 0) diff += step;
+        if ((code & 2) != 0) diff += step >> 1;
+        if ((code & 1) != 0) diff += step >> 2;
+        predictor += (code & 8) != 0 ? -diff : diff;
+        return Math.max(-32768, Math.min(32767, predictor));
+    }
+
+    private static int nextIndex(int index, int code) {
+        return Math.max(0, Math.min(STEP_TABLE.length - 1, index + INDEX_TABLE[code & 7]));
+    }
+
+    private static void writeInt(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,252 @@
+package cn.tdogmc.tdogmc_voice.util;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 轻量的指标注册表：计数器、瞬时值和直方图。服务端与客户端各有一个实例，
+ * 可通过 /tdvoice stats 查看，也可以按固定间隔追加写入 CSV 或 JSON Lines 文件，方便与 MSPT 一起绘图。
+ * 记录操作都是无锁的，可以在任意线程调用。
+ */
+public final class Metrics {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Path DUMP_DIR = Path.of("tdogmc_voice_metrics");
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    public static final Metrics SERVER = new Metrics("server");
+    public static final Metrics CLIENT = new Metrics("client");
+
+    private static final ScheduledExecutorService DUMPER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Voice-Metrics-Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public enum Format { CSV, JSON }
+
+    private final String side;
+    // 按注册顺序输出，注册只发生在类初始化期间
+    private final Map<String, Object> metrics = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private ScheduledFuture<?> dumpTask; // 由 this 保护
+    // 以下字段只在导出线程访问
+    private BufferedWriter dumpWriter;
+    private Format dumpFormat;
+    private Set<String> dumpColumns;
+    private long nextDumpMillis = 0;
+
+    private Metrics(String side) {
+        this.side = side;
+    }
+
+    public Counter counter(String name) {
+        return register(name, new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        return register(name, new Histogram());
+    }
+
+    /** 注册一个在读取时才求值的瞬时值。 */
+    public void gauge(String name, LongSupplier value) {
+        register(name, value);
+    }
+
+    public boolean isEmpty() {
+        return metrics.isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T register(String name, T metric) {
+        Object existing = metrics.putIfAbsent(name, metric);
+        return existing != null ? (T) existing : metric;
+    }
+
+    /** 单调递增的计数器。 */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() { value.increment(); }
+
+        public void add(long amount) { value.add(amount); }
+
+        public long get() { return value.sum(); }
+    }
+
+    /**
+     * 按 2 的幂分桶的直方图，分位数取所在桶的上界。
+     * 统计区间从上一次导出开始；未开启导出时从启动开始累计。
+     */
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            // 桶 i 存放 [2^(i-1), 2^i) 的值，0 单独占桶 0
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        /** 记录从 {@code startNanos} 到现在经过的微秒数。 */
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        private void snapshot(String name, Map<String, Number> out, boolean reset) {
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = reset ? buckets.getAndSet(i, 0) : buckets.get(i);
+                total += counts[i];
+            }
+            long n = reset ? count.sumThenReset() : count.sum();
+            long s = reset ? sum.sumThenReset() : sum.sum();
+            long m = reset ? max.getAndSet(0) : max.get();
+            out.put(name + ".count", n);
+            out.put(name + ".mean", n == 0 ? 0 : s / n);
+            out.put(name + ".p50", percentile(counts, total, 0.50));
+            out.put(name + ".p99", percentile(counts, total, 0.99));
+            out.put(name + ".max", m);
+        }
+
+        private static long percentile(long[] counts, long total, double quantile) {
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * quantile);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return i == 0 ? 0 : (1L << i) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 读取所有指标的当前值，直方图展开为 count / mean / p50 / p99 / max。
+     */
+    public Map<String, Number> snapshot(boolean resetHistograms) {
+        Map<String, Number> out = new LinkedHashMap<>();
+        synchronized (metrics) {
+            for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+                Object metric = entry.getValue();
+                if (metric instanceof Counter counter) out.put(entry.getKey(), counter.get());
+                else if (metric instanceof LongSupplier gauge) out.put(entry.getKey(), gauge.getAsLong());
+                else if (metric instanceof Histogram histogram) histogram.snapshot(entry.getKey(), out, resetHistograms);
+            }
+        }
+        return out;
+    }
+
+    /** 供指令输出的可读文本，每个指标一行，直方图合并为一行。 */
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        synchronized (metrics) {
+            Map<String, Number> values = snapshot(false);
+            for (Map.Entry<String, Object> entry : metrics.entrySet()) {
+                String name = entry.getKey();
+                if (entry.getValue() instanceof Histogram) {
+                    lines.add(String.format("%s: n=%d mean=%d p50=%d p99=%d max=%d", name,
+                            values.get(name + ".count").longValue(), values.get(name + ".mean").longValue(),
+                            values.get(name + ".p50").longValue(), values.get(name + ".p99").longValue(),
+                            values.get(name + ".max").longValue()));
+                } else {
+                    lines.add(name + " = " + values.get(name));
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * 开始按配置的间隔导出。配置在每次检查时重新读取，修改后无需重启；间隔为 0 时不导出。
+     */
+    public synchronized void startDump(IntSupplier intervalSeconds, Supplier<Format> format) {
+        if (dumpTask != null) return;
+        dumpTask = DUMPER.scheduleAtFixedRate(() -> {
+            try {
+                int interval = intervalSeconds.getAsInt();
+                long now = System.currentTimeMillis();
+                if (interval <= 0 || now < nextDumpMillis) return;
+                nextDumpMillis = now + interval * 1000L;
+                dump(format.get());
+            } catch (IllegalStateException e) {
+                // 配置文件尚未加载
+            } catch (IOException e) {
+                LOGGER.warn("[Metrics] Failed to write {} metrics", side, e);
+                closeWriter();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopDump() {
+        if (dumpTask == null) return;
+        dumpTask.cancel(false);
+        dumpTask = null;
+        DUMPER.execute(this::closeWriter);
+    }
+
+    private void dump(Format format) throws IOException {
+        Map<String, Number> values = snapshot(true);
+        // 格式或指标集合变化（有类延迟加载后才注册指标）时换一个新文件，保证 CSV 列与表头一致
+        if (dumpWriter == null || format != dumpFormat || !values.keySet().equals(dumpColumns)) {
+            closeWriter();
+            Files.createDirectories(DUMP_DIR);
+            String extension = format == Format.CSV ? ".csv" : ".jsonl";
+            Path path = DUMP_DIR.resolve(side + "-" + LocalDateTime.now().format(FILE_TIME) + extension);
+            dumpWriter = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            dumpFormat = format;
+            dumpColumns = new LinkedHashSet<>(values.keySet());
+            if (format == Format.CSV) {
+                dumpWriter.write("time," + String.join(",", values.keySet()));
+                dumpWriter.newLine();
+            }
+            LOGGER.info("[Metrics] Writing {} metrics to {}", side, path);
+        }
+
+        long time = System.currentTimeMillis();
+        StringBuilder line = new StringBuilder();
+        if (format == Format.CSV) {
+            line.append(time);
+            for (Number value : values.values()) line.append(',').append(value);
+        } else {
+            line.append("{\"time\":").append(time);
+            for (Map.Entry<String, Number> entry : values.entrySet()) {
+                line.append(",\"").append(entry.getKey()).append("\":").append(entry.getValue());
+            }
+            line.append('}');
+        }
+        dumpWriter.write(line.toString());
+        dumpWriter.newLine();
+        dumpWriter.flush();
+    }
+
+    private void closeWriter() {
+        if (dumpWriter == null) return;
+        try { dumpWriter.close(); } catch (IOException ignored) {}
+        dumpWriter = null;
+    }
+}
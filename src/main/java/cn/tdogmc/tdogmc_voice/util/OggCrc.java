@@ -0,0 +1,32 @@
+package cn.tdogmc.tdogmc_voice.util;
+
+/**
+ * Ogg 页校验和（CRC-32，多项式 0x04C11DB7，不反射，初值 0）。
+ * 计算时页头中的校验和字段按 0 处理。
+ */
+public final class OggCrc {
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int r = i << 24;
+            for (int j = 0; j < 8; j++) {
+                r = (r & 0x80000000) != 0 ? (r << 1) ^ 0x04C11DB7 : r << 1;
+            }
+            TABLE[i] = r;
+        }
+    }
+
+    private OggCrc() {}
+
+    public static int update(int crc, byte b) {
+        return (crc << 8) ^ TABLE[((crc >>> 24) ^ b) & 0xFF];
+    }
+
+    public static int update(int crc, byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc << 8) ^ TABLE[((crc >>> 24) ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+}
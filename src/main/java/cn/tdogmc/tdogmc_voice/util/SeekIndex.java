@@ -0,0 +1,154 @@
+package cn.tdogmc.tdogmc_voice.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Ogg 文件的跳转索引：每隔约 {@link #SPACING} 字节记录一个页起点的字节偏移，以及该页之前已完成的采样数 (granule)。
+ * 跳转时二分查找到目标之前最近的页，直接从那里开始读取，不必从文件开头扫描。
+ * 索引保存在旁路文件中并记录源文件的大小与修改时间，任一变化即视为失效并重建。
+ */
+public final class SeekIndex {
+    public static final int SPACING = 64 * 1024;
+    private static final int MAGIC = 0x54445349; // "TDSI"
+    private static final int VERSION = 1;
+    private static final int PAGE_HEADER_SIZE = 27;
+
+    private final long[] granules;
+    private final long[] offsets;
+
+    private SeekIndex(long[] granules, long[] offsets) {
+        this.granules = granules;
+        this.offsets = offsets;
+    }
+
+    /** 开始读取的字节偏移：最后一个 granule 小于目标的索引点，没有时为 0（从文件开头读）。 */
+    public long offsetFor(long granule) {
+        int low = 0, high = granules.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (granules[mid] < granule) low = mid + 1;
+            else high = mid;
+        }
+        return low == 0 ? 0 : offsets[low - 1];
+    }
+
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * 读取旁路文件中的索引；不存在、已失效或无法解析时重新扫描源文件并写回。
+     */
+    public static SeekIndex loadOrBuild(Path file, Path sidecar) throws IOException {
+        long size = Files.size(file);
+        long mtime = Files.getLastModifiedTime(file).toMillis();
+        SeekIndex index = load(sidecar, size, mtime);
+        if (index != null) return index;
+
+        index = build(file);
+        index.save(sidecar, size, mtime);
+        return index;
+    }
+
+    /** 只读取页头并跳过页内容，头部页之后每隔 {@link #SPACING} 字节记录一个页起点。 */
+    public static SeekIndex build(Path file) throws IOException {
+        long[] granules = new long[16];
+        long[] offsets = new long[16];
+        int count = 0;
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(file))) {
+            byte[] header = new byte[PAGE_HEADER_SIZE];
+            long offset = 0;
+            long lastGranule = 0;
+            long lastEntry = 0;
+            while (input.readNBytes(header, 0, PAGE_HEADER_SIZE) == PAGE_HEADER_SIZE
+                    && header[0] == 'O' && header[1] == 'g' && header[2] == 'g' && header[3] == 'S') {
+                // 头部页的 granule 为 0，从第一个音频页之后才开始记录
+                if (lastGranule > 0 && offset - lastEntry >= SPACING) {
+                    if (count == offsets.length) {
+                        granules = Arrays.copyOf(granules, count * 2);
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    }
+                    granules[count] = lastGranule;
+                    offsets[count] = offset;
+                    count++;
+                    lastEntry = offset;
+                }
+
+                int segments = header[26] & 0xFF;
+                byte[] lacing = input.readNBytes(segments);
+                if (lacing.length < segments) break;
+                long body = 0;
+                for (byte value : lacing) body += value & 0xFF;
+                input.skipNBytes(body);
+
+                long granule = readLong(header, 6);
+                if (granule != -1) lastGranule = granule; // -1 表示该页没有结束任何数据包
+                offset += PAGE_HEADER_SIZE + segments + body;
+            }
+        } catch (EOFException e) {
+            // 最后一页被截断，已记录的索引点仍然有效
+        }
+        return new SeekIndex(Arrays.copyOf(granules, count), Arrays.copyOf(offsets, count));
+    }
+
+    private static SeekIndex load(Path sidecar, long size, long mtime) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) return null;
+            if (input.readLong() != size || input.readLong() != mtime) return null;
+            int count = input.readInt();
+            if (count < 0 || count > size / SPACING + 1) return null;
+            long[] granules = new long[count];
+            long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                granules[i] = input.readLong();
+                offsets[i] = input.readLong();
+            }
+            return new SeekIndex(granules, offsets);
+        } catch (IOException e) {
+            return null; // 不存在或已损坏，直接重建
+        }
+    }
+
+    private void save(Path sidecar, long size, long mtime) throws IOException {
+        Path dir = sidecar.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "index", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(size);
+                out.writeLong(mtime);
+                out.writeInt(offsets.length);
+                for (int i = 0; i < offsets.length; i++) {
+                    out.writeLong(granules[i]);
+                    out.writeLong(offsets[i]);
+                }
+            }
+            try {
+                Files.move(tmp, sidecar, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) value = value << 8 | (b[off + i] & 0xFF);
+        return value;
+    }
+}
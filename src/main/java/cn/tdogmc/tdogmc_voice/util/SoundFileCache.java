@@ -3,20 +3,61 @@ package cn.tdogmc.tdogmc_voice.util;
 import com.mojang.logging.LogUtils;
 import org.slf4j.Logger;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
+/**
+ * sounds 目录的增量索引。启动时扫描一次，之后按监听事件逐个更新条目，子目录同样被递归监听；
+ * 每个文件的元数据（大小、修改时间、时长、声道、采样率、内容摘要）只解析一次，在后台线程完成；
+ * Ogg 文件同时建立跳转索引 ({@link SeekIndex})，保存在 {@link #INDEX_DIR} 下，重启后只要文件未变即可直接读取。
+ * 补全按前缀直接从有序索引中取出，不再遍历整个列表。
+ */
 public class SoundFileCache {
     private static final Logger LOGGER = LogUtils.getLogger();
     private static final Path SOUNDS_DIR = Path.of("sounds");
-    private static final List<String> CACHED_FILES = new CopyOnWriteArrayList<>();
+    static final Path INDEX_DIR = Path.of("tdogmc_voice_index");
+    private static final int TAIL_SCAN_BYTES = 64 * 1024;
+
+    // 键为 "小写名称\0原始名称"：前缀查询不区分大小写，大小写不同的文件也不会互相覆盖
+    private static final ConcurrentNavigableMap<String, SoundInfo> INDEX = new ConcurrentSkipListMap<>();
+    private static final List<Consumer<String>> CHANGE_LISTENERS = new CopyOnWriteArrayList<>();
+    private static final ExecutorService METADATA_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Sound-Metadata-Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
     private static Thread watcherThread;
 
+    /**
+     * 一个音频文件的元数据。时长等字段在后台解析完成前为 0，摘要为 null。
+     *
+     * @param name            相对于 sounds 目录的路径，以 / 分隔
+     * @param durationSeconds 由最后一页的 granule 与采样率得出，非 Ogg/Vorbis 文件为 0
+     * @param hash            内容的 SHA-256 摘要
+     * @param seekIndex       跳转索引，只有 Ogg 文件才有，解析完成前为 null
+     */
+    public record SoundInfo(String name, long size, long lastModified, double durationSeconds, int channels, int sampleRate, byte[] hash,
+                            SeekIndex seekIndex) {
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+
     public static void init() {
         if (!Files.exists(SOUNDS_DIR)) {
             try {
@@ -26,66 +67,248 @@ public class SoundFileCache {
                 return;
             }
         }
-        scanFiles();
         startWatcher();
     }
 
-    public static List<String> getSuggestions() {
-        return Collections.unmodifiableList(CACHED_FILES);
+    /**
+     * 名称以 {@code prefix} 开头（不区分大小写）的文件，按名称排序。
+     */
+    public static Collection<String> getSuggestions(String prefix) {
+        String key = prefix.toLowerCase(Locale.ROOT);
+        return INDEX.subMap(key, true, key + Character.MAX_VALUE, false).values().stream().map(SoundInfo::name).toList();
+    }
+
+    /** 文件的元数据，不在索引中时返回 null。 */
+    public static SoundInfo getInfo(String filename) {
+        return INDEX.get(indexKey(filename));
+    }
+
+    /**
+     * 注册文件变更监听器（新增、删除、修改），参数为 sounds 目录下的相对文件名。
+     * 回调在监听线程上执行。
+     */
+    public static void addChangeListener(Consumer<String> listener) {
+        CHANGE_LISTENERS.add(listener);
     }
 
     public static Path getPath(String filename) {
-        if (filename.contains("..") || filename.contains("/") || filename.contains("\\")) {
-            return null; // 防止路径遍历
-        }
-        Path path = SOUNDS_DIR.resolve(filename);
-        return Files.exists(path) ? path : null;
+        // 允许子目录，但解析后的路径必须仍在 sounds 目录内，防止路径遍历
+        Path path = SOUNDS_DIR.resolve(filename).normalize();
+        if (!path.startsWith(SOUNDS_DIR) || filename.contains("\\")) return null;
+        return Files.isRegularFile(path) ? path : null;
     }
 
-    private static void scanFiles() {
+    /** 列出目录下所有音频文件相对于该目录的路径（基准测试也直接调用）。 */
+    static List<String> scanFiles(Path root) throws IOException {
         List<String> found = new ArrayList<>();
-        try (Stream<Path> stream = Files.walk(SOUNDS_DIR)) {
+        try (Stream<Path> stream = Files.walk(root)) {
             stream.filter(Files::isRegularFile)
-                    .filter(path -> {
-                        String name = path.getFileName().toString().toLowerCase();
-                        return name.endsWith(".wav") || name.endsWith(".ogg");
-                    })
-                    .forEach(path -> found.add(SOUNDS_DIR.relativize(path).toString().replace('\\', '/')));
-
-            CACHED_FILES.clear();
-            CACHED_FILES.addAll(found);
+                    .filter(SoundFileCache::isSoundFile)
+                    .forEach(path -> found.add(relativeName(root, path)));
+        }
+        return found;
+    }
+
+    private static boolean isSoundFile(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".wav") || name.endsWith(".ogg");
+    }
+
+    private static String relativeName(Path root, Path path) {
+        return root.relativize(path).toString().replace('\\', '/');
+    }
+
+    private static String indexKey(String name) {
+        return name.toLowerCase(Locale.ROOT) + '\0' + name;
+    }
+
+    /** 全量重建索引，只在启动和监听事件溢出时使用。 */
+    private static void rescan() {
+        try {
+            Set<String> found = new HashSet<>(scanFiles(SOUNDS_DIR));
+            INDEX.values().removeIf(info -> !found.contains(info.name()));
+            for (String name : found) update(SOUNDS_DIR.resolve(name));
+            LOGGER.info("Indexed {} sound files.", INDEX.size());
         } catch (IOException e) {
             LOGGER.error("Failed to scan sound files", e);
         }
     }
 
+    /**
+     * 新增或刷新一个文件的条目。大小与修改时间都没变时什么也不做，否则先登记基本信息，再在后台解析元数据。
+     * 返回条目是否发生了变化。
+     */
+    private static boolean update(Path path) {
+        if (!isSoundFile(path)) return false;
+        String name = relativeName(SOUNDS_DIR, path);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return remove(name); // 事件到达时文件已被删除
+        }
+        if (!attributes.isRegularFile()) return false;
+
+        String key = indexKey(name);
+        SoundInfo existing = INDEX.get(key);
+        if (existing != null && existing.matches(attributes)) return false;
+
+        SoundInfo pending = new SoundInfo(name, attributes.size(), attributes.lastModifiedTime().toMillis(), 0, 0, 0, null, null);
+        INDEX.put(key, pending);
+        METADATA_EXECUTOR.execute(() -> {
+            try {
+                SoundInfo info = readMetadata(name, path, pending);
+                // 解析期间文件又变了就丢弃结果，新的任务已经排队
+                INDEX.replace(key, pending, info);
+            } catch (IOException e) {
+                LOGGER.debug("Failed to read metadata of {}", name, e);
+            }
+        });
+        return true;
+    }
+
+    private static boolean remove(String name) {
+        if (INDEX.remove(indexKey(name)) == null) return false;
+        try {
+            Files.deleteIfExists(seekIndexPath(name));
+        } catch (IOException e) {
+            LOGGER.debug("Failed to delete seek index of {}", name, e);
+        }
+        return true;
+    }
+
+    private static Path seekIndexPath(String name) {
+        return INDEX_DIR.resolve(name + ".idx");
+    }
+
+    /** 删除一个目录（或文件）时，移除其下的所有条目，返回被移除的名称。 */
+    private static List<String> removeTree(String name) {
+        List<String> removed = new ArrayList<>();
+        if (remove(name)) removed.add(name);
+        String prefix = (name + "/").toLowerCase(Locale.ROOT);
+        for (SoundInfo child : List.copyOf(INDEX.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values())) {
+            if (remove(child.name())) removed.add(child.name());
+        }
+        return removed;
+    }
+
+    private static SoundInfo readMetadata(String name, Path path, SoundInfo basic) throws IOException {
+        int channels = 0;
+        int sampleRate = 0;
+        double duration = 0;
+        SeekIndex seekIndex = null;
+        if (name.toLowerCase(Locale.ROOT).endsWith(".ogg")) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer head = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(head, 0);
+                head.flip();
+                // 第一页：27 字节页头 + 段表，之后是 Vorbis 标识头（1 + "vorbis" + 版本 + 声道 + 采样率）
+                if (head.remaining() >= 27 && head.getInt(0) == 0x5367674F) {
+                    int body = 27 + (head.get(26) & 0xFF);
+                    if (head.remaining() >= body + 16 && head.get(body) == 1) {
+                        channels = head.get(body + 11) & 0xFF;
+                        sampleRate = head.getInt(body + 12);
+                    }
+                }
+                long granule = lastGranule(channel);
+                if (sampleRate > 0 && granule > 0) duration = (double) granule / sampleRate;
+            }
+            seekIndex = SeekIndex.loadOrBuild(path, seekIndexPath(name));
+        } else {
+            try (InputStream input = new BufferedInputStream(Files.newInputStream(path))) {
+                WavFormat format = WavFormat.read(input);
+                channels = format.channels();
+                sampleRate = format.sampleRate();
+                long frames = format.frames();
+                if (sampleRate > 0 && frames > 0) duration = (double) frames / sampleRate;
+            } catch (IOException e) {
+                LOGGER.warn("Unreadable WAV header in {}: {}", name, e.getMessage());
+            }
+        }
+
+        return new SoundInfo(name, basic.size(), basic.lastModified(), duration, channels, sampleRate, ContentHash.of(path), seekIndex);
+    }
+
+    /** 从文件末尾向前查找最后一个 Ogg 页头，返回其 granule 位置。 */
+    private static long lastGranule(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int length = (int) Math.min(size, TAIL_SCAN_BYTES);
+        ByteBuffer tail = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(tail, size - length);
+        tail.flip();
+        for (int i = tail.limit() - 27; i >= 0; i--) {
+            if (tail.getInt(i) == 0x5367674F) {
+                long granule = tail.getLong(i + 6);
+                if (granule != -1) return granule;
+            }
+        }
+        return 0;
+    }
+
+    private static void register(WatchService watchService, Map<WatchKey, Path> keys, Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subdir, BasicFileAttributes attrs) throws IOException {
+                keys.put(subdir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), subdir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
     private static void startWatcher() {
         watcherThread = new Thread(() -> {
             try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
-                SOUNDS_DIR.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+                Map<WatchKey, Path> keys = new HashMap<>();
+                // 先注册再扫描，扫描期间新增的文件也不会漏掉
+                register(watchService, keys, SOUNDS_DIR);
+                rescan();
 
                 long lastChangeTime = 0;
-                boolean pendingUpdate = false;
+                boolean overflow = false;
+                // 防抖期间累积的变更路径，同一文件的多次事件只处理一次
+                Set<Path> changedPaths = new LinkedHashSet<>();
 
                 while (!Thread.currentThread().isInterrupted()) {
                     // 使用带超时的 poll，每 500ms 醒来检查一次是否需要更新
-                    WatchKey key = watchService.poll(500, java.util.concurrent.TimeUnit.MILLISECONDS);
+                    WatchKey key = watchService.poll(500, TimeUnit.MILLISECONDS);
 
                     if (key != null) {
+                        Path dir = keys.get(key);
                         for (WatchEvent<?> event : key.pollEvents()) {
-                            if (event.kind() != StandardWatchEventKinds.OVERFLOW) {
-                                lastChangeTime = System.currentTimeMillis();
-                                pendingUpdate = true;
+                            lastChangeTime = System.currentTimeMillis();
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                                overflow = true;
+                                continue;
                             }
+                            Path path = dir.resolve((Path) event.context());
+                            boolean isDirectory = Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+                            // 目录的 MODIFY 只表示其中有文件变化，文件本身的事件会单独到达
+                            if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY && isDirectory) continue;
+                            // 新建的子目录立即注册，避免错过其中紧接着创建的文件
+                            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && isDirectory) {
+                                register(watchService, keys, path);
+                            }
+                            changedPaths.add(path);
                         }
-                        if (!key.reset()) break;
+                        if (!key.reset()) keys.remove(key);
                     }
 
-                    // 防抖动逻辑：只有当有更新挂起，且距离上次变化超过 500ms 时才执行扫描
-                    if (pendingUpdate && (System.currentTimeMillis() - lastChangeTime > 500)) {
-                        scanFiles();
-                        pendingUpdate = false;
-                        LOGGER.info("Sound cache updated.");
+                    // 防抖动逻辑：只有当有更新挂起，且距离上次变化超过 500ms 时才执行
+                    if ((overflow || !changedPaths.isEmpty()) && (System.currentTimeMillis() - lastChangeTime > 500)) {
+                        Set<String> changed = new LinkedHashSet<>();
+                        if (overflow) {
+                            // 丢失了事件，只能全量对账；所有已有文件都通知一次让下游缓存失效
+                            INDEX.values().forEach(info -> changed.add(info.name()));
+                            rescan();
+                        } else {
+                            for (Path path : changedPaths) applyChange(path, changed);
+                        }
+                        for (String name : changed) {
+                            CHANGE_LISTENERS.forEach(listener -> listener.accept(name));
+                        }
+                        LOGGER.info("Sound cache updated: {} changed, {} files.", changed.size(), INDEX.size());
+                        changedPaths.clear();
+                        overflow = false;
                     }
                 }
             } catch (IOException | InterruptedException ignored) {}
@@ -93,4 +316,18 @@ public class SoundFileCache {
         watcherThread.setDaemon(true);
         watcherThread.start();
     }
-}
\ No newline at end of file
+
+    private static void applyChange(Path path, Set<String> changed) throws IOException {
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            // 新建（或移入）的目录：索引其中已有的文件
+            for (String name : scanFiles(path)) {
+                Path file = path.resolve(name);
+                if (update(file)) changed.add(relativeName(SOUNDS_DIR, file));
+            }
+        } else if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            if (update(path)) changed.add(relativeName(SOUNDS_DIR, path));
+        } else {
+            changed.addAll(removeTree(relativeName(SOUNDS_DIR, path)));
+        }
+    }
+}
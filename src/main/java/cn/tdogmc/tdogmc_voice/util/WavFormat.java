@@ -0,0 +1,101 @@
+package cn.tdogmc.tdogmc_voice.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * WAV (RIFF) 文件头。{@link #read(InputStream)} 读到 data 块的起始位置为止，之后的数据即交错采样。
+ *
+ * @param encoding      采样格式：{@link #PCM} 或 {@link #FLOAT}（WAVE_FORMAT_EXTENSIBLE 已展开为子格式）
+ * @param channels      声道数
+ * @param sampleRate    采样率
+ * @param bitsPerSample 每个采样的位数
+ * @param blockAlign    每帧字节数
+ * @param dataSize      data 块的字节数，流式写出的文件未填写时为 -1
+ */
+public record WavFormat(int encoding, int channels, int sampleRate, int bitsPerSample, int blockAlign, long dataSize) {
+    public static final int PCM = 1;
+    public static final int FLOAT = 3;
+    private static final int EXTENSIBLE = 0xFFFE;
+
+    /** 总帧数，data 块大小未知时为 -1。 */
+    public long frames() {
+        return dataSize < 0 || blockAlign == 0 ? -1 : dataSize / blockAlign;
+    }
+
+    /** 是否为可以转码的格式：8/16/24/32bit 整数或 32bit 浮点，单声道或立体声。 */
+    public boolean isSupported() {
+        boolean sampleFormat = encoding == PCM ? bitsPerSample == 8 || bitsPerSample == 16 || bitsPerSample == 24 || bitsPerSample == 32
+                : encoding == FLOAT && bitsPerSample == 32;
+        return sampleFormat && channels >= 1 && channels <= ImaAdpcm.MAX_CHANNELS && sampleRate > 0
+                && blockAlign == channels * bitsPerSample / 8;
+    }
+
+    /** 读取 RIFF 头与 fmt 块，跳过其余块，停在 data 块的数据起点。 */
+    public static WavFormat read(InputStream in) throws IOException {
+        if (readTag(in) != tag("RIFF")) throw new IOException("Not a RIFF file");
+        readInt(in); // 文件大小
+        if (readTag(in) != tag("WAVE")) throw new IOException("Not a WAVE file");
+
+        int encoding = -1, channels = 0, sampleRate = 0, bits = 0, blockAlign = 0;
+        while (true) {
+            int id = readTag(in);
+            long size = readInt(in) & 0xFFFFFFFFL;
+            if (id == tag("fmt ")) {
+                if (size < 16) throw new IOException("Truncated fmt chunk");
+                encoding = readShort(in);
+                channels = readShort(in);
+                sampleRate = readInt(in);
+                readInt(in); // 字节率
+                blockAlign = readShort(in);
+                bits = readShort(in);
+                long read = 16;
+                if (encoding == EXTENSIBLE && size >= 40) {
+                    readShort(in); // cbSize
+                    readShort(in); // 有效位数
+                    readInt(in);   // 声道掩码
+                    encoding = readShort(in); // 子格式 GUID 的前两个字节即格式代码
+                    read = 26;
+                }
+                skip(in, size - read + (size & 1));
+            } else if (id == tag("data")) {
+                if (encoding < 0) throw new IOException("data chunk before fmt chunk");
+                // 0 或 0xFFFFFFFF 表示录制程序没有回填大小
+                long dataSize = size == 0 || size == 0xFFFFFFFFL ? -1 : size;
+                return new WavFormat(encoding, channels, sampleRate, bits, blockAlign, dataSize);
+            } else {
+                skip(in, size + (size & 1));
+            }
+        }
+    }
+
+    private static int tag(String s) {
+        return s.charAt(0) | s.charAt(1) << 8 | s.charAt(2) << 16 | s.charAt(3) << 24;
+    }
+
+    private static int readTag(InputStream in) throws IOException {
+        return readInt(in);
+    }
+
+    private static int readShort(InputStream in) throws IOException {
+        int b0 = in.read(), b1 = in.read();
+        if ((b0 | b1) < 0) throw new EOFException();
+        return b0 | b1 << 8;
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        return readShort(in) | readShort(in) << 16;
+    }
+
+    private static void skip(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+}
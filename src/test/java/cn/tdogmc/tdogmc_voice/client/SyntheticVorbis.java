@@ -0,0 +1,251 @@
+package cn.tdogmc.tdogmc_voice.client;
+
+import cn.tdogmc.tdogmc_voice.util.OggCrc;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 生成任意时长的合法 Ogg Vorbis 流，测试与基准不必附带音频文件。
+ * 只用一种 256 采样的短块：floor1 只有两个端点，residue 1 用一本 2 维 VQ 码本填入随机残差，
+ * 解码器要走完 floor 曲线、残差反量化与逆 MDCT 的完整路径，码率约 200 kbps（立体声）。
+ */
+final class SyntheticVorbis {
+    private static final int SHORT_BLOCK_EXPONENT = 8;
+    private static final int LONG_BLOCK_EXPONENT = 11;
+    private static final int SAMPLES_PER_PACKET = (1 << SHORT_BLOCK_EXPONENT) / 2;
+    private static final int RESIDUE_END = SAMPLES_PER_PACKET;
+    private static final int PARTITION_SIZE = 16;
+    private static final int VQ_DIMENSIONS = 2;
+    private static final int VQ_CODEWORD_BITS = 4;
+    private static final int PACKETS_PER_PAGE = 32;
+    private static final int SERIAL = 0x54445643;
+
+    private SyntheticVorbis() {}
+
+    static byte[] generate(double seconds, int sampleRate, int channels, long seed) {
+        Random random = new Random(seed);
+        OggWriter ogg = new OggWriter();
+        // 标识头必须单独占一页
+        ogg.page(List.of(identificationHeader(sampleRate, channels)), 0, 0x02);
+        ogg.page(List.of(commentHeader(), setupHeader()), 0, 0);
+
+        long packets = (long) (seconds * sampleRate / SAMPLES_PER_PACKET) + 1;
+        List<byte[]> page = new ArrayList<>(PACKETS_PER_PAGE);
+        for (long i = 0; i < packets; i++) {
+            page.add(audioPacket(random, channels, i));
+            boolean last = i == packets - 1;
+            if (page.size() == PACKETS_PER_PAGE || last) {
+                // 第一个音频包只用于重叠，不产生采样
+                ogg.page(page, i * SAMPLES_PER_PACKET, last ? 0x04 : 0);
+                page.clear();
+            }
+        }
+        return ogg.toByteArray();
+    }
+
+    /** 每个音频包（短块）产生的每声道采样数。 */
+    static int samplesPerPacket() {
+        return SAMPLES_PER_PACKET;
+    }
+
+    private static byte[] identificationHeader(int sampleRate, int channels) {
+        BitWriter w = new BitWriter();
+        w.bits(1, 8);
+        w.text("vorbis");
+        w.bits(0, 32);           // 版本
+        w.bits(channels, 8);
+        w.bits(sampleRate, 32);
+        w.bits(0, 32);           // 最大码率
+        w.bits(0, 32);           // 标称码率
+        w.bits(0, 32);           // 最小码率
+        w.bits(SHORT_BLOCK_EXPONENT, 4);
+        w.bits(LONG_BLOCK_EXPONENT, 4);
+        w.bits(1, 1);            // framing
+        return w.toByteArray();
+    }
+
+    private static byte[] commentHeader() {
+        byte[] vendor = "tdogmc_voice synthetic".getBytes(StandardCharsets.UTF_8);
+        BitWriter w = new BitWriter();
+        w.bits(3, 8);
+        w.text("vorbis");
+        w.bits(vendor.length, 32);
+        for (byte b : vendor) w.bits(b & 0xFF, 8);
+        w.bits(0, 32);           // 注释条数
+        w.bits(1, 1);
+        return w.toByteArray();
+    }
+
+    private static byte[] setupHeader() {
+        BitWriter w = new BitWriter();
+        w.bits(5, 8);
+        w.text("vorbis");
+
+        w.bits(2 - 1, 8);
+        // 码本 0：residue 的分类码本，两个 1 位码字都对应唯一的分类
+        w.bits(0x564342, 24);
+        w.bits(1, 16);
+        w.bits(2, 24);
+        w.bits(0, 1);            // 非 ordered
+        w.bits(0, 1);            // 非 sparse
+        for (int i = 0; i < 2; i++) w.bits(1 - 1, 5);
+        w.bits(0, 4);            // 无 VQ 查找表
+        // 码本 1：16 个 4 位码字，每个码字解出 2 个残差值（-1.5/-0.5/0.5/1.5）
+        w.bits(0x564342, 24);
+        w.bits(VQ_DIMENSIONS, 16);
+        w.bits(1 << VQ_CODEWORD_BITS, 24);
+        w.bits(0, 1);
+        w.bits(0, 1);
+        for (int i = 0; i < 1 << VQ_CODEWORD_BITS; i++) w.bits(VQ_CODEWORD_BITS - 1, 5);
+        w.bits(1, 4);            // lookup type 1
+        w.bits(packFloat(-3, -1), 32); // 最小值 -1.5
+        w.bits(packFloat(1, 0), 32);   // 步长 1.0
+        w.bits(2 - 1, 4);        // 每个乘数 2 位
+        w.bits(0, 1);
+        for (int i = 0; i < 4; i++) w.bits(i, 2);
+
+        w.bits(1 - 1, 6);        // time domain transforms（固定为 0）
+        w.bits(0, 16);
+
+        w.bits(1 - 1, 6);        // floor1：没有分区，只有 x=0 与 x=128 两个端点
+        w.bits(1, 16);
+        w.bits(0, 5);
+        w.bits(1 - 1, 2);        // multiplier 1
+        w.bits(7, 4);            // rangebits
+
+        w.bits(1 - 1, 6);        // residue 1，覆盖整个短块
+        w.bits(1, 16);
+        w.bits(0, 24);
+        w.bits(RESIDUE_END, 24);
+        w.bits(PARTITION_SIZE - 1, 24);
+        w.bits(1 - 1, 6);
+        w.bits(0, 8);            // 分类码本
+        w.bits(1, 3);            // 分类 0 只在第一遍使用码本 1
+        w.bits(0, 1);
+        w.bits(1, 8);
+
+        w.bits(1 - 1, 6);        // mapping 0：单个 submap，无声道耦合
+        w.bits(0, 16);
+        w.bits(0, 1);
+        w.bits(0, 1);
+        w.bits(0, 2);
+        w.bits(0, 8);
+        w.bits(0, 8);
+        w.bits(0, 8);
+
+        w.bits(2 - 1, 6);        // 两个模式，都是短块
+        for (int i = 0; i < 2; i++) {
+            w.bits(0, 1);
+            w.bits(0, 16);
+            w.bits(0, 16);
+            w.bits(0, 8);
+        }
+        w.bits(1, 1);
+        return w.toByteArray();
+    }
+
+    private static byte[] audioPacket(Random random, int channels, long index) {
+        BitWriter w = new BitWriter();
+        w.bits(0, 1);            // 音频包
+        w.bits(0, 1);            // 模式 0
+        for (int c = 0; c < channels; c++) {
+            // floor 端点缓慢起伏，得到随时间变化的包络
+            w.bits(1, 1);
+            w.bits(150 + (int) (20 * Math.sin(index * 0.01 + c)), 8);
+            w.bits(140 + (int) (20 * Math.cos(index * 0.013 + c)), 8);
+        }
+        for (int partition = 0; partition < RESIDUE_END / PARTITION_SIZE; partition++) {
+            for (int c = 0; c < channels; c++) w.bits(0, 1);
+            for (int c = 0; c < channels; c++) {
+                for (int i = 0; i < PARTITION_SIZE / VQ_DIMENSIONS; i++) w.codeword(random.nextInt(1 << VQ_CODEWORD_BITS), VQ_CODEWORD_BITS);
+            }
+        }
+        return w.toByteArray();
+    }
+
+    /** Vorbis 的 float32 格式：21 位尾数、10 位指数（偏移 788）、符号位。 */
+    private static int packFloat(int mantissa, int exponent) {
+        int sign = mantissa < 0 ? 0x80000000 : 0;
+        return sign | (exponent + 788) << 21 | Math.abs(mantissa);
+    }
+
+    /** Vorbis 位流：每个字节从最低位开始填充。 */
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current;
+        private int used;
+
+        void bits(long value, int count) {
+            for (int i = 0; i < count; i++) {
+                current |= (int) ((value >>> i) & 1) << used;
+                if (++used == 8) {
+                    out.write(current);
+                    current = 0;
+                    used = 0;
+                }
+            }
+        }
+
+        /** Huffman 码字从最高位开始逐位写出；码长都相同时第 i 个码字就是 i。 */
+        void codeword(int entry, int length) {
+            for (int i = length - 1; i >= 0; i--) bits(entry >>> i, 1);
+        }
+
+        void text(String value) {
+            for (byte b : value.getBytes(StandardCharsets.US_ASCII)) bits(b & 0xFF, 8);
+        }
+
+        byte[] toByteArray() {
+            if (used > 0) {
+                out.write(current);
+                current = 0;
+                used = 0;
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static final class OggWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int sequence = 0;
+
+        void page(List<byte[]> packets, long granule, int flags) {
+            ByteArrayOutputStream lacing = new ByteArrayOutputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            for (byte[] packet : packets) {
+                for (int remaining = packet.length; ; remaining -= 255) {
+                    lacing.write(Math.min(255, remaining));
+                    if (remaining < 255) break;
+                }
+                body.writeBytes(packet);
+            }
+            byte[] page = new byte[27 + lacing.size() + body.size()];
+            page[0] = 'O'; page[1] = 'g'; page[2] = 'g'; page[3] = 'S';
+            page[5] = (byte) flags;
+            writeInt(page, 6, (int) granule);
+            writeInt(page, 10, (int) (granule >>> 32));
+            writeInt(page, 14, SERIAL);
+            writeInt(page, 18, sequence++);
+            page[26] = (byte) lacing.size();
+            System.arraycopy(lacing.toByteArray(), 0, page, 27, lacing.size());
+            System.arraycopy(body.toByteArray(), 0, page, 27 + lacing.size(), body.size());
+            writeInt(page, 22, OggCrc.update(0, page, 0, page.length));
+            out.writeBytes(page);
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private static void writeInt(byte[] b, int off, int value) {
+            b[off] = (byte) value;
+            b[off + 1] = (byte) (value >>> 8);
+            b[off + 2] = (byte) (value >>> 16);
+            b[off + 3] = (byte) (value >>> 24);
+        }
+    }
+}
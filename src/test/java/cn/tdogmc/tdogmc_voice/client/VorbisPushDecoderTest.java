@@ -0,0 +1,100 @@
+package cn.tdogmc.tdogmc_voice.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 增量解码器按数据块喂入时，每块交给 stb 解析的字节数不随曲目变长而增长（旧的 reopen + seek 路径每块都要重新解析整个缓冲区）。
+ * 只统计字节数，结果是确定的；耗时由 VorbisDecodeBenchmark 测量。
+ */
+class VorbisPushDecoderTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    private static final int CHUNK_SIZE = 8192;          // 与服务端的数据块大小一致
+    private static final int STREAM_BUFFER_BYTES = 512 * 1024;
+    private static final int BUFFER_SAMPLES = 8192;
+    // 块边界落在帧中间时会多一次不完整的尝试，多交出的不超过剩余数据加一个块；reopen 路径每块多出的是整个已缓冲的曲目
+    private static final long SLACK_BYTES = 2L * CHUNK_SIZE;
+
+    private NativeBufferPool pool;
+    private ShortBuffer pcm;
+
+    @BeforeEach
+    void setUp() {
+        pool = new NativeBufferPool();
+        pcm = MemoryUtil.memAllocShort(BUFFER_SAMPLES * CHANNELS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        MemoryUtil.memFree(pcm);
+    }
+
+    @Test
+    void decodesEverySampleOnce() {
+        byte[] ogg = SyntheticVorbis.generate(10, SAMPLE_RATE, CHANNELS, 1);
+        Result result = decode(ogg);
+        // 第一个音频包只用于重叠，之后每个包产生半个短块
+        long packets = (long) (10.0 * SAMPLE_RATE / SyntheticVorbis.samplesPerPacket()) + 1;
+        assertEquals((packets - 1) * SyntheticVorbis.samplesPerPacket(), result.samples);
+    }
+
+    @Test
+    void perChunkWorkStaysFlatAsTrackGrows() {
+        double[] seconds = {20, 80, 320};
+        long[] maxima = new long[seconds.length];
+        for (int i = 0; i < seconds.length; i++) {
+            Result result = decode(SyntheticVorbis.generate(seconds[i], SAMPLE_RATE, CHANNELS, 3 + i));
+            long[] bytes = result.chunkBytes;
+            maxima[i] = Arrays.stream(bytes).max().orElseThrow();
+
+            // 同一首曲目里，后面的块不比前面的块需要解析更多数据
+            long early = Arrays.stream(bytes, 0, bytes.length / 4).max().orElseThrow();
+            long late = Arrays.stream(bytes, bytes.length * 3 / 4, bytes.length).max().orElseThrow();
+            assertTrue(late <= early + SLACK_BYTES, "late chunks of a " + seconds[i] + "s track presented " + late + " bytes vs " + early + " early on");
+        }
+        assertTrue(maxima[seconds.length - 1] <= maxima[0] + SLACK_BYTES,
+                "bytes presented per chunk grew with track length: " + Arrays.toString(maxima));
+    }
+
+    /** 与音频线程相同的顺序：每块追加一次，随后把能解的帧全部解完；记录每块交给 stb 的字节数。 */
+    private Result decode(byte[] ogg) {
+        VorbisPushDecoder decoder = new VorbisPushDecoder(pool, STREAM_BUFFER_BYTES);
+        int chunks = (ogg.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        long[] chunkBytes = new long[chunks];
+        long samples = 0;
+        try {
+            for (int i = 0; i < chunks; i++) {
+                byte[] chunk = Arrays.copyOfRange(ogg, i * CHUNK_SIZE, Math.min(ogg.length, (i + 1) * CHUNK_SIZE));
+                long start = decoder.getBytesPresented();
+                assertTrue(decoder.append(chunk), "stream buffer overflowed at chunk " + i);
+                if (decoder.open()) {
+                    int count;
+                    do {
+                        pcm.clear().limit(BUFFER_SAMPLES * decoder.getOutputChannels());
+                        count = decoder.decode(pcm);
+                        samples += count;
+                    } while (count > 0);
+                }
+                chunkBytes[i] = decoder.getBytesPresented() - start;
+            }
+            assertFalse(decoder.hasFailed());
+            assertEquals(CHANNELS, decoder.getOutputChannels());
+            assertEquals(SAMPLE_RATE, decoder.getSampleRate());
+        } finally {
+            decoder.close();
+        }
+        return new Result(samples, chunkBytes);
+    }
+
+    private record Result(long samples, long[] chunkBytes) {}
+}
@@ -0,0 +1,166 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * 实时输入：本机回环端口上的替身编码器逐页写出 Ogg 流，数据块在延迟上限内可取到；
+ * 没有被取走、等待超过上限的数据块在 peek 时被丢弃，之后到达的新块照常可取。
+ */
+class LiveChunkSourceTest {
+    private static final int SAMPLES_PER_PAGE = 960;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final AtomicLong maxLatencyNanos = new AtomicLong(TimeUnit.MILLISECONDS.toNanos(500));
+    private ServerSocket server;
+    private Socket producer;
+    private OutputStream out;
+    private LiveChunkSource source;
+    private long granule = 0;
+
+    @BeforeEach
+    void setUp() throws IOException, InterruptedException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        source = new LiveChunkSource("tcp:127.0.0.1:" + server.getLocalPort(), maxLatencyNanos::get);
+        producer = server.accept();
+        producer.setTcpNoDelay(true);
+        out = producer.getOutputStream();
+
+        // 三个 Vorbis 头包：标识头单独一页，注释头与 setup 头共用一页
+        byte[] idHeader = new byte[30];
+        idHeader[0] = 1;
+        System.arraycopy("vorbis".getBytes(), 0, idHeader, 1, 6);
+        idHeader[11] = 2;
+        writeInt(idHeader, 12, 48000);
+        out.write(page(0, idHeader));
+        out.write(page(0, new byte[16], new byte[64]));
+        out.flush();
+
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (!source.isOpen()) {
+            if (source.hasFailed() || System.nanoTime() > deadline) fail("Live source did not open");
+            Thread.sleep(1);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        source.close();
+        producer.close();
+        server.close();
+    }
+
+    @Test
+    void opensWithHeaderChunksOutsideTheQueue() {
+        assertEquals(48000, source.getInfo().sampleRate());
+        assertFalse(source.getHeaderChunks().isEmpty());
+        // 头部块只从 getHeaderChunks() 补发，不占队列也不会因超时被丢掉
+        assertNull(source.peek());
+    }
+
+    @Test
+    void chunksArriveWithinLatencyBound() throws IOException {
+        long bound = maxLatencyNanos.get();
+        for (int i = 0; i < 50; i++) {
+            byte[] page = page(granule += SAMPLES_PER_PAGE, new byte[400]);
+            long written = System.nanoTime();
+            out.write(page);
+            out.flush();
+
+            AudioChunk chunk = awaitChunk(written + bound);
+            assertNotNull(chunk, "page " + i + " did not arrive within " + TimeUnit.NANOSECONDS.toMillis(bound) + "ms");
+            assertArrayEquals(page, chunk.data(), "eager chunking should hand over each page as it arrives");
+            assertEquals(granule, chunk.granule());
+            assertSame(chunk, source.poll());
+        }
+        assertEquals(0, source.getDroppedChunks());
+    }
+
+    @Test
+    void dropsChunksOlderThanLatencyBound() throws IOException, InterruptedException {
+        maxLatencyNanos.set(TimeUnit.MILLISECONDS.toNanos(100));
+        // 比一个数据块还大的页独占一块，块数与页数一致
+        int pages = 5;
+        for (int i = 0; i < pages; i++) out.write(page(granule += SAMPLES_PER_PAGE, new byte[ServerStreamManager.CHUNK_SIZE + 100]));
+        out.flush();
+
+        // 没有人取数据（发送受限或暂停），积压的块超过上限后在 peek 时被丢弃
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (source.getDroppedChunks() < pages) {
+            if (System.nanoTime() > deadline) fail("only " + source.getDroppedChunks() + " of " + pages + " stale chunks dropped");
+            source.peek();
+            Thread.sleep(10);
+        }
+        assertNull(source.peek());
+        assertFalse(source.isExhausted());
+
+        // 之后到达的新块没有超过上限，照常可取
+        byte[] fresh = page(granule += SAMPLES_PER_PAGE, new byte[400]);
+        out.write(fresh);
+        out.flush();
+        AudioChunk chunk = awaitChunk(System.nanoTime() + maxLatencyNanos.get());
+        assertNotNull(chunk);
+        assertArrayEquals(fresh, chunk.data());
+        assertEquals(pages, source.getDroppedChunks());
+        assertSame(chunk, source.poll());
+    }
+
+    /** 像主线程一样先 peek（顺带丢弃过期块），直到取到数据块或超过截止时刻。 */
+    private AudioChunk awaitChunk(long deadline) {
+        AudioChunk chunk;
+        while ((chunk = source.peek()) == null) {
+            if (System.nanoTime() > deadline || source.isExhausted()) return null;
+            Thread.onSpinWait();
+        }
+        return chunk;
+    }
+
+    /** 每个数据包的最后一个分段长度都小于 255，表示包在本页结束。 */
+    private static byte[] page(long granule, byte[]... packets) {
+        ByteArrayOutputStream lacing = new ByteArrayOutputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] packet : packets) {
+            for (int remaining = packet.length; ; remaining -= 255) {
+                lacing.write(Math.min(255, remaining));
+                if (remaining < 255) break;
+            }
+            body.writeBytes(packet);
+        }
+        byte[] header = new byte[27];
+        header[0] = 'O'; header[1] = 'g'; header[2] = 'g'; header[3] = 'S';
+        writeInt(header, 6, (int) granule);
+        writeInt(header, 10, (int) (granule >>> 32));
+        header[26] = (byte) lacing.size();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(27 + lacing.size() + body.size());
+        out.writeBytes(header);
+        out.writeBytes(lacing.toByteArray());
+        out.writeBytes(body.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static void writeInt(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+}
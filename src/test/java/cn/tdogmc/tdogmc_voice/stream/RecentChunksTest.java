@@ -0,0 +1,62 @@
+package cn.tdogmc.tdogmc_voice.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 中途加入的玩家从当前播放进度所在的块开始接收：补发的块覆盖当前进度，序号连续地接上会话之后发出的块。
+ */
+class RecentChunksTest {
+    private static final int SAMPLES_PER_CHUNK = 4096;
+    private static final int HEADER_CHUNKS = 2;
+
+    @Test
+    void joinerStartsAtChunkContainingCurrentSample() {
+        RecentChunks recent = new RecentChunks();
+        // 会话超前发出了 10 块，玩家加入时实际播放到第 3 块中间
+        int nextSequence = send(recent, HEADER_CHUNKS, 10);
+        long current = 3 * SAMPLES_PER_CHUNK + SAMPLES_PER_CHUNK / 2;
+        recent.trim(current);
+
+        List<RecentChunks.Entry> catchUp = recent.from(current);
+        RecentChunks.Entry first = catchUp.get(0);
+        // 第一块的结尾在当前进度之后、开头不晚于当前进度
+        assertTrue(first.position() >= current);
+        assertTrue(first.position() - SAMPLES_PER_CHUNK <= current);
+        assertEquals(HEADER_CHUNKS + 3, first.sequence());
+        // 补发到会话最近发出的块为止，下一块就是会话接着发出的块
+        assertEquals(nextSequence - 1, catchUp.get(catchUp.size() - 1).sequence());
+        for (int i = 1; i < catchUp.size(); i++) assertEquals(catchUp.get(i - 1).sequence() + 1, catchUp.get(i).sequence());
+    }
+
+    @Test
+    void laterJoinerSkipsChunksAlreadyPlayed() {
+        RecentChunks recent = new RecentChunks();
+        send(recent, HEADER_CHUNKS, 10);
+        // 上次发送后又过了一段时间，加入时的进度晚于上次裁剪的位置
+        recent.trim(SAMPLES_PER_CHUNK);
+        long current = 6 * SAMPLES_PER_CHUNK + 1;
+        assertEquals(HEADER_CHUNKS + 6, recent.from(current).get(0).sequence());
+    }
+
+    @Test
+    void sequenceGapDropsOlderChunks() {
+        RecentChunks recent = new RecentChunks();
+        int nextSequence = send(recent, HEADER_CHUNKS, 5);
+        // 跳过一个序号后，之前的块与之后的块接不上，不能一起补发
+        recent.add(nextSequence + 1, 6L * SAMPLES_PER_CHUNK, new byte[0]);
+        List<RecentChunks.Entry> catchUp = recent.from(0);
+        assertEquals(1, catchUp.size());
+        assertEquals(nextSequence + 1, catchUp.get(0).sequence());
+    }
+
+    /** 像会话一样依次发出 {@code count} 块，第 i 块覆盖 [i, i + 1) * SAMPLES_PER_CHUNK，返回下一个序号。 */
+    private static int send(RecentChunks recent, int sequence, int count) {
+        for (int i = 0; i < count; i++) recent.add(sequence++, (long) (i + 1) * SAMPLES_PER_CHUNK, new byte[0]);
+        return sequence;
+    }
+}